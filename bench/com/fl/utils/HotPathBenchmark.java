@@ -0,0 +1,325 @@
+package com.fl.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jxl.Cell;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.Paragraph;
+import com.itextpdf.text.pdf.PdfPCell;
+import com.itextpdf.text.pdf.PdfPTable;
+import com.itextpdf.text.pdf.PdfWriter;
+
+/**
+ * 转换热点的基准测试：processRow、合并单元格查找、transferFormat、
+ * convertFont、ChineseFont.containsChinese、CustomPdfPageEvent.onEndPage
+ * 和完整的 write()
+ * 
+ * 用法：HotPathBenchmark [-rows 100,1000] [-cols 8] [-merge 0,0.05]
+ * [-cjk 0,0.5] [-warmup n] [-iterations n] [-bench processRow,write,...]
+ * 
+ * 每种参数组合用 WorkbookGenerator 在内存中生成一个 .xls，每个测试先运行
+ * warmup 次，再计时运行 iterations 次。结果是每次操作的纳秒数和分配的字节数，
+ * 分配的字节数来自 com.sun.management.ThreadMXBean，JVM 不支持时显示 -1
+ */
+public class HotPathBenchmark {
+	/** 所有测试的名称 */
+	private static final String[] BENCHMARKS = { "processRow", "mergedRegions",
+			"transferFormat", "convertFont", "containsChinese", "onEndPage",
+			"write" };
+	
+	/** 每次 onEndPage 测试的页数 */
+	private static final int PAGES = 100;
+	
+	public static void main(String[] args) throws Exception {
+		int[] rows = { 100, 1000 };
+		int[] cols = { 8 };
+		double[] merges = { 0, 0.05 };
+		double[] cjks = { 0, 0.5 };
+		int warmup = 5;
+		int iterations = 10;
+		List<String> benchmarks = Arrays.asList(BENCHMARKS);
+		try {
+			for (int k = 0; k < args.length; k++) {
+				if ("-rows".equals(args[k]))
+					rows = parseInts(args[++k]);
+				else if ("-cols".equals(args[k]))
+					cols = parseInts(args[++k]);
+				else if ("-merge".equals(args[k]))
+					merges = parseDoubles(args[++k]);
+				else if ("-cjk".equals(args[k]))
+					cjks = parseDoubles(args[++k]);
+				else if ("-warmup".equals(args[k]))
+					warmup = Integer.parseInt(args[++k]);
+				else if ("-iterations".equals(args[k]))
+					iterations = Integer.parseInt(args[++k]);
+				else if ("-bench".equals(args[k]))
+					benchmarks = Arrays.asList(args[++k].split(","));
+				else
+					throw new IllegalArgumentException(args[k]);
+			}
+		} catch (RuntimeException e) {
+			System.err.println("usage: HotPathBenchmark [-rows 100,1000] "
+					+ "[-cols 8] [-merge 0,0.05] [-cjk 0,0.5] [-warmup n] "
+					+ "[-iterations n] [-bench "
+					+ Arrays.toString(BENCHMARKS).replaceAll("[\\[\\] ]", "")
+					+ "]");
+			System.exit(1);
+		}
+		
+		System.out.println(String.format(
+				"%6s %4s %6s %5s %-16s %10s %12s %10s", "rows", "cols",
+				"merge", "cjk", "benchmark", "ops", "ns/op", "B/op"));
+		for (int r = 0; r < rows.length; r++) {
+			for (int c = 0; c < cols.length; c++) {
+				for (int m = 0; m < merges.length; m++) {
+					for (int j = 0; j < cjks.length; j++) {
+						WorkbookGenerator generator = new WorkbookGenerator();
+						generator.setRows(rows[r]);
+						generator.setColumns(cols[c]);
+						generator.setMergePattern(
+								WorkbookGenerator.MERGE_RANDOM);
+						generator.setMergeDensity(merges[m]);
+						generator.setCjkRatio(cjks[j]);
+						Fixture fixture = new Fixture(generator.generate());
+						for (int b = 0; b < benchmarks.size(); b++) {
+							String name = benchmarks.get(b);
+							HotPath path = fixture.getHotPath(name);
+							if (path == null)
+								throw new IllegalArgumentException(
+										"unknown benchmark: " + name);
+							double[] result = measure(path, warmup,
+									iterations);
+							System.out.println(String.format("%6d %4d %6.3f "
+									+ "%5.2f %-16s %10.0f %12.1f %10.1f",
+									rows[r], cols[c], merges[m], cjks[j], name,
+									result[0], result[1], result[2]));
+						}
+						fixture.close();
+					}
+				}
+			}
+		}
+	}
+	
+	// ------------------------------------------------ private
+	
+	/**
+	 * 运行测试
+	 * 
+	 * @return 每次运行的操作数、每次操作的纳秒数和分配的字节数
+	 * @throws Exception
+	 */
+	private static double[] measure(HotPath path, int warmup, int iterations)
+			throws Exception {
+		for (int k = 0; k < warmup; k++)
+			path.run();
+		long ops = 0;
+		long allocated = AllocationCounter.getAllocatedBytes();
+		long start = System.nanoTime();
+		for (int k = 0; k < iterations; k++)
+			ops += path.run();
+		long elapsed = System.nanoTime() - start;
+		if (allocated >= 0)
+			allocated = AllocationCounter.getAllocatedBytes() - allocated;
+		ops = Math.max(ops, 1);
+		return new double[] { (double) ops / Math.max(iterations, 1),
+				(double) elapsed / ops,
+				allocated < 0 ? -1 : (double) allocated / ops };
+	}
+	
+	private static int[] parseInts(String s) {
+		String[] values = s.split(",");
+		int[] result = new int[values.length];
+		for (int k = 0; k < values.length; k++)
+			result[k] = Integer.parseInt(values[k].trim());
+		return result;
+	}
+	
+	private static double[] parseDoubles(String s) {
+		String[] values = s.split(",");
+		double[] result = new double[values.length];
+		for (int k = 0; k < values.length; k++)
+			result[k] = Double.parseDouble(values[k].trim());
+		return result;
+	}
+	
+	/**
+	 * 一个被测试的热点
+	 */
+	private abstract static class HotPath {
+		/**
+		 * 运行一次
+		 * 
+		 * @return 完成的操作数
+		 * @throws Exception
+		 */
+		abstract long run() throws Exception;
+	}
+	
+	/**
+	 * 一个工作簿的测试数据：转换器、工作表副本和从中取出的单元格
+	 */
+	private static class Fixture {
+		/** .xls 文件的内容 */
+		final byte[] data;
+		/** 转换设置，显示页码和页脚 */
+		final Excel xls;
+		/** 转换器 */
+		final Excel2PdfTransformer transformer;
+		/** 第一个工作表的副本 */
+		final SheetSnapshot sheet;
+		/** 所有单元格 */
+		final List<Cell> cells = new ArrayList<Cell>();
+		/** 所有单元格的字体 */
+		final List<jxl.format.Font> fonts = new ArrayList<jxl.format.Font>();
+		/** onEndPage 用到的文档 */
+		final Document document;
+		/** onEndPage 用到的 writer */
+		final PdfWriter writer;
+		/** 页面事件 */
+		final CustomPdfPageEvent pageEvent;
+		
+		Fixture(byte[] data) throws Exception {
+			this.data = data;
+			xls = createExcel(data);
+			transformer = new Excel2PdfTransformer(xls);
+			WorkbookReader workbook = transformer.openWorkbook();
+			try {
+				sheet = new SheetSnapshot(workbook.getSheet(0));
+			} finally {
+				workbook.close();
+			}
+			for (int i = 0; i < sheet.getRows(); i++) {
+				Cell[] row = sheet.getRow(i);
+				for (int j = 0; j < row.length; j++) {
+					cells.add(row[j]);
+					if (row[j].getCellFormat() != null
+							&& row[j].getCellFormat().getFont() != null)
+						fonts.add(row[j].getCellFormat().getFont());
+				}
+			}
+			
+			document = new Document(xls.getPageSize());
+			writer = PdfWriter.getInstance(document, new CountingOutputStream());
+			pageEvent = transformer.createPageEvent();
+			writer.setPageEvent(pageEvent);
+			document.open();
+		}
+		
+		Excel createExcel(byte[] data) {
+			Excel xls = new Excel(data);
+			xls.setShowPageNumber(true);
+			xls.setPageNumberStyle(FooterText.STYLE_PAGE_NUMBER_N_OFTOTAL);
+			xls.addPageFooter(new FooterText("Synthetic report"));
+			return xls;
+		}
+		
+		HotPath getHotPath(String name) {
+			if ("processRow".equals(name)) {
+				return new HotPath() {
+					long run() {
+						ConversionContext context = new ConversionContext();
+						context.currentSheet = sheet;
+						context.currentRegions = sheet.getMergedRegions();
+						PdfPTable table = new PdfPTable(sheet.getColumns());
+						int[] widths = new int[sheet.getColumns()];
+						MergedRegions.Cursor merged = context.currentRegions
+								.cursor();
+						for (int i = 0; i < sheet.getRows(); i++)
+							transformer.processRow(context, table, merged, i,
+									widths);
+						return sheet.getRows();
+					}
+				};
+			} else if ("mergedRegions".equals(name)) {
+				return new HotPath() {
+					long run() {
+						MergedRegions.Cursor merged = sheet.getMergedRegions()
+								.cursor();
+						int found = 0;
+						for (int i = 0; i < sheet.getRows(); i++) {
+							merged.moveTo(i);
+							for (int j = 0; j < sheet.getColumns(); j++)
+								if (merged.regionAt(j) >= 0)
+									found++;
+						}
+						return found >= 0 ? sheet.getRows() : 0;
+					}
+				};
+			} else if ("transferFormat".equals(name)) {
+				return new HotPath() {
+					long run() {
+						PdfPCell pdfCell = new PdfPCell();
+						for (int k = 0; k < cells.size(); k++)
+							transformer.transferFormat(pdfCell, cells.get(k),
+									false, true);
+						return cells.size();
+					}
+				};
+			} else if ("convertFont".equals(name)) {
+				return new HotPath() {
+					long run() {
+						for (int k = 0; k < fonts.size(); k++)
+							transformer.convertFont(fonts.get(k));
+						return fonts.size();
+					}
+				};
+			} else if ("containsChinese".equals(name)) {
+				return new HotPath() {
+					long run() {
+						int found = 0;
+						for (int k = 0; k < cells.size(); k++)
+							if (ChineseFont.containsChinese(cells.get(k)
+									.getContents()))
+								found++;
+						return found >= 0 ? cells.size() : 0;
+					}
+				};
+			} else if ("onEndPage".equals(name)) {
+				return new HotPath() {
+					long run() {
+						for (int k = 0; k < PAGES; k++) {
+							pageEvent.onEndPage(writer, document);
+							writer.getDirectContent().reset();
+						}
+						return PAGES;
+					}
+				};
+			} else if ("write".equals(name)) {
+				return new HotPath() {
+					long run() throws Exception {
+						new Excel2PdfTransformer(createExcel(data))
+								.write(new CountingOutputStream());
+						return 1;
+					}
+				};
+			}
+			return null;
+		}
+		
+		void close() throws Exception {
+			document.add(new Paragraph(" "));
+			document.close();
+		}
+	}
+	
+	/**
+	 * 只计算字节数的输出流
+	 */
+	private static class CountingOutputStream extends OutputStream {
+		long count = 0;
+		
+		public void write(int b) throws IOException {
+			count++;
+		}
+		
+		public void write(byte[] b, int off, int len) throws IOException {
+			count += len;
+		}
+	}
+}
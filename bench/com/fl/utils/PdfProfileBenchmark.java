@@ -0,0 +1,93 @@
+package com.fl.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 比较各个 PdfProfile 的转换速度和输出大小
+ * 
+ * 用法：PdfProfileBenchmark [-rounds n] [-warmup n] file1.xls file2.xlsx ...
+ * 
+ * 每个文件按每个 profile 先转换 warmup 次，再计时转换 rounds 次，输出写到计数
+ * 的空流，不写文件。结果中的时间是平均值，大小是相对 DEFAULT 的比例
+ */
+public class PdfProfileBenchmark {
+	/** 比较的 profile */
+	private static final PdfProfile[] PROFILES = { PdfProfile.DEFAULT,
+			PdfProfile.FAST, PdfProfile.BALANCED, PdfProfile.SMALLEST };
+	
+	public static void main(String[] args) throws Exception {
+		int rounds = 5;
+		int warmup = 2;
+		List<File> files = new ArrayList<File>();
+		for (int k = 0; k < args.length; k++) {
+			if ("-rounds".equals(args[k]))
+				rounds = Integer.parseInt(args[++k]);
+			else if ("-warmup".equals(args[k]))
+				warmup = Integer.parseInt(args[++k]);
+			else
+				files.add(new File(args[k]));
+		}
+		if (files.isEmpty() || rounds < 1) {
+			System.err.println("usage: PdfProfileBenchmark [-rounds n] "
+					+ "[-warmup n] file1.xls file2.xlsx ...");
+			System.exit(1);
+		}
+		
+		System.out.println(String.format("%-24s %-9s %10s %10s %12s %7s",
+				"file", "profile", "avg ms", "files/s", "bytes", "size"));
+		for (int f = 0; f < files.size(); f++) {
+			File file = files.get(f);
+			long defaultSize = 0;
+			for (int p = 0; p < PROFILES.length; p++) {
+				PdfProfile profile = PROFILES[p];
+				for (int k = 0; k < warmup; k++)
+					convert(file, profile);
+				long size = 0;
+				long start = System.nanoTime();
+				for (int k = 0; k < rounds; k++)
+					size = convert(file, profile);
+				double ms = (System.nanoTime() - start) / 1e6 / rounds;
+				if (profile == PdfProfile.DEFAULT)
+					defaultSize = size;
+				System.out.println(String.format(
+						"%-24s %-9s %10.1f %10.2f %12d %6.1f%%",
+						file.getName(), profile.getName(), ms, 1000 / ms, size,
+						defaultSize == 0 ? 100.0 : size * 100.0 / defaultSize));
+			}
+		}
+	}
+	
+	/**
+	 * 转换一次
+	 * 
+	 * @return 输出的字节数
+	 * @throws Exception
+	 */
+	private static long convert(File file, PdfProfile profile)
+			throws Exception {
+		Excel xls = new Excel(file);
+		xls.setPdfProfile(profile);
+		CountingOutputStream output = new CountingOutputStream();
+		new Excel2PdfTransformer(xls).write(output);
+		return output.count;
+	}
+	
+	/**
+	 * 只计算字节数的输出流
+	 */
+	private static class CountingOutputStream extends OutputStream {
+		long count = 0;
+		
+		public void write(int b) throws IOException {
+			count++;
+		}
+		
+		public void write(byte[] b, int off, int len) throws IOException {
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,372 @@
+package com.fl.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 端到端的回归测试：重复转换一组 Excel 文件，统计吞吐量、p50/p99 延迟、
+ * 堆内存峰值和每次转换分配的字节数，和基准结果比较，超出容差时失败
+ * 
+ * 用法：RegressionHarness [-rounds n] [-warmup n] [-tolerance 0.2]
+ * [-baseline file] [-save file] [-corpus dir] [file1.xls file2.xlsx ...]
+ * 
+ * 没有指定文件时使用 WorkbookGenerator 生成的一组文件，-corpus 把它们保存到
+ * 目录。-save 把结果保存为 properties 文件，之后用 -baseline 指定这个文件作为
+ * 预算：吞吐量低于 (1 - tolerance) 倍，或其他指标高于 (1 + tolerance) 倍时
+ * 列出超出的指标，退出码是 2。可以手工删除或修改 properties 中的项
+ */
+public class RegressionHarness {
+	/** 吞吐量，每秒转换次数，越大越好 */
+	public static final String THROUGHPUT = "throughput";
+	/** 延迟中位数，毫秒 */
+	public static final String P50 = "p50";
+	/** 99% 延迟，毫秒 */
+	public static final String P99 = "p99";
+	/** 堆内存峰值，字节 */
+	public static final String PEAK_HEAP = "peakHeap";
+	/** 每次转换分配的字节数 */
+	public static final String ALLOCATED = "allocated";
+	
+	/** 所有文件合计的结果名称 */
+	private static final String TOTAL = "all";
+	
+	/** 要转换的文件：名称和内容 */
+	private final Map<String, byte[]> corpus =
+			new LinkedHashMap<String, byte[]>();
+	
+	/** 每个文件计时转换的次数 */
+	private int rounds = 10;
+	
+	/** 每个文件预热转换的次数 */
+	private int warmup = 2;
+	
+	public static void main(String[] args) throws Exception {
+		RegressionHarness harness = new RegressionHarness();
+		double tolerance = 0.2;
+		File baseline = null;
+		File save = null;
+		File corpusDir = null;
+		List<File> files = new ArrayList<File>();
+		try {
+			for (int k = 0; k < args.length; k++) {
+				if ("-rounds".equals(args[k]))
+					harness.setRounds(Integer.parseInt(args[++k]));
+				else if ("-warmup".equals(args[k]))
+					harness.setWarmup(Integer.parseInt(args[++k]));
+				else if ("-tolerance".equals(args[k]))
+					tolerance = Double.parseDouble(args[++k]);
+				else if ("-baseline".equals(args[k]))
+					baseline = new File(args[++k]);
+				else if ("-save".equals(args[k]))
+					save = new File(args[++k]);
+				else if ("-corpus".equals(args[k]))
+					corpusDir = new File(args[++k]);
+				else if (args[k].startsWith("-"))
+					throw new IllegalArgumentException(args[k]);
+				else
+					files.add(new File(args[k]));
+			}
+		} catch (RuntimeException e) {
+			System.err.println("usage: RegressionHarness [-rounds n] "
+					+ "[-warmup n] [-tolerance 0.2] [-baseline file] "
+					+ "[-save file] [-corpus dir] [file1.xls ...]");
+			System.exit(1);
+		}
+		
+		if (files.isEmpty()) {
+			harness.addDefaultCorpus();
+		} else {
+			for (int k = 0; k < files.size(); k++)
+				harness.add(files.get(k).getName(),
+						Files.readAllBytes(files.get(k).toPath()));
+		}
+		if (corpusDir != null)
+			harness.saveCorpus(corpusDir);
+		
+		Map<String, Double> results = harness.run();
+		if (save != null) {
+			Properties p = new Properties();
+			for (Map.Entry<String, Double> e : results.entrySet())
+				p.setProperty(e.getKey(), String.valueOf(e.getValue()));
+			OutputStream output = new FileOutputStream(save);
+			try {
+				p.store(output, "RegressionHarness baseline");
+			} finally {
+				output.close();
+			}
+		}
+		if (baseline != null) {
+			Properties p = new Properties();
+			InputStream input = new FileInputStream(baseline);
+			try {
+				p.load(input);
+			} finally {
+				input.close();
+			}
+			List<String> failures = check(p, results, tolerance);
+			for (int k = 0; k < failures.size(); k++)
+				System.out.println("REGRESSION " + failures.get(k));
+			if (!failures.isEmpty())
+				System.exit(2);
+			System.out.println("OK: within " + (tolerance * 100)
+					+ "% of " + baseline);
+		}
+	}
+	
+	/**
+	 * 添加一个要转换的文件
+	 * 
+	 * @param name
+	 *            - 名称，用于报告
+	 * @param data
+	 *            - .xls 或 .xlsx 的内容
+	 */
+	public void add(String name, byte[] data) {
+		corpus.put(name, data);
+	}
+	
+	/**
+	 * 添加 WorkbookGenerator 生成的默认文件：普通表格、随机合并、多个工作表的
+	 * 报表和大部分是中文的分组表格
+	 * 
+	 * @throws Exception
+	 */
+	public void addDefaultCorpus() throws Exception {
+		WorkbookGenerator generator = new WorkbookGenerator();
+		generator.setRows(500);
+		add("plain.xls", generator.generate());
+		
+		generator = new WorkbookGenerator();
+		generator.setRows(500);
+		generator.setColumns(10);
+		generator.setMergePattern(WorkbookGenerator.MERGE_RANDOM);
+		generator.setMergeDensity(0.1);
+		add("merged.xls", generator.generate());
+		
+		generator = new WorkbookGenerator();
+		generator.setSheets(3);
+		generator.setRows(300);
+		generator.setColumns(12);
+		generator.setMergePattern(WorkbookGenerator.MERGE_BANDS);
+		generator.setFontCount(4);
+		generator.setCjkRatio(0.2);
+		add("report.xls", generator.generate());
+		
+		generator = new WorkbookGenerator();
+		generator.setRows(500);
+		generator.setMergePattern(WorkbookGenerator.MERGE_GROUPS);
+		generator.setBorderStyle(null);
+		generator.setCjkRatio(0.8);
+		add("cjk.xls", generator.generate());
+	}
+	
+	/**
+	 * 把要转换的文件保存到目录
+	 * 
+	 * @param dir
+	 *            - 目录，不存在时创建
+	 * @throws IOException
+	 */
+	public void saveCorpus(File dir) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("cannot create directory: " + dir);
+		for (Map.Entry<String, byte[]> e : corpus.entrySet())
+			Files.write(new File(dir, e.getKey()).toPath(), e.getValue());
+	}
+	
+	/**
+	 * 转换所有文件并输出结果
+	 * 
+	 * @return 每个文件和合计的指标，名称是 "文件名.指标" 和 "all.指标"
+	 * @throws Exception
+	 */
+	public Map<String, Double> run() throws Exception {
+		Map<String, Double> results = new LinkedHashMap<String, Double>();
+		long[] all = new long[corpus.size() * rounds];
+		long allNanos = 0;
+		long allAllocated = 0;
+		long allPeak = 0;
+		int n = 0;
+		
+		System.out.println(String.format("%-20s %10s %10s %10s %12s %14s",
+				"file", "conv/s", "p50 ms", "p99 ms", "peak heap",
+				"alloc/conv"));
+		for (Map.Entry<String, byte[]> e : corpus.entrySet()) {
+			byte[] data = e.getValue();
+			for (int k = 0; k < warmup; k++)
+				convert(data);
+			
+			System.gc();
+			resetPeakHeap();
+			long[] latencies = new long[rounds];
+			long allocated = AllocationCounter.getAllocatedBytes();
+			for (int k = 0; k < rounds; k++) {
+				long start = System.nanoTime();
+				convert(data);
+				latencies[k] = System.nanoTime() - start;
+			}
+			if (allocated >= 0)
+				allocated = AllocationCounter.getAllocatedBytes() - allocated;
+			long peak = getPeakHeap();
+			
+			long nanos = 0;
+			for (int k = 0; k < rounds; k++) {
+				nanos += latencies[k];
+				all[n++] = latencies[k];
+			}
+			allNanos += nanos;
+			allPeak = Math.max(allPeak, peak);
+			if (allocated >= 0 && allAllocated >= 0)
+				allAllocated += allocated;
+			else
+				allAllocated = -1;
+			put(results, e.getKey(), rounds, nanos, latencies, peak,
+					allocated < 0 ? -1 : allocated / rounds);
+		}
+		put(results, TOTAL, all.length, allNanos, all, allPeak,
+				allAllocated < 0 ? -1 : allAllocated / all.length);
+		return results;
+	}
+	
+	/**
+	 * 和基准比较
+	 * 
+	 * @param baseline
+	 *            - 基准结果
+	 * @param results
+	 *            - 这次的结果
+	 * @param tolerance
+	 *            - 容差，0.2 表示 20%
+	 * @return 超出容差的指标的说明
+	 */
+	public static List<String> check(Properties baseline,
+			Map<String, Double> results, double tolerance) {
+		List<String> failures = new ArrayList<String>();
+		List<String> keys = new ArrayList<String>(baseline.stringPropertyNames());
+		Collections.sort(keys);
+		for (int k = 0; k < keys.size(); k++) {
+			String key = keys.get(k);
+			double expected = Double.parseDouble(baseline.getProperty(key));
+			Double actual = results.get(key);
+			if (actual == null) {
+				failures.add(key + ": missing");
+				continue;
+			}
+			if (expected < 0 || actual.doubleValue() < 0)
+				continue;
+			boolean failed;
+			if (key.endsWith("." + THROUGHPUT))
+				failed = actual.doubleValue() < expected * (1 - tolerance);
+			else
+				failed = actual.doubleValue() > expected * (1 + tolerance);
+			if (failed)
+				failures.add(String.format("%s: %.1f, baseline %.1f", key,
+						actual, expected));
+		}
+		return failures;
+	}
+	
+	public int getRounds() {
+		return rounds;
+	}
+	
+	public void setRounds(int rounds) {
+		if (rounds < 1)
+			throw new IllegalArgumentException("rounds: " + rounds);
+		this.rounds = rounds;
+	}
+	
+	public int getWarmup() {
+		return warmup;
+	}
+	
+	public void setWarmup(int warmup) {
+		if (warmup < 0)
+			throw new IllegalArgumentException("warmup: " + warmup);
+		this.warmup = warmup;
+	}
+	
+	// ------------------------------------------------ private
+	
+	/**
+	 * 转换一次，输出不保存
+	 */
+	private static void convert(byte[] data) throws Exception {
+		new Excel2PdfTransformer(new Excel(data)).write(new NullOutputStream());
+	}
+	
+	/**
+	 * 记录并输出一个文件的结果
+	 */
+	private static void put(Map<String, Double> results, String name,
+			int conversions, long nanos, long[] latencies, long peakHeap,
+			long allocated) {
+		long[] sorted = latencies.clone();
+		Arrays.sort(sorted);
+		double throughput = conversions * 1e9 / Math.max(nanos, 1);
+		double p50 = percentile(sorted, 0.50) / 1e6;
+		double p99 = percentile(sorted, 0.99) / 1e6;
+		results.put(name + "." + THROUGHPUT, throughput);
+		results.put(name + "." + P50, p50);
+		results.put(name + "." + P99, p99);
+		results.put(name + "." + PEAK_HEAP, (double) peakHeap);
+		results.put(name + "." + ALLOCATED, (double) allocated);
+		System.out.println(String.format("%-20s %10.2f %10.1f %10.1f %12d %14d",
+				name, throughput, p50, p99, peakHeap, allocated));
+	}
+	
+	/**
+	 * 取得排序后的百分位数
+	 */
+	private static long percentile(long[] sorted, double p) {
+		if (sorted.length == 0)
+			return 0;
+		int index = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+	}
+	
+	private static void resetPeakHeap() {
+		List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+		for (int k = 0; k < pools.size(); k++)
+			if (pools.get(k).getType() == MemoryType.HEAP)
+				pools.get(k).resetPeakUsage();
+	}
+	
+	/**
+	 * 堆内存峰值：上次 resetPeakHeap 以来各个堆内存池峰值的和
+	 */
+	private static long getPeakHeap() {
+		long peak = 0;
+		List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+		for (int k = 0; k < pools.size(); k++)
+			if (pools.get(k).getType() == MemoryType.HEAP)
+				peak += pools.get(k).getPeakUsage().getUsed();
+		return peak;
+	}
+	
+	/**
+	 * 丢弃所有内容的输出流
+	 */
+	private static class NullOutputStream extends OutputStream {
+		public void write(int b) throws IOException {
+		}
+		
+		public void write(byte[] b, int off, int len) throws IOException {
+		}
+	}
+}
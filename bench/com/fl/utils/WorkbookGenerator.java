@@ -0,0 +1,331 @@
+package com.fl.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import jxl.Workbook;
+import jxl.format.Alignment;
+import jxl.format.Border;
+import jxl.format.BorderLineStyle;
+import jxl.write.Label;
+import jxl.write.WritableCellFormat;
+import jxl.write.WritableFont;
+import jxl.write.WritableSheet;
+import jxl.write.WritableWorkbook;
+import jxl.write.WriteException;
+
+/**
+ * 生成测试用的 .xls，用于基准测试和回归测试，不需要真实的业务数据
+ * 
+ * 内容由随机数种子决定，设置相同时生成的文件相同。第一行是标题，其他行按
+ * cjkRatio 填写中文，其余是英文和数字
+ */
+public class WorkbookGenerator {
+	/** 不合并单元格 */
+	public static final int MERGE_NONE = 0;
+	/** 随机合并，最多 3 行 3 列，密度由 mergeDensity 设置 */
+	public static final int MERGE_RANDOM = 1;
+	/** 报表样式：标题行和每 20 行一个分组标题，横跨所有列 */
+	public static final int MERGE_BANDS = 2;
+	/** 分组样式：第一列按 2-6 行一组纵向合并 */
+	public static final int MERGE_GROUPS = 3;
+	
+	/** jxl 支持的最大行数 */
+	private static final int MAX_ROWS = 65536;
+	/** jxl 支持的最大列数 */
+	private static final int MAX_COLUMNS = 256;
+	/** MERGE_BANDS 的分组行数 */
+	private static final int BAND_ROWS = 20;
+	/** 中文内容用到的字 */
+	private static final String CJK_CHARS = "报表合计金额日期部门名称数量单价备注";
+	/** 英文字体 */
+	private static final WritableFont.FontName[] FONT_NAMES = {
+			WritableFont.ARIAL, WritableFont.TIMES, WritableFont.COURIER };
+	/** 中文字体 */
+	private static final String[] CJK_FONT_NAMES = { "宋体", "黑体" };
+	
+	/** 工作表数 */
+	private int sheets = 1;
+	/** 每个工作表的行数，包括标题行 */
+	private int rows = 100;
+	/** 列数 */
+	private int columns = 8;
+	/** 合并方式 */
+	private int mergePattern = MERGE_NONE;
+	/** MERGE_RANDOM 的密度 */
+	private double mergeDensity = 0.05;
+	/** 不同字体的个数，英文和中文各用这么多种 */
+	private int fontCount = 2;
+	/** 边框，null 表示没有 */
+	private BorderLineStyle borderStyle = BorderLineStyle.THIN;
+	/** 中文单元格的比例 */
+	private double cjkRatio = 0;
+	/** 随机数种子 */
+	private long seed = 1;
+	
+	public WorkbookGenerator() {
+	}
+	
+	/**
+	 * 生成 .xls
+	 * 
+	 * @return 文件的内容
+	 * @throws IOException
+	 * @throws WriteException
+	 */
+	public byte[] generate() throws IOException, WriteException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		generate(output);
+		return output.toByteArray();
+	}
+	
+	/**
+	 * 生成 .xls 写到输出流，不关闭输出流
+	 * 
+	 * @param output
+	 *            - 输出流
+	 * @throws IOException
+	 * @throws WriteException
+	 */
+	public void generate(OutputStream output) throws IOException,
+			WriteException {
+		Random random = new Random(seed);
+		WritableWorkbook workbook = Workbook.createWorkbook(output);
+		
+		WritableCellFormat title = createFormat(new WritableFont(
+				WritableFont.ARIAL, 12, WritableFont.BOLD));
+		title.setAlignment(Alignment.CENTRE);
+		WritableCellFormat[] ascii = new WritableCellFormat[fontCount];
+		WritableCellFormat[] cjk = new WritableCellFormat[fontCount];
+		for (int k = 0; k < fontCount; k++) {
+			ascii[k] = createFormat(new WritableFont(
+					FONT_NAMES[k % FONT_NAMES.length], 9 + k % 4,
+					k % 2 == 1 ? WritableFont.BOLD : WritableFont.NO_BOLD,
+					k % 3 == 2));
+			cjk[k] = createFormat(new WritableFont(
+					WritableFont.createFont(CJK_FONT_NAMES[k
+							% CJK_FONT_NAMES.length]), 10 + k % 3,
+					k % 2 == 1 ? WritableFont.BOLD : WritableFont.NO_BOLD));
+			cjk[k].setWrap(true);
+		}
+		
+		for (int s = 0; s < sheets; s++) {
+			WritableSheet sheet = workbook.createSheet("Sheet" + (s + 1), s);
+			for (int j = 0; j < columns; j++) {
+				sheet.setColumnView(j, 10 + random.nextInt(8));
+				sheet.addCell(new Label(j, 0, "Column " + (j + 1), title));
+			}
+			if (mergePattern == MERGE_BANDS && columns > 1)
+				sheet.mergeCells(0, 0, columns - 1, 0);
+			
+			boolean[][] covered = new boolean[rows][columns];
+			int groupEnd = 0;
+			for (int i = 1; i < rows; i++) {
+				if (mergePattern == MERGE_BANDS && i % BAND_ROWS == 0) {
+					sheet.addCell(new Label(0, i, "Group " + (i / BAND_ROWS),
+							title));
+					if (columns > 1)
+						sheet.mergeCells(0, i, columns - 1, i);
+					continue;
+				}
+				if (mergePattern == MERGE_GROUPS && i > groupEnd) {
+					groupEnd = Math.min(rows - 1, i + 1 + random.nextInt(5));
+					for (int r = i; r <= groupEnd; r++)
+						covered[r][0] = true;
+					boolean chinese = random.nextDouble() < cjkRatio;
+					sheet.addCell(new Label(0, i, text(random, i, 0, chinese),
+							chinese ? cjk[0] : ascii[0]));
+					sheet.mergeCells(0, i, 0, groupEnd);
+				}
+				for (int j = 0; j < columns; j++) {
+					if (covered[i][j])
+						continue;
+					int f = random.nextInt(fontCount);
+					if (random.nextDouble() < cjkRatio) {
+						sheet.addCell(new Label(j, i, text(random, i, j, true),
+								cjk[f]));
+					} else if (j % 3 == 0) {
+						sheet.addCell(new jxl.write.Number(j, i, random
+								.nextInt(100000) / 100.0, ascii[f]));
+					} else {
+						sheet.addCell(new Label(j, i, text(random, i, j, false),
+								ascii[f]));
+					}
+					if (mergePattern == MERGE_RANDOM
+							&& random.nextDouble() < mergeDensity)
+						mergeRandom(sheet, random, covered, i, j);
+				}
+			}
+		}
+		workbook.write();
+		workbook.close();
+	}
+	
+	// -------------------------------------------- getter/setter
+	public int getSheets() {
+		return sheets;
+	}
+	
+	public void setSheets(int sheets) {
+		if (sheets < 1)
+			throw new IllegalArgumentException("sheets: " + sheets);
+		this.sheets = sheets;
+	}
+	
+	public int getRows() {
+		return rows;
+	}
+	
+	public void setRows(int rows) {
+		if (rows < 1 || rows > MAX_ROWS)
+			throw new IllegalArgumentException("rows: " + rows);
+		this.rows = rows;
+	}
+	
+	public int getColumns() {
+		return columns;
+	}
+	
+	public void setColumns(int columns) {
+		if (columns < 1 || columns > MAX_COLUMNS)
+			throw new IllegalArgumentException("columns: " + columns);
+		this.columns = columns;
+	}
+	
+	public int getMergePattern() {
+		return mergePattern;
+	}
+	
+	/**
+	 * 设置合并方式
+	 * 
+	 * @param mergePattern
+	 *            - MERGE_NONE, MERGE_RANDOM, MERGE_BANDS, MERGE_GROUPS
+	 */
+	public void setMergePattern(int mergePattern) {
+		if (mergePattern < MERGE_NONE || mergePattern > MERGE_GROUPS)
+			throw new IllegalArgumentException("mergePattern: "
+					+ mergePattern);
+		this.mergePattern = mergePattern;
+	}
+	
+	public double getMergeDensity() {
+		return mergeDensity;
+	}
+	
+	/**
+	 * 设置 MERGE_RANDOM 的密度
+	 * 
+	 * @param mergeDensity
+	 *            - 每个单元格成为合并区域左上角的概率，0-1
+	 */
+	public void setMergeDensity(double mergeDensity) {
+		if (mergeDensity < 0 || mergeDensity > 1)
+			throw new IllegalArgumentException("mergeDensity: "
+					+ mergeDensity);
+		this.mergeDensity = mergeDensity;
+	}
+	
+	public int getFontCount() {
+		return fontCount;
+	}
+	
+	public void setFontCount(int fontCount) {
+		if (fontCount < 1)
+			throw new IllegalArgumentException("fontCount: " + fontCount);
+		this.fontCount = fontCount;
+	}
+	
+	public BorderLineStyle getBorderStyle() {
+		return borderStyle;
+	}
+	
+	/**
+	 * 设置所有单元格的边框
+	 * 
+	 * @param borderStyle
+	 *            - 边框，null 表示没有
+	 */
+	public void setBorderStyle(BorderLineStyle borderStyle) {
+		this.borderStyle = borderStyle;
+	}
+	
+	public double getCjkRatio() {
+		return cjkRatio;
+	}
+	
+	/**
+	 * 设置中文单元格的比例
+	 * 
+	 * @param cjkRatio
+	 *            - 0-1
+	 */
+	public void setCjkRatio(double cjkRatio) {
+		if (cjkRatio < 0 || cjkRatio > 1)
+			throw new IllegalArgumentException("cjkRatio: " + cjkRatio);
+		this.cjkRatio = cjkRatio;
+	}
+	
+	public long getSeed() {
+		return seed;
+	}
+	
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+	
+	public String toString() {
+		return "sheets=" + sheets + ",rows=" + rows + ",columns=" + columns
+				+ ",merge=" + mergePattern + "/" + mergeDensity + ",fonts="
+				+ fontCount + ",border="
+				+ (borderStyle == null ? "none" : borderStyle.getDescription())
+				+ ",cjk=" + cjkRatio + ",seed=" + seed;
+	}
+	
+	// ------------------------------------------------ private
+	
+	private WritableCellFormat createFormat(WritableFont font)
+			throws WriteException {
+		WritableCellFormat format = new WritableCellFormat(font);
+		if (borderStyle != null)
+			format.setBorder(Border.ALL, borderStyle);
+		return format;
+	}
+	
+	/**
+	 * 单元格的文字
+	 */
+	private static String text(Random random, int row, int column,
+			boolean cjk) {
+		if (!cjk)
+			return "Item " + row + "-" + column;
+		StringBuilder text = new StringBuilder();
+		int length = 2 + random.nextInt(7);
+		for (int k = 0; k < length; k++)
+			text.append(CJK_CHARS.charAt(random.nextInt(CJK_CHARS.length())));
+		return text.toString();
+	}
+	
+	/**
+	 * 从 (row, column) 开始随机合并，和已合并的区域重叠时不合并
+	 */
+	private void mergeRandom(WritableSheet sheet, Random random,
+			boolean[][] covered, int row, int column) throws WriteException {
+		int lastRow = Math.min(rows - 1, row + random.nextInt(3));
+		int lastColumn = Math.min(columns - 1, column + random.nextInt(3));
+		if (lastColumn == column && lastRow == row)
+			lastColumn = Math.min(columns - 1, column + 1);
+		if (lastColumn == column && lastRow == row)
+			return;
+		for (int r = row; r <= lastRow; r++)
+			for (int c = column; c <= lastColumn; c++)
+				if (covered[r][c])
+					return;
+		for (int r = row; r <= lastRow; r++)
+			for (int c = column; c <= lastColumn; c++)
+				covered[r][c] = true;
+		sheet.mergeCells(column, row, lastColumn, lastRow);
+	}
+}
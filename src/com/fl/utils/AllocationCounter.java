@@ -0,0 +1,61 @@
+package com.fl.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * 取得当前线程已分配的字节数
+ * 
+ * 使用 com.sun.management.ThreadMXBean，只有部分 JVM 支持，所以通过反射调用，
+ * 不支持时返回 -1
+ */
+final class AllocationCounter {
+	/** 线程 MXBean */
+	private static final ThreadMXBean THREADS = ManagementFactory
+			.getThreadMXBean();
+	
+	/** getThreadAllocatedBytes(long)，JVM 不支持时为 null */
+	private static final Method ALLOCATED_BYTES;
+	
+	static {
+		Method method = null;
+		try {
+			Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+			if (type.isInstance(THREADS)) {
+				method = type.getMethod("getThreadAllocatedBytes", long.class);
+			}
+		} catch (Exception e) {
+			method = null;
+		}
+		ALLOCATED_BYTES = method;
+	}
+	
+	private AllocationCounter() {
+	}
+	
+	/**
+	 * 是否支持统计分配的字节数
+	 * 
+	 * @return
+	 */
+	static boolean isSupported() {
+		return ALLOCATED_BYTES != null;
+	}
+	
+	/**
+	 * 当前线程已分配的字节数
+	 * 
+	 * @return JVM 不支持时返回 -1
+	 */
+	static long getAllocatedBytes() {
+		if (ALLOCATED_BYTES == null)
+			return -1;
+		try {
+			return ((Long) ALLOCATED_BYTES.invoke(THREADS, Thread
+					.currentThread().getId())).longValue();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+}
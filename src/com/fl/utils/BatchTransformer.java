@@ -0,0 +1,659 @@
+package com.fl.utils;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量转换，每个任务返回一个 Future
+ * 
+ * 同时运行的转换个数不超过 maxConcurrent，等待运行的任务不超过 queueCapacity。
+ * 队列满时 submit 会等待，直到有任务完成。所有任务共用字体和样式缓存，中文字体
+ * {@link ChineseFont#BASE_CHINESE_FONT} 是全局共用的
+ * 
+ * 取消 Future 时，正在运行的转换在下一行或下一页停止；设置了 jobTimeout 时，
+ * 运行超时的转换抛出 {@link ConversionCancelledException}
+ * 
+ * 设置了 {@link MemoryEstimator} 时，提交任务时估计需要的内存并做准入控制：
+ * 超过每个任务的预算时改为流式方式或拒绝；所有运行中的任务超过进程的预算时，
+ * 任务在队列中等待。估计在调用 submit 的线程中读取 Excel 文件的工作表列表和
+ * 范围，不解析单元格，submit 要等估计完成才返回
+ * 
+ * 运行中的任务在转换真正结束后才释放并发个数和内存预算，取消的任务在下一行
+ * 或下一页停止之前仍然占用它们
+ * 
+ * <pre>
+ * BatchTransformer batch = new BatchTransformer(4, 100);
+ * Future&lt;Excel&gt; f = batch.submit(new Excel(&quot;a.xls&quot;), new File(&quot;a.pdf&quot;));
+ * ...
+ * batch.shutdown();
+ * </pre>
+ */
+public class BatchTransformer {
+	
+	/**
+	 * 任务完成时的回调，在运行转换的线程中调用
+	 */
+	public interface Callback {
+		/**
+		 * 转换成功
+		 * 
+		 * @param xls
+		 *            - Excel 设置
+		 */
+		void completed(Excel xls);
+		
+		/**
+		 * 转换失败或被取消
+		 * 
+		 * @param xls
+		 *            - Excel 设置
+		 * @param e
+		 *            - 异常，取消时是 CancellationException
+		 */
+		void failed(Excel xls, Throwable e);
+	}
+	
+	/** 默认缓存的字体个数 */
+	public static final int DEFAULT_FONT_CACHE_SIZE = 1024;
+	/** 默认缓存的单元格格式个数 */
+	public static final int DEFAULT_STYLE_CACHE_SIZE = 8192;
+	
+	/** 超过预算时，流式方式不超过预算就改为流式方式，否则拒绝 */
+	public static final int OVER_BUDGET_STREAM = 0;
+	/** 超过预算时拒绝 */
+	public static final int OVER_BUDGET_REJECT = 1;
+	
+	/** 运行转换的 executor */
+	private final ExecutorService executor;
+	/** 是否是内部创建的 executor */
+	private final boolean ownExecutor;
+	/** 同时运行的最大转换个数 */
+	private final int maxConcurrent;
+	/** 运行中和等待中的任务个数限制 */
+	private final Semaphore slots;
+	/** 等待运行的任务 */
+	private final Deque<Job> pending = new ArrayDeque<Job>();
+	/** 正在运行的任务个数 */
+	private int running = 0;
+	/** 正在运行的任务估计的字节数 */
+	private long runningBytes = 0;
+	/** 调用 shutdown 后不再接受新任务，由 lock 保护 */
+	private boolean shutdown = false;
+	/** pending 和 running 的锁 */
+	private final Object lock = new Object();
+	
+	/** 共用的字体转换缓存 */
+	private final FontCache fontCache = new FontCache();
+	/** 共用的单元格样式缓存 */
+	private final CellStyleCache styleCache = new CellStyleCache();
+	/** 共用的转换结果缓存，null 表示不使用 */
+	private volatile ConversionCache resultCache = null;
+	/** 每个任务运行的最长毫秒数，不包括等待的时间，0 表示不限制 */
+	private volatile long jobTimeout = 0;
+	/** 内存估计，null 表示不做准入控制 */
+	private volatile MemoryEstimator memoryEstimator = null;
+	/** 每个任务的内存预算，0 表示不限制 */
+	private volatile long jobMemoryBudget = 0;
+	/** 所有运行中的任务的内存预算，0 表示不限制，由 lock 保护 */
+	private long processMemoryBudget = 0;
+	/** 超过预算时的处理 */
+	private volatile int overBudgetAction = OVER_BUDGET_STREAM;
+	
+	/**
+	 * Constructor，使用内部的线程池
+	 * 
+	 * @param maxConcurrent
+	 *            - 同时运行的最大转换个数
+	 * @param queueCapacity
+	 *            - 最多等待运行的任务个数
+	 */
+	public BatchTransformer(int maxConcurrent, int queueCapacity) {
+		this(Executors.newFixedThreadPool(maxConcurrent), true, maxConcurrent,
+				queueCapacity);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param executor
+	 *            - 运行转换的 executor，shutdown 时不会关闭它
+	 * @param maxConcurrent
+	 *            - 同时运行的最大转换个数
+	 * @param queueCapacity
+	 *            - 最多等待运行的任务个数
+	 */
+	public BatchTransformer(ExecutorService executor, int maxConcurrent,
+			int queueCapacity) {
+		this(executor, false, maxConcurrent, queueCapacity);
+	}
+	
+	private BatchTransformer(ExecutorService executor, boolean ownExecutor,
+			int maxConcurrent, int queueCapacity) {
+		if (executor == null)
+			throw new IllegalArgumentException("executor");
+		if (maxConcurrent < 1)
+			throw new IllegalArgumentException("maxConcurrent");
+		if (queueCapacity < 0)
+			throw new IllegalArgumentException("queueCapacity");
+		this.executor = executor;
+		this.ownExecutor = ownExecutor;
+		this.maxConcurrent = maxConcurrent;
+		this.slots = new Semaphore(maxConcurrent + queueCapacity);
+		fontCache.setMaximumSize(DEFAULT_FONT_CACHE_SIZE);
+		styleCache.setMaximumSize(DEFAULT_STYLE_CACHE_SIZE);
+	}
+	
+	/**
+	 * 提交转换任务，队列满时等待
+	 * 
+	 * @param xls
+	 *            - Excel 设置
+	 * @param dest
+	 *            - PDF 文件
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public Future<Excel> submit(Excel xls, File dest)
+			throws InterruptedException {
+		return submit(xls, dest, null);
+	}
+	
+	/**
+	 * 提交转换任务，队列满时等待。设置了 {@link MemoryEstimator} 时，在这个
+	 * 线程中估计内存，要读取 Excel 文件的工作表列表和范围
+	 * 
+	 * @param xls
+	 *            - Excel 设置，提交时复制，之后修改不影响这个任务。准入控制
+	 *            改为流式方式时只修改副本
+	 * @param dest
+	 *            - PDF 文件
+	 * @param callback
+	 *            - 完成时的回调，可以是 null
+	 * @return
+	 * @throws InterruptedException
+	 * @throws RejectedExecutionException
+	 *             - 已调用 shutdown
+	 */
+	public Future<Excel> submit(Excel xls, File dest, Callback callback)
+			throws InterruptedException {
+		slots.acquire();
+		return enqueue(newJob(xls, dest, null, callback));
+	}
+	
+	/**
+	 * 提交转换任务，队列满时等待。转换结束后输出流会被关闭。内存估计同
+	 * {@link #submit(Excel, File, Callback)}
+	 * 
+	 * @param xls
+	 *            - Excel 设置
+	 * @param output
+	 *            - 输出流
+	 * @param callback
+	 *            - 完成时的回调，可以是 null
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public Future<Excel> submit(Excel xls, OutputStream output,
+			Callback callback) throws InterruptedException {
+		slots.acquire();
+		return enqueue(newJob(xls, null, output, callback));
+	}
+	
+	/**
+	 * 提交转换任务，队列满时最多等待指定的时间。内存估计同
+	 * {@link #submit(Excel, File, Callback)}，不计算在等待时间内
+	 * 
+	 * @param xls
+	 *            - Excel 设置
+	 * @param dest
+	 *            - PDF 文件
+	 * @param callback
+	 *            - 完成时的回调，可以是 null
+	 * @param timeout
+	 *            - 等待时间
+	 * @param unit
+	 *            - 时间单位
+	 * @return 超时返回 null
+	 * @throws InterruptedException
+	 */
+	public Future<Excel> trySubmit(Excel xls, File dest, Callback callback,
+			long timeout, TimeUnit unit) throws InterruptedException {
+		if (!slots.tryAcquire(timeout, unit))
+			return null;
+		return enqueue(newJob(xls, dest, null, callback));
+	}
+	
+	/**
+	 * 批量提交转换任务，队列满时等待
+	 * 
+	 * @param jobs
+	 *            - Excel 设置
+	 * @param dests
+	 *            - PDF 文件，和 jobs 一一对应
+	 * @return 每个任务的 Future，顺序和 jobs 相同
+	 * @throws InterruptedException
+	 */
+	public List<Future<Excel>> submitAll(List<Excel> jobs, List<File> dests)
+			throws InterruptedException {
+		if (jobs.size() != dests.size())
+			throw new IllegalArgumentException("dests");
+		List<Future<Excel>> futures = new ArrayList<Future<Excel>>(
+				jobs.size());
+		for (int i = 0; i < jobs.size(); i++)
+			futures.add(submit(jobs.get(i), dests.get(i)));
+		return futures;
+	}
+	
+	/**
+	 * 不再接受新任务，之后的 submit 抛出 RejectedExecutionException。已提交的
+	 * 任务继续运行，内部创建的线程池在它们完成后关闭
+	 */
+	public void shutdown() {
+		synchronized (lock) {
+			shutdown = true;
+			shutdownExecutorIfIdle();
+		}
+	}
+	
+	/**
+	 * 是否已调用 shutdown
+	 * 
+	 * @return
+	 */
+	public boolean isShutdown() {
+		synchronized (lock) {
+			return shutdown;
+		}
+	}
+	
+	/**
+	 * 等待内部创建的线程池关闭
+	 * 
+	 * @param timeout
+	 *            - 等待时间
+	 * @param unit
+	 *            - 时间单位
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+	
+	public FontCache getFontCache() {
+		return fontCache;
+	}
+	
+	public CellStyleCache getStyleCache() {
+		return styleCache;
+	}
+	
+	public ConversionCache getResultCache() {
+		return resultCache;
+	}
+	
+	/**
+	 * 设置共用的转换结果缓存，之后开始运行的任务使用
+	 * 
+	 * @param resultCache
+	 *            - null 表示不使用
+	 */
+	public void setResultCache(ConversionCache resultCache) {
+		this.resultCache = resultCache;
+	}
+	
+	public long getJobTimeout() {
+		return jobTimeout;
+	}
+	
+	/**
+	 * 设置每个任务运行的最长时间，之后开始运行的任务使用
+	 * 
+	 * @param jobTimeout
+	 *            - 毫秒数，从开始运行时计算，0 表示不限制
+	 */
+	public void setJobTimeout(long jobTimeout) {
+		if (jobTimeout < 0)
+			throw new IllegalArgumentException("jobTimeout");
+		this.jobTimeout = jobTimeout;
+	}
+	
+	public MemoryEstimator getMemoryEstimator() {
+		return memoryEstimator;
+	}
+	
+	/**
+	 * 设置内存估计，之后提交的任务在提交时估计需要的内存，按预算决定运行方式。
+	 * 估计只读取 Excel 文件的工作表列表和范围，在调用 submit 的线程中进行
+	 * 
+	 * @param memoryEstimator
+	 *            - null 表示不做准入控制
+	 */
+	public void setMemoryEstimator(MemoryEstimator memoryEstimator) {
+		this.memoryEstimator = memoryEstimator;
+	}
+	
+	public long getJobMemoryBudget() {
+		return jobMemoryBudget;
+	}
+	
+	/**
+	 * 设置每个任务的内存预算
+	 * 
+	 * @param jobMemoryBudget
+	 *            - 字节数，0 表示不限制
+	 * @see #setOverBudgetAction(int)
+	 */
+	public void setJobMemoryBudget(long jobMemoryBudget) {
+		if (jobMemoryBudget < 0)
+			throw new IllegalArgumentException("jobMemoryBudget");
+		this.jobMemoryBudget = jobMemoryBudget;
+	}
+	
+	public long getProcessMemoryBudget() {
+		synchronized (lock) {
+			return processMemoryBudget;
+		}
+	}
+	
+	/**
+	 * 设置所有运行中的任务的内存预算。估计的字节数加上运行中的任务超过预算时，
+	 * 任务在队列中等待；没有运行中的任务时总是运行。单独一个任务就超过预算时，
+	 * 按 {@link #setOverBudgetAction(int)} 处理
+	 * 
+	 * @param processMemoryBudget
+	 *            - 字节数，0 表示不限制，例如 Runtime.maxMemory() 的一部分
+	 */
+	public void setProcessMemoryBudget(long processMemoryBudget) {
+		if (processMemoryBudget < 0)
+			throw new IllegalArgumentException("processMemoryBudget");
+		synchronized (lock) {
+			this.processMemoryBudget = processMemoryBudget;
+			dispatch();
+		}
+	}
+	
+	public int getOverBudgetAction() {
+		return overBudgetAction;
+	}
+	
+	/**
+	 * 设置估计的内存超过预算时的处理
+	 * 
+	 * @param overBudgetAction
+	 *            - OVER_BUDGET_STREAM 或 OVER_BUDGET_REJECT。拒绝时 Future
+	 *            抛出 {@link MemoryBudgetExceededException}
+	 */
+	public void setOverBudgetAction(int overBudgetAction) {
+		if (overBudgetAction != OVER_BUDGET_STREAM
+				&& overBudgetAction != OVER_BUDGET_REJECT)
+			throw new IllegalArgumentException("overBudgetAction");
+		this.overBudgetAction = overBudgetAction;
+	}
+	
+	/**
+	 * 正在运行的任务个数
+	 * 
+	 * @return
+	 */
+	public int getRunningCount() {
+		synchronized (lock) {
+			return running;
+		}
+	}
+	
+	/**
+	 * 等待运行的任务个数
+	 * 
+	 * @return
+	 */
+	public int getPendingCount() {
+		synchronized (lock) {
+			return pending.size();
+		}
+	}
+	
+	/**
+	 * 创建转换器，所有任务共用缓存
+	 * 
+	 * @param xls
+	 *            - Excel 设置
+	 * @return
+	 */
+	protected Excel2PdfTransformer createTransformer(Excel xls) {
+		Excel2PdfTransformer transformer = new Excel2PdfTransformer(xls,
+				fontCache, styleCache);
+		transformer.setResultCache(resultCache);
+		return transformer;
+	}
+	
+	// ------------------------------------------------ private
+	
+	private Job newJob(Excel xls, File dest, OutputStream output,
+			Callback callback) {
+		return new Job(new Task(xls, dest, output), xls, callback);
+	}
+	
+	private Future<Excel> enqueue(Job job) {
+		if (isShutdown()) {
+			slots.release();
+			throw new RejectedExecutionException("shutdown");
+		}
+		try {
+			admit(job);
+		} catch (Exception e) {
+			job.reject(e);
+			return job;
+		}
+		synchronized (lock) {
+			// 估计期间调用了 shutdown
+			if (shutdown) {
+				slots.release();
+				throw new RejectedExecutionException("shutdown");
+			}
+			pending.addLast(job);
+			dispatch();
+		}
+		return job;
+	}
+	
+	/**
+	 * 估计任务需要的内存，超过预算时改为流式方式或拒绝
+	 * 
+	 * @param job
+	 * @throws Exception
+	 *             - 拒绝时是 MemoryBudgetExceededException
+	 */
+	private void admit(Job job) throws Exception {
+		MemoryEstimator estimator = memoryEstimator;
+		if (estimator == null)
+			return;
+		long budget = jobMemoryBudget;
+		long processBudget = getProcessMemoryBudget();
+		if (budget == 0 || (processBudget > 0 && processBudget < budget))
+			budget = processBudget;
+		
+		Excel settings = job.task.settings;
+		MemoryEstimate estimate = estimator.estimate(settings);
+		long bytes = estimate.getEstimatedBytes();
+		if (budget > 0 && bytes > budget) {
+			if (overBudgetAction != OVER_BUDGET_STREAM
+					|| estimate.isStreaming()
+					|| estimate.getStreamingBytes() > budget)
+				throw new MemoryBudgetExceededException(estimate, budget);
+			// 改为流式方式，只修改副本，不修改调用者的设置和它的缓存 key
+			settings.setStreamingChunkSize(estimate.getStreamingChunkSize());
+			bytes = estimate.getStreamingBytes();
+		}
+		job.memoryBytes = bytes;
+	}
+	
+	/**
+	 * 把等待的任务交给 executor，直到运行的个数或内存达到上限。
+	 * 调用时必须持有 lock
+	 */
+	private void dispatch() {
+		while (running < maxConcurrent && !pending.isEmpty()) {
+			Job job = pending.peekFirst();
+			// 按提交的顺序运行，内存不够时等待运行中的任务结束
+			if (processMemoryBudget > 0 && running > 0
+					&& runningBytes + job.memoryBytes > processMemoryBudget)
+				break;
+			pending.pollFirst();
+			job.dispatched = true;
+			running++;
+			runningBytes += job.memoryBytes;
+			try {
+				executor.execute(job);
+			} catch (RejectedExecutionException e) {
+				// 没有运行，由 done 释放
+				job.dispatched = false;
+				running--;
+				runningBytes -= job.memoryBytes;
+				job.reject(e);
+			}
+		}
+	}
+	
+	/**
+	 * 任务不再占用资源时调用，每个任务调用一次：交给 executor 的任务在 run
+	 * 返回时，没有交给 executor 的任务在取消或拒绝时
+	 * 
+	 * @param job
+	 * @param ran
+	 *            - 是否在 run 中调用
+	 */
+	private void finished(Job job, boolean ran) {
+		synchronized (lock) {
+			// 交给 executor 的任务由 run 释放
+			if (job.dispatched != ran)
+				return;
+			if (ran) {
+				running--;
+				runningBytes -= job.memoryBytes;
+			} else {
+				// 还没运行就被取消或拒绝
+				pending.remove(job);
+			}
+			dispatch();
+			if (shutdown)
+				shutdownExecutorIfIdle();
+		}
+		slots.release();
+	}
+	
+	/**
+	 * 没有运行中和等待中的任务时关闭内部创建的线程池。调用时必须持有 lock
+	 */
+	private void shutdownExecutorIfIdle() {
+		if (ownExecutor && running == 0 && pending.isEmpty())
+			executor.shutdown();
+	}
+	
+	/**
+	 * 运行一个转换
+	 */
+	private class Task implements Callable<Excel> {
+		/** 提交的 Excel 设置，作为结果返回 */
+		private final Excel xls;
+		private final File dest;
+		private final OutputStream output;
+		/** 转换使用的设置，提交时复制，准入控制可能改为流式方式 */
+		private final Excel settings;
+		/** 开始运行时设置 */
+		volatile CancellationToken token = null;
+		
+		Task(Excel xls, File dest, OutputStream output) {
+			this.xls = xls;
+			this.dest = dest;
+			this.output = output;
+			this.settings = xls.copy();
+		}
+		
+		public Excel call() throws Exception {
+			Excel2PdfTransformer transformer = createTransformer(settings);
+			if (dest != null)
+				transformer.write(dest, token);
+			else
+				transformer.write(output, token);
+			return xls;
+		}
+	}
+	
+	/**
+	 * 一个转换任务
+	 */
+	private class Job extends FutureTask<Excel> {
+		private final Task task;
+		private final Excel xls;
+		private final Callback callback;
+		/** 是否已交给 executor，由 lock 保护 */
+		private boolean dispatched = false;
+		/** 估计的字节数，没有估计时是 0 */
+		private long memoryBytes = 0;
+		
+		Job(Task task, Excel xls, Callback callback) {
+			super(task);
+			this.task = task;
+			this.xls = xls;
+			this.callback = callback;
+		}
+		
+		void reject(Throwable e) {
+			setException(e);
+		}
+		
+		public void run() {
+			try {
+				// 运行时间从这里开始计算
+				long timeout = jobTimeout;
+				task.token = (timeout > 0) ? CancellationToken
+						.withTimeout(timeout) : new CancellationToken();
+				if (isCancelled())
+					task.token.cancel();
+				super.run();
+			} finally {
+				// 取消时 done 在 cancel 中立即调用，转换可能还没停止，
+				// 到这里才释放并发个数和内存预算
+				finished(this, true);
+			}
+		}
+		
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			// 通知正在运行的转换停止
+			CancellationToken token = task.token;
+			if (cancelled && token != null)
+				token.cancel();
+			return cancelled;
+		}
+		
+		protected void done() {
+			finished(this, false);
+			if (callback != null) {
+				try {
+					get();
+					callback.completed(xls);
+				} catch (ExecutionException e) {
+					callback.failed(xls, e.getCause());
+				} catch (Throwable e) {
+					callback.failed(xls, e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.fl.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 读取内存中的 zip 文件，作用同 java.util.zip.ZipFile
+ * 
+ * 只读取中央目录，每个文件在打开时直接从 ByteBuffer 解压，不复制数据。不支持
+ * zip64 和加密
+ */
+class BufferZipFile {
+	/** 中央目录结尾的标记 */
+	private static final int END_SIGNATURE = 0x06054b50;
+	/** 中央目录中文件的标记 */
+	private static final int ENTRY_SIGNATURE = 0x02014b50;
+	/** 本地文件头的标记 */
+	private static final int LOCAL_SIGNATURE = 0x04034b50;
+	/** 中央目录结尾的最小长度 */
+	private static final int END_SIZE = 22;
+	
+	/** zip 数据，little endian */
+	private final ByteBuffer data;
+	/** 文件名 = {压缩方式, 压缩后大小, 本地文件头的位置} */
+	private final Map<String, long[]> entries = new HashMap<String, long[]>();
+	
+	/**
+	 * Constructor，读取中央目录
+	 * 
+	 * @param buffer
+	 *            - zip 数据，从 position 到 limit
+	 * @throws IOException
+	 */
+	BufferZipFile(ByteBuffer buffer) throws IOException {
+		data = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+		
+		// 从后向前找中央目录结尾，后面可能有最长 65535 字节的注释
+		int end = -1;
+		int min = Math.max(0, data.limit() - END_SIZE - 0xffff);
+		for (int p = data.limit() - END_SIZE; p >= min; p--) {
+			if (data.getInt(p) == END_SIGNATURE) {
+				end = p;
+				break;
+			}
+		}
+		if (end < 0)
+			throw new IOException("not a zip file");
+		
+		int count = data.getShort(end + 10) & 0xffff;
+		int p = data.getInt(end + 16);
+		Charset utf8 = Charset.forName("UTF-8");
+		for (int k = 0; k < count; k++) {
+			if (p < 0 || p + 46 > data.limit()
+					|| data.getInt(p) != ENTRY_SIGNATURE)
+				throw new IOException("invalid zip central directory");
+			int method = data.getShort(p + 10) & 0xffff;
+			long compressedSize = data.getInt(p + 20) & 0xffffffffL;
+			int nameLength = data.getShort(p + 28) & 0xffff;
+			int extraLength = data.getShort(p + 30) & 0xffff;
+			int commentLength = data.getShort(p + 32) & 0xffff;
+			long localOffset = data.getInt(p + 42) & 0xffffffffL;
+			byte[] name = new byte[nameLength];
+			ByteBuffer nameBuffer = data.duplicate();
+			nameBuffer.position(p + 46);
+			nameBuffer.get(name);
+			entries.put(new String(name, utf8), new long[] { method,
+					compressedSize, localOffset });
+			p += 46 + nameLength + extraLength + commentLength;
+		}
+	}
+	
+	/**
+	 * 打开一个文件
+	 * 
+	 * @param name
+	 *            - 文件名
+	 * @return 不存在时返回 null
+	 * @throws IOException
+	 */
+	InputStream getInputStream(String name) throws IOException {
+		long[] entry = entries.get(name);
+		if (entry == null)
+			return null;
+		int local = (int) entry[2];
+		if (data.getInt(local) != LOCAL_SIGNATURE)
+			throw new IOException("invalid zip entry: " + name);
+		int start = local + 30 + (data.getShort(local + 26) & 0xffff)
+				+ (data.getShort(local + 28) & 0xffff);
+		ByteBuffer content = data.duplicate();
+		content.position(start);
+		content.limit(start + (int) entry[1]);
+		InputStream input = new ByteBufferInputStream(content);
+		if (entry[0] == 0)
+			return input;
+		if (entry[0] != 8)
+			throw new IOException("unsupported compression method: " + name);
+		final Inflater inflater = new Inflater(true);
+		return new InflaterInputStream(input, inflater, 8192) {
+			private boolean closed = false;
+			private boolean eof = false;
+			
+			// 同 ZipFile，数据结束时补一个字节，nowrap 模式可能需要
+			protected void fill() throws IOException {
+				if (eof)
+					throw new IOException("unexpected end of zip entry");
+				len = in.read(buf, 0, buf.length);
+				if (len == -1) {
+					buf[0] = 0;
+					len = 1;
+					eof = true;
+				}
+				inf.setInput(buf, 0, len);
+			}
+			
+			public void close() throws IOException {
+				if (!closed) {
+					closed = true;
+					inflater.end();
+				}
+				super.close();
+			}
+		};
+	}
+}
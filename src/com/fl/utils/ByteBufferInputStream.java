@@ -0,0 +1,48 @@
+package com.fl.utils;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 读取 ByteBuffer 的输入流，不复制数据
+ */
+class ByteBufferInputStream extends InputStream {
+	/** 数据，position 是下一个要读的位置 */
+	private final ByteBuffer buffer;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param buffer
+	 *            - 数据，从 position 读到 limit，不会修改它的 position
+	 */
+	ByteBufferInputStream(ByteBuffer buffer) {
+		this.buffer = buffer.duplicate();
+	}
+	
+	public int read() {
+		return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+	}
+	
+	public int read(byte[] b, int off, int len) {
+		if (len == 0)
+			return 0;
+		if (!buffer.hasRemaining())
+			return -1;
+		int n = Math.min(len, buffer.remaining());
+		buffer.get(b, off, n);
+		return n;
+	}
+	
+	public long skip(long n) {
+		if (n <= 0)
+			return 0;
+		int skipped = (int) Math.min(n, buffer.remaining());
+		buffer.position(buffer.position() + skipped);
+		return skipped;
+	}
+	
+	public int available() {
+		return buffer.remaining();
+	}
+}
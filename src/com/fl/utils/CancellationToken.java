@@ -0,0 +1,86 @@
+package com.fl.utils;
+
+/**
+ * 转换的取消标志和截止时间
+ * 
+ * 转换在每一行、每次写入 document 和每一页结束时检查，取消或超过截止时间后
+ * 抛出 {@link ConversionCancelledException}。同一个 token 可以用于多个转换，
+ * cancel 可以在任何线程中调用
+ * 
+ * @see Excel2PdfTransformer#write(java.io.OutputStream, CancellationToken)
+ */
+public class CancellationToken {
+	/** 是否已取消 */
+	private volatile boolean cancelled = false;
+	
+	/** 截止时间 (System.currentTimeMillis())，0 表示不限制 */
+	private final long deadline;
+	
+	/**
+	 * Constructor，没有截止时间
+	 */
+	public CancellationToken() {
+		this(0);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param deadline
+	 *            - 截止时间 (System.currentTimeMillis())，0 表示不限制
+	 */
+	public CancellationToken(long deadline) {
+		if (deadline < 0)
+			throw new IllegalArgumentException("deadline: " + deadline);
+		this.deadline = deadline;
+	}
+	
+	/**
+	 * 从现在开始限制时间
+	 * 
+	 * @param timeout
+	 *            - 毫秒数，大于 0
+	 * @return
+	 */
+	public static CancellationToken withTimeout(long timeout) {
+		if (timeout <= 0)
+			throw new IllegalArgumentException("timeout: " + timeout);
+		return new CancellationToken(System.currentTimeMillis() + timeout);
+	}
+	
+	/**
+	 * 取消转换，正在进行的转换在下一次检查时停止
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	public long getDeadline() {
+		return deadline;
+	}
+	
+	/**
+	 * 是否已超过截止时间
+	 * 
+	 * @return
+	 */
+	public boolean isExpired() {
+		return deadline > 0 && System.currentTimeMillis() >= deadline;
+	}
+	
+	/**
+	 * 已取消或超过截止时间时抛出异常
+	 * 
+	 * @throws ConversionCancelledException
+	 */
+	public void check() {
+		if (cancelled)
+			throw new ConversionCancelledException(false);
+		if (isExpired())
+			throw new ConversionCancelledException(true);
+	}
+}
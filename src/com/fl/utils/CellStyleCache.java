@@ -0,0 +1,157 @@
+package com.fl.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import jxl.CellType;
+import jxl.format.CellFormat;
+
+/**
+ * 单元格样式缓存
+ * 
+ * 每个不同的 CellFormat，加上单元格类型、是否合并行和空边框的处理方式，只转换一次。
+ * CellFormat 按属性比较。缓存可以被同时运行的多个转换共用
+ * 
+ * key 是 {@link SimpleCellFormat} 副本，不保留 jxl 的 XFRecord 和它所属的
+ * workbook，也不在其他线程调用它的 equals 和 hashCode
+ */
+public class CellStyleCache {
+	/** 所有的单元格类型，按顺序编号 */
+	private static final CellType[] CELL_TYPES = { CellType.EMPTY,
+			CellType.LABEL, CellType.NUMBER, CellType.BOOLEAN, CellType.ERROR,
+			CellType.NUMBER_FORMULA, CellType.DATE_FORMULA,
+			CellType.STRING_FORMULA, CellType.BOOLEAN_FORMULA,
+			CellType.FORMULA_ERROR, CellType.DATE };
+	
+	/** 每个 CellFormat 的样式个数：类型 x 是否合并行 x 是否显示空边框 */
+	private static final int VARIANTS = (CELL_TYPES.length + 1) * 4;
+	
+	/** 缓存：CellFormat 的属性 = 各种组合的样式 */
+	private final ConcurrentMap<SimpleCellFormat, AtomicReferenceArray<PdfCellStyle>> styles = new ConcurrentHashMap<SimpleCellFormat, AtomicReferenceArray<PdfCellStyle>>(
+			256);
+	
+	/** 最大缓存个数，0 表示不限制 */
+	private volatile int maximumSize = 0;
+	
+	/** 命中次数 */
+	private final AtomicLong hits = new AtomicLong();
+	
+	/** 未命中次数 */
+	private final AtomicLong misses = new AtomicLong();
+	
+	/**
+	 * 取得缓存的样式
+	 * 
+	 * @param format
+	 *            - jxl 单元格格式
+	 * @param variant
+	 *            - 组合编号，见 {@link #variant(CellType, boolean, boolean)}
+	 * @return 没有缓存时返回 null
+	 */
+	public PdfCellStyle get(CellFormat format, int variant) {
+		AtomicReferenceArray<PdfCellStyle> variants = styles.get(SimpleCellFormat
+				.of(format));
+		PdfCellStyle style = (variants == null) ? null : variants.get(variant);
+		if (style != null)
+			hits.incrementAndGet();
+		else
+			misses.incrementAndGet();
+		return style;
+	}
+	
+	/**
+	 * 缓存样式
+	 * 
+	 * @param format
+	 *            - jxl 单元格格式
+	 * @param variant
+	 *            - 组合编号
+	 * @param style
+	 *            - 转换后的样式
+	 */
+	public void put(CellFormat format, int variant, PdfCellStyle style) {
+		SimpleCellFormat key = SimpleCellFormat.of(format);
+		AtomicReferenceArray<PdfCellStyle> variants = styles.get(key);
+		if (variants == null) {
+			evictIfFull();
+			variants = new AtomicReferenceArray<PdfCellStyle>(VARIANTS);
+			AtomicReferenceArray<PdfCellStyle> old = styles.putIfAbsent(key,
+					variants);
+			if (old != null)
+				variants = old;
+		}
+		variants.compareAndSet(variant, null, style);
+	}
+	
+	/**
+	 * 计算组合编号
+	 * 
+	 * @param type
+	 *            - 单元格类型
+	 * @param mergeRow
+	 *            - 是否合并行
+	 * @param noEmptyBorder
+	 *            - border 是 NONE 时是否仍然显示细边框
+	 * @return
+	 */
+	public static int variant(CellType type, boolean mergeRow,
+			boolean noEmptyBorder) {
+		int index = CELL_TYPES.length;
+		for (int i = 0; i < CELL_TYPES.length; i++) {
+			if (CELL_TYPES[i] == type) {
+				index = i;
+				break;
+			}
+		}
+		return (index << 2) | (mergeRow ? 2 : 0) | (noEmptyBorder ? 1 : 0);
+	}
+	
+	/**
+	 * 设置最大缓存的CellFormat 个数，超过时清空缓存。多个 workbook 共用缓存时，
+	 * 用来限制长时间运行的内存占用
+	 * 
+	 * @param maximumSize
+	 *            - 最大个数，0 表示不限制
+	 */
+	public void setMaximumSize(int maximumSize) {
+		this.maximumSize = maximumSize;
+	}
+	
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+	
+	/**
+	 * 清除缓存和计数
+	 */
+	public void clear() {
+		styles.clear();
+		hits.set(0);
+		misses.set(0);
+	}
+	
+	/**
+	 * 缓存的 CellFormat 个数
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return styles.size();
+	}
+	
+	public long getHits() {
+		return hits.get();
+	}
+	
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	private void evictIfFull() {
+		int max = maximumSize;
+		if (max > 0 && styles.size() >= max)
+			styles.clear();
+	}
+}
@@ -14,6 +14,10 @@ public final class ChineseFont {
 	/** 中文字体 */
 	public static BaseFont BASE_CHINESE_FONT = null;
 	
+	/** 匹配中文字符 */
+	private static final Pattern CHINESE_PATTERN = Pattern
+			.compile("[\u0391-\uFFE5]+");
+	
 	// 初始化中文字体
 	static {
 		try {
@@ -34,7 +38,7 @@ public final class ChineseFont {
 	public static boolean containsChinese(String s) {
 		if (s == null || s.length() == 0)
 			return false;
-		return Pattern.compile("[\u0391-\uFFE5]+").matcher(s).find();
+		return CHINESE_PATTERN.matcher(s).find();
 	}
 	
 	private ChineseFont() {
@@ -0,0 +1,657 @@
+package com.fl.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 转换结果缓存，按输入文件内容和 Excel 设置保存生成的 PDF
+ * 
+ * key 是 {@link Excel#getSettingsFingerprint()}、转换类的名称和输入的 SHA-256。
+ * 文件来源按路径、长度和修改时间计算，不读取文件；内存中的数据按内容计算，
+ * 内容相同时即使来源不同也会命中。缓存分两级：内存中按 LRU 保存，限制总
+ * 字节数；磁盘上每个结果一个文件，也限制总字节数，超过时删除最久没有使用的
+ * 文件。命中时直接把保存的 PDF 写到输出，不读取 Excel
+ * 
+ * {@link #get(String)} 和 {@link #put(String, byte[])} 也可以按其他 key 保存，
+ * 如按 {@link SheetFingerprint} 保存每个工作表的 PDF 片段
+ * 
+ * 同一个目录只能由一个 ConversionCache 使用。所有方法都是线程安全的
+ */
+public class ConversionCache {
+	/** 磁盘上结果文件的扩展名 */
+	private static final String FILE_SUFFIX = ".pdf";
+	/** 正在写入的文件的扩展名 */
+	private static final String TEMP_SUFFIX = ".tmp";
+	/** 十六进制字符 */
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	/** 修改时间距现在小于这个毫秒数时按文件内容计算 key，修改时间的精度不够 */
+	private static final long MODIFIED_GRACE_MILLIS = 2000;
+	
+	/** 内存中最多保存的字节数，0 表示不使用内存缓存 */
+	private final long maxMemoryBytes;
+	/** 磁盘缓存的目录，null 表示不使用磁盘缓存 */
+	private final File directory;
+	/** 磁盘上最多保存的字节数 */
+	private final long maxDiskBytes;
+	
+	/** 内存缓存，按访问顺序 */
+	private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<String, byte[]>(
+			16, 0.75f, true);
+	/** 内存缓存的字节数 */
+	private long memoryBytes = 0;
+	/** 磁盘缓存的文件大小，按访问顺序 */
+	private final LinkedHashMap<String, Long> disk = new LinkedHashMap<String, Long>(
+			16, 0.75f, true);
+	/** 磁盘缓存的字节数 */
+	private long diskBytes = 0;
+	/** 保护 memory 和 disk */
+	private final Object lock = new Object();
+	
+	/** 内存命中次数 */
+	private final AtomicLong memoryHits = new AtomicLong();
+	/** 磁盘命中次数 */
+	private final AtomicLong diskHits = new AtomicLong();
+	/** 未命中次数 */
+	private final AtomicLong misses = new AtomicLong();
+	/** 从内存删除的次数 */
+	private final AtomicLong memoryEvictions = new AtomicLong();
+	/** 从磁盘删除的次数 */
+	private final AtomicLong diskEvictions = new AtomicLong();
+	
+	/**
+	 * 只使用内存缓存
+	 * 
+	 * @param maxMemoryBytes
+	 *            - 内存中最多保存的字节数
+	 */
+	public ConversionCache(long maxMemoryBytes) {
+		if (maxMemoryBytes < 0)
+			throw new IllegalArgumentException("maxMemoryBytes");
+		this.maxMemoryBytes = maxMemoryBytes;
+		this.directory = null;
+		this.maxDiskBytes = 0;
+	}
+	
+	/**
+	 * 使用内存和磁盘缓存。目录中已有的结果会继续使用
+	 * 
+	 * @param maxMemoryBytes
+	 *            - 内存中最多保存的字节数，0 表示不使用内存缓存
+	 * @param directory
+	 *            - 磁盘缓存的目录，不存在时创建
+	 * @param maxDiskBytes
+	 *            - 磁盘上最多保存的字节数
+	 * @throws IOException
+	 */
+	public ConversionCache(long maxMemoryBytes, File directory,
+			long maxDiskBytes) throws IOException {
+		if (maxMemoryBytes < 0)
+			throw new IllegalArgumentException("maxMemoryBytes");
+		if (directory == null)
+			throw new IllegalArgumentException("directory");
+		if (maxDiskBytes <= 0)
+			throw new IllegalArgumentException("maxDiskBytes");
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("cannot create directory " + directory);
+		this.maxMemoryBytes = maxMemoryBytes;
+		this.directory = directory;
+		this.maxDiskBytes = maxDiskBytes;
+		loadDirectory();
+	}
+	
+	/**
+	 * 计算 Excel2PdfTransformer 的结果的 key
+	 * 
+	 * @param xls
+	 *            - Excel 设置
+	 * @return 十六进制字符串
+	 * @throws IOException
+	 * @see #getKey(Excel, Class)
+	 */
+	public String getKey(Excel xls) throws IOException {
+		return getKey(xls, Excel2PdfTransformer.class);
+	}
+	
+	/**
+	 * 计算缓存的 key：设置、转换类和输入的 SHA-256。不同的子类可能覆盖了
+	 * transferFormat 等方法，结果不共用
+	 * 
+	 * 文件来源（包括映射整个文件）按路径、长度和修改时间计算，不读取文件。
+	 * 修改时间距现在不到 2 秒时文件可能还在改写，按内容计算
+	 * 
+	 * @param xls
+	 *            - Excel 设置
+	 * @param transformer
+	 *            - 转换类
+	 * @return 十六进制字符串
+	 * @throws IOException
+	 */
+	public String getKey(Excel xls, Class<?> transformer) throws IOException {
+		MessageDigest digest = newDigest();
+		Charset utf8 = Charset.forName("UTF-8");
+		digest.update(xls.getSettingsFingerprint().getBytes(utf8));
+		digest.update((byte) 0);
+		digest.update(transformer.getName().getBytes(utf8));
+		digest.update((byte) 0);
+		
+		ExcelSource source = xls.getSource();
+		if (source == null)
+			throw new IllegalArgumentException("no excel file or source");
+		File file = source.getFile();
+		long modified = (file == null) ? 0 : file.lastModified();
+		if (modified > 0
+				&& System.currentTimeMillis() - modified >= MODIFIED_GRACE_MILLIS) {
+			digest.update(("file:" + file.getAbsolutePath() + ':'
+					+ file.length() + ':' + modified).getBytes(utf8));
+			return toHex(digest.digest());
+		}
+		
+		ByteBuffer buffer = source.getBuffer();
+		if (buffer != null) {
+			digest.update(buffer);
+		} else {
+			InputStream input = new FileInputStream(file);
+			try {
+				byte[] b = new byte[64 * 1024];
+				int n;
+				while ((n = input.read(b)) >= 0)
+					digest.update(b, 0, n);
+			} finally {
+				input.close();
+			}
+		}
+		return toHex(digest.digest());
+	}
+	
+	/**
+	 * 把缓存的结果写到输出流，不关闭输出流
+	 * 
+	 * @param key
+	 *            - {@link #getKey(Excel)} 返回的 key
+	 * @param output
+	 *            - 输出流
+	 * @return 没有缓存时返回 false，不写任何内容
+	 * @throws IOException
+	 */
+	public boolean writeTo(String key, OutputStream output) throws IOException {
+		byte[] pdf;
+		synchronized (lock) {
+			pdf = memory.get(key);
+		}
+		if (pdf != null) {
+			memoryHits.incrementAndGet();
+			output.write(pdf);
+			return true;
+		}
+		
+		InputStream input = openDiskEntry(key);
+		if (input == null) {
+			misses.incrementAndGet();
+			return false;
+		}
+		diskHits.incrementAndGet();
+		try {
+			// 放得进内存缓存时同时读入内存
+			long size = getDiskSize(key);
+			if (size > 0 && size <= maxMemoryBytes / 2) {
+				pdf = readFully(input, (int) size);
+				output.write(pdf);
+				putMemory(key, pdf);
+			} else {
+				byte[] b = new byte[64 * 1024];
+				int n;
+				while ((n = input.read(b)) >= 0)
+					output.write(b, 0, n);
+			}
+		} finally {
+			input.close();
+		}
+		return true;
+	}
+	
+	/**
+	 * 取得缓存的结果
+	 * 
+	 * @param key
+	 *            - key
+	 * @return 没有缓存时返回 null，返回的数组不能修改
+	 * @throws IOException
+	 */
+	public byte[] get(String key) throws IOException {
+		byte[] pdf;
+		synchronized (lock) {
+			pdf = memory.get(key);
+		}
+		if (pdf != null) {
+			memoryHits.incrementAndGet();
+			return pdf;
+		}
+		
+		InputStream input = openDiskEntry(key);
+		if (input == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		try {
+			long size = getDiskSize(key);
+			if (size < 0 || size > Integer.MAX_VALUE) {
+				misses.incrementAndGet();
+				return null;
+			}
+			pdf = readFully(input, (int) size);
+		} finally {
+			input.close();
+		}
+		diskHits.incrementAndGet();
+		putMemory(key, pdf);
+		return pdf;
+	}
+	
+	/**
+	 * 把转换结果写到 output，同时保存到缓存。调用 {@link EntryOutputStream#commit()}
+	 * 后才放入缓存
+	 * 
+	 * @param key
+	 *            - {@link #getKey(Excel)} 返回的 key
+	 * @param output
+	 *            - 输出流
+	 * @return 写完后调用 commit 或 discard 的输出流
+	 */
+	public EntryOutputStream newEntry(String key, OutputStream output) {
+		return new EntryOutputStream(key, output);
+	}
+	
+	/**
+	 * 保存转换结果
+	 * 
+	 * @param key
+	 *            - {@link #getKey(Excel)} 返回的 key
+	 * @param pdf
+	 *            - PDF 内容，保存后不能修改
+	 * @throws IOException
+	 */
+	public void put(String key, byte[] pdf) throws IOException {
+		putMemory(key, pdf);
+		if (directory != null && pdf.length <= maxDiskBytes)
+			putDisk(key, pdf);
+	}
+	
+	/**
+	 * 清除所有缓存，包括磁盘上的文件。计数不清除
+	 */
+	public void clear() {
+		synchronized (lock) {
+			memory.clear();
+			memoryBytes = 0;
+			for (String key : disk.keySet())
+				getFile(key).delete();
+			disk.clear();
+			diskBytes = 0;
+		}
+	}
+	
+	public long getMemoryHits() {
+		return memoryHits.get();
+	}
+	
+	public long getDiskHits() {
+		return diskHits.get();
+	}
+	
+	/**
+	 * 命中次数，包括内存和磁盘
+	 * 
+	 * @return
+	 */
+	public long getHits() {
+		return memoryHits.get() + diskHits.get();
+	}
+	
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	public long getMemoryEvictions() {
+		return memoryEvictions.get();
+	}
+	
+	public long getDiskEvictions() {
+		return diskEvictions.get();
+	}
+	
+	/**
+	 * 内存缓存的字节数
+	 * 
+	 * @return
+	 */
+	public long getMemoryBytes() {
+		synchronized (lock) {
+			return memoryBytes;
+		}
+	}
+	
+	/**
+	 * 磁盘缓存的字节数
+	 * 
+	 * @return
+	 */
+	public long getDiskBytes() {
+		synchronized (lock) {
+			return diskBytes;
+		}
+	}
+	
+	public long getMaxMemoryBytes() {
+		return maxMemoryBytes;
+	}
+	
+	public long getMaxDiskBytes() {
+		return maxDiskBytes;
+	}
+	
+	public File getDirectory() {
+		return directory;
+	}
+	
+	// ------------------------------------------------ private
+	
+	/**
+	 * 读取目录中已有的结果，按修改时间排序，删除没写完的文件
+	 */
+	private void loadDirectory() {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long x = a.lastModified();
+				long y = b.lastModified();
+				return (x < y) ? -1 : ((x == y) ? 0 : 1);
+			}
+		});
+		for (int i = 0; i < files.length; i++) {
+			String name = files[i].getName();
+			if (name.endsWith(TEMP_SUFFIX)) {
+				files[i].delete();
+			} else if (name.endsWith(FILE_SUFFIX)) {
+				long size = files[i].length();
+				disk.put(name.substring(0, name.length()
+						- FILE_SUFFIX.length()), Long.valueOf(size));
+				diskBytes += size;
+			}
+		}
+		evictDisk(0);
+	}
+	
+	private void putMemory(String key, byte[] pdf) {
+		if (pdf.length > maxMemoryBytes)
+			return;
+		synchronized (lock) {
+			byte[] old = memory.put(key, pdf);
+			if (old != null)
+				memoryBytes -= old.length;
+			memoryBytes += pdf.length;
+			Iterator<Map.Entry<String, byte[]>> it = memory.entrySet()
+					.iterator();
+			while (memoryBytes > maxMemoryBytes && it.hasNext()) {
+				Map.Entry<String, byte[]> eldest = it.next();
+				memoryBytes -= eldest.getValue().length;
+				it.remove();
+				memoryEvictions.incrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * 写到临时文件，再改名，其他线程不会读到写了一半的文件
+	 */
+	private void putDisk(String key, byte[] pdf) throws IOException {
+		synchronized (lock) {
+			if (disk.containsKey(key))
+				return;
+		}
+		File temp = File.createTempFile(key, TEMP_SUFFIX, directory);
+		try {
+			OutputStream output = new FileOutputStream(temp);
+			try {
+				output.write(pdf);
+			} finally {
+				output.close();
+			}
+			addDiskFile(key, temp, pdf.length);
+		} finally {
+			// 改名后临时文件已不存在
+			if (temp.exists())
+				temp.delete();
+		}
+	}
+	
+	/**
+	 * 把写完的临时文件改名为结果文件
+	 */
+	private void addDiskFile(String key, File temp, long size)
+			throws IOException {
+		synchronized (lock) {
+			if (!disk.containsKey(key)) {
+				evictDisk(size);
+				if (!temp.renameTo(getFile(key)))
+					throw new IOException("cannot rename " + temp);
+				disk.put(key, Long.valueOf(size));
+				diskBytes += size;
+			}
+		}
+	}
+	
+	/**
+	 * 删除最久没有使用的文件，直到可以再放入 size 个字节。调用时要持有 lock
+	 */
+	private void evictDisk(long size) {
+		Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+		List<String> removed = new ArrayList<String>();
+		while (diskBytes + size > maxDiskBytes && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			diskBytes -= eldest.getValue().longValue();
+			removed.add(eldest.getKey());
+			it.remove();
+			diskEvictions.incrementAndGet();
+		}
+		for (int i = 0; i < removed.size(); i++)
+			getFile(removed.get(i)).delete();
+	}
+	
+	/**
+	 * 打开磁盘上的结果，并更新访问顺序
+	 * 
+	 * @return 没有时返回 null
+	 */
+	private InputStream openDiskEntry(String key) {
+		if (directory == null)
+			return null;
+		synchronized (lock) {
+			if (disk.get(key) == null)
+				return null;
+			File file = getFile(key);
+			try {
+				// 打开后文件被删除也可以继续读取
+				InputStream input = new FileInputStream(file);
+				// 重新启动后按修改时间恢复访问顺序
+				file.setLastModified(System.currentTimeMillis());
+				return input;
+			} catch (IOException e) {
+				Long size = disk.remove(key);
+				if (size != null)
+					diskBytes -= size.longValue();
+				return null;
+			}
+		}
+	}
+	
+	private long getDiskSize(String key) {
+		synchronized (lock) {
+			Long size = disk.get(key);
+			return (size == null) ? -1 : size.longValue();
+		}
+	}
+	
+	private File getFile(String key) {
+		return new File(directory, key + FILE_SUFFIX);
+	}
+	
+	private static byte[] readFully(InputStream input, int size)
+			throws IOException {
+		byte[] b = new byte[size];
+		int n = 0;
+		while (n < size) {
+			int count = input.read(b, n, size - n);
+			if (count < 0)
+				throw new IOException("cached file is truncated");
+			n += count;
+		}
+		return b;
+	}
+	
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static String toHex(byte[] b) {
+		char[] c = new char[b.length * 2];
+		for (int i = 0; i < b.length; i++) {
+			c[i * 2] = HEX[(b[i] >> 4) & 0xf];
+			c[i * 2 + 1] = HEX[b[i] & 0xf];
+		}
+		return new String(c);
+	}
+	
+	/**
+	 * 把转换结果写到输出流，同时保存一份。不超过内存缓存的大小时保存在内存中，
+	 * 超过时写到磁盘缓存目录中的临时文件，也超过磁盘缓存的大小或没有磁盘缓存
+	 * 时不再保存。转换结果不会整个留在内存中
+	 * 
+	 * 只能在一个线程中使用。close 只关闭 output，保存的内容在 commit 时放入
+	 * 缓存，discard 时删除
+	 */
+	public final class EntryOutputStream extends OutputStream {
+		/** 缓存的 key */
+		private final String key;
+		/** 输出流 */
+		private final OutputStream output;
+		/** 内存中保存的内容，写到临时文件或不再保存时是 null */
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		/** 临时文件 */
+		private File temp = null;
+		/** 临时文件的输出流 */
+		private OutputStream tempOutput = null;
+		/** 写入的字节数 */
+		private long size = 0;
+		/** 是否不再保存 */
+		private boolean dropped = false;
+		
+		private EntryOutputStream(String key, OutputStream output) {
+			this.key = key;
+			this.output = output;
+		}
+		
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+		
+		public void write(byte[] b, int off, int len) throws IOException {
+			output.write(b, off, len);
+			if (!dropped)
+				save(b, off, len);
+		}
+		
+		public void flush() throws IOException {
+			output.flush();
+		}
+		
+		public void close() throws IOException {
+			output.close();
+		}
+		
+		/**
+		 * 把保存的内容放入缓存。内容太大没有保存时什么都不做
+		 * 
+		 * @throws IOException
+		 */
+		public void commit() throws IOException {
+			if (dropped)
+				return;
+			if (tempOutput != null) {
+				tempOutput.close();
+				tempOutput = null;
+				addDiskFile(key, temp, size);
+				discard();
+			} else {
+				put(key, buffer.toByteArray());
+				buffer = null;
+			}
+			dropped = true;
+		}
+		
+		/**
+		 * 删除保存的内容，没有 commit 时在转换失败后调用
+		 */
+		public void discard() {
+			dropped = true;
+			buffer = null;
+			if (tempOutput != null) {
+				try {
+					tempOutput.close();
+				} catch (IOException e) {
+				}
+				tempOutput = null;
+			}
+			// 改名后临时文件已不存在
+			if (temp != null && temp.exists())
+				temp.delete();
+		}
+		
+		private void save(byte[] b, int off, int len) throws IOException {
+			size += len;
+			if (tempOutput == null && size > maxMemoryBytes) {
+				if (directory == null || size > maxDiskBytes) {
+					discard();
+					return;
+				}
+				temp = File.createTempFile(key, TEMP_SUFFIX, directory);
+				tempOutput = new BufferedOutputStream(
+						new FileOutputStream(temp), 64 * 1024);
+				buffer.writeTo(tempOutput);
+				buffer = null;
+			}
+			if (tempOutput != null) {
+				if (size > maxDiskBytes) {
+					discard();
+					return;
+				}
+				tempOutput.write(b, off, len);
+			} else {
+				buffer.write(b, off, len);
+			}
+		}
+	}
+}
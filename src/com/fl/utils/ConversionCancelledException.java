@@ -0,0 +1,32 @@
+package com.fl.utils;
+
+/**
+ * 转换被取消或超过了截止时间
+ * 
+ * 异常可能在 iText 的页面事件中抛出，所以是 RuntimeException。抛出时 workbook
+ * 和 document 已关闭，输出流中是不完整的 PDF，应当丢弃
+ * 
+ * @see CancellationToken
+ */
+public class ConversionCancelledException extends RuntimeException {
+	private static final long serialVersionUID = 4518239677021683542L;
+	
+	/** 是否因为超过截止时间 */
+	private final boolean deadlineExceeded;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param deadlineExceeded
+	 *            - true 表示超过截止时间，false 表示被取消
+	 */
+	public ConversionCancelledException(boolean deadlineExceeded) {
+		super(deadlineExceeded ? "conversion deadline exceeded"
+				: "conversion cancelled");
+		this.deadlineExceeded = deadlineExceeded;
+	}
+	
+	public boolean isDeadlineExceeded() {
+		return deadlineExceeded;
+	}
+}
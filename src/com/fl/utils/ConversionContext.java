@@ -0,0 +1,157 @@
+package com.fl.utils;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.pdf.PdfPCell;
+import com.itextpdf.text.pdf.PdfPTable;
+import com.itextpdf.text.pdf.PdfWriter;
+
+/**
+ * 一次转换的状态
+ * 
+ * Excel2PdfTransformer 本身不保存转换过程中的状态，每次调用 write 时新建一个
+ * ConversionContext，所以同一个 Excel2PdfTransformer 可以同时被多个线程使用。
+ * ConversionContext 只能在一个线程中使用
+ */
+public class ConversionContext {
+	/** 要创建的 PDF 文档 */
+	Document document = null;
+	
+	/** 页面事件 */
+	CustomPdfPageEvent pageEvent = null;
+	
+	/** 当前处理的 Excel 工作表 */
+	SheetReader currentSheet = null;
+	
+	/** 当前 Excel 工作表的合并单元格设置 */
+	MergedRegions currentRegions = null;
+	
+	/** 页头 table */
+	PdfPTable headerTable = null;
+	
+	/** 是否已经生成 Document 的 header */
+	boolean documentHeaderGenerated = false;
+	
+	/** 当 Excel 的 border 是 NONE 是，pdf 的 border 是否是 0 */
+	boolean noEmptyBorder = true;
+	
+	/** PDF writer，预览时用来取得页码 */
+	PdfWriter writer = null;
+	
+	/** 预览停止的时间，0 表示不限制 */
+	long previewDeadline = 0;
+	
+	/** 预览是否已提前停止 */
+	boolean previewStopped = false;
+	
+	/** 已输出的行数 */
+	long rowsWritten = 0;
+	
+	/** 已读取的工作表中要输出的行数 */
+	long rowsExpected = 0;
+	
+	/** 统计的接收者 */
+	ConversionListener listener = ConversionListener.NONE;
+	
+	/** 文档的统计，不收集时是 null */
+	ConversionMetrics metrics = null;
+	
+	/** 当前工作表的统计，不收集时是 null */
+	ConversionMetrics sheetMetrics = null;
+	
+	/** 转换事件的接收者，不产生事件时是 null */
+	ConversionTracer tracer = null;
+	
+	/** 取消标志和截止时间，不限制时是 null */
+	CancellationToken cancellation = null;
+	
+	/** 补齐列数用的空白单元格，是 paddingTable 默认单元格的副本 */
+	PdfPCell paddingCell = null;
+	
+	/** paddingCell 所属的表格 */
+	PdfPTable paddingTable = null;
+	
+	// -------------------------------------------- getter/setter
+	public Document getDocument() {
+		return document;
+	}
+	
+	public void setDocument(Document document) {
+		this.document = document;
+	}
+	
+	public CustomPdfPageEvent getPageEvent() {
+		return pageEvent;
+	}
+	
+	public void setPageEvent(CustomPdfPageEvent pageEvent) {
+		this.pageEvent = pageEvent;
+	}
+	
+	public SheetReader getCurrentSheet() {
+		return currentSheet;
+	}
+	
+	public void setCurrentSheet(SheetReader currentSheet) {
+		this.currentSheet = currentSheet;
+	}
+	
+	public MergedRegions getCurrentRegions() {
+		return currentRegions;
+	}
+	
+	public void setCurrentRegions(MergedRegions currentRegions) {
+		this.currentRegions = currentRegions;
+	}
+	
+	public PdfPTable getHeaderTable() {
+		return headerTable;
+	}
+	
+	public void setHeaderTable(PdfPTable headerTable) {
+		this.headerTable = headerTable;
+	}
+	
+	public boolean isDocumentHeaderGenerated() {
+		return documentHeaderGenerated;
+	}
+	
+	public void setDocumentHeaderGenerated(boolean documentHeaderGenerated) {
+		this.documentHeaderGenerated = documentHeaderGenerated;
+	}
+	
+	public boolean isNoEmptyBorder() {
+		return noEmptyBorder;
+	}
+	
+	public void setNoEmptyBorder(boolean noEmptyBorder) {
+		this.noEmptyBorder = noEmptyBorder;
+	}
+	
+	public PdfWriter getWriter() {
+		return writer;
+	}
+	
+	public boolean isPreviewStopped() {
+		return previewStopped;
+	}
+	
+	public long getRowsWritten() {
+		return rowsWritten;
+	}
+	
+	public ConversionMetrics getMetrics() {
+		return metrics;
+	}
+	
+	public ConversionMetrics getSheetMetrics() {
+		return sheetMetrics;
+	}
+	
+	public ConversionTracer getTracer() {
+		return tracer;
+	}
+	
+	public CancellationToken getCancellation() {
+		return cancellation;
+	}
+}
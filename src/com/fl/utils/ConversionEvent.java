@@ -0,0 +1,130 @@
+package com.fl.utils;
+
+/**
+ * 转换过程中的一个事件：打开文件、工作表、report header、page header、
+ * document.add、页开始和页结束
+ * 
+ * 时间使用 System.nanoTime()，事件在发生的线程中传给
+ * {@link ConversionTracer}。没有的数量是 -1
+ */
+public final class ConversionEvent {
+	/** 打开 Excel 文件 */
+	public static final int WORKBOOK_OPEN = 0;
+	/** 转换一个工作表，不包括读取 */
+	public static final int SHEET = 1;
+	/** 生成 report header */
+	public static final int REPORT_HEADER = 2;
+	/** 生成 page header */
+	public static final int PAGE_HEADER = 3;
+	/** 一次 document.add */
+	public static final int DOCUMENT_ADD = 4;
+	/** 页开始事件 */
+	public static final int PAGE_START = 5;
+	/** 页结束事件 */
+	public static final int PAGE_END = 6;
+	
+	/** 事件名称 */
+	private static final String[] NAMES = { "workbookOpen", "sheet",
+			"reportHeader", "pageHeader", "documentAdd", "pageStart",
+			"pageEnd" };
+	
+	/** 事件类型 */
+	private final int type;
+	/** 工作表索引，没有时是 -1 */
+	private final int sheetIndex;
+	/** 开始时间 */
+	private final long startNanos;
+	/** 持续时间 */
+	private final long durationNanos;
+	/** 发生事件的线程 */
+	private final Thread thread;
+	/** 行数 */
+	long rows = -1;
+	/** 单元格数 */
+	long cells = -1;
+	/** 合并单元格数 */
+	long mergedRegions = -1;
+	/** 页码 */
+	int pageNumber = -1;
+	
+	/**
+	 * 结束一个事件
+	 * 
+	 * @param type
+	 *            - 事件类型
+	 * @param sheetIndex
+	 *            - 工作表索引，没有时是 -1
+	 * @param startNanos
+	 *            - 开始时间
+	 */
+	ConversionEvent(int type, int sheetIndex, long startNanos) {
+		this.type = type;
+		this.sheetIndex = sheetIndex;
+		this.startNanos = startNanos;
+		this.durationNanos = System.nanoTime() - startNanos;
+		this.thread = Thread.currentThread();
+	}
+	
+	/**
+	 * 开始计时，tracer 是 null 时不取时间
+	 * 
+	 * @param tracer
+	 *            - 可以是 null
+	 * @return 当前时间，tracer 是 null 时返回 0
+	 */
+	static long start(ConversionTracer tracer) {
+		return tracer == null ? 0 : System.nanoTime();
+	}
+	
+	public int getType() {
+		return type;
+	}
+	
+	/**
+	 * 返回事件名称
+	 * 
+	 * @return
+	 */
+	public String getName() {
+		return NAMES[type];
+	}
+	
+	public int getSheetIndex() {
+		return sheetIndex;
+	}
+	
+	public long getStartNanos() {
+		return startNanos;
+	}
+	
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+	
+	public Thread getThread() {
+		return thread;
+	}
+	
+	public long getRows() {
+		return rows;
+	}
+	
+	public long getCells() {
+		return cells;
+	}
+	
+	public long getMergedRegions() {
+		return mergedRegions;
+	}
+	
+	public int getPageNumber() {
+		return pageNumber;
+	}
+	
+	public String toString() {
+		return getName() + " sheet=" + sheetIndex + " duration="
+				+ durationNanos / 1000 + "us rows=" + rows + " cells="
+				+ cells + " mergedRegions=" + mergedRegions + " page="
+				+ pageNumber;
+	}
+}
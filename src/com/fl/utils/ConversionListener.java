@@ -0,0 +1,37 @@
+package com.fl.utils;
+
+/**
+ * 转换统计的接收者
+ * 
+ * 在调用 write 的线程中，每个工作表转换后调用 sheetConverted，文档写完后调用
+ * documentConverted。转换失败、从结果缓存取得 PDF 或者从片段缓存取得工作表时
+ * 不调用。同一个 listener 可能同时被多个转换调用
+ * 
+ * @see Excel2PdfTransformer#setConversionListener(ConversionListener)
+ */
+public interface ConversionListener {
+	/** 不接收统计，默认使用。使用这个 listener 时不收集统计 */
+	ConversionListener NONE = new ConversionListener() {
+		public void sheetConverted(ConversionMetrics metrics) {
+		}
+		
+		public void documentConverted(ConversionMetrics metrics) {
+		}
+	};
+	
+	/**
+	 * 一个工作表已转换
+	 * 
+	 * @param metrics
+	 *            - 工作表的统计
+	 */
+	void sheetConverted(ConversionMetrics metrics);
+	
+	/**
+	 * 文档已写完
+	 * 
+	 * @param metrics
+	 *            - 整个文档的统计，包括各个工作表
+	 */
+	void documentConverted(ConversionMetrics metrics);
+}
@@ -0,0 +1,225 @@
+package com.fl.utils;
+
+/**
+ * 一个工作表或一次转换的统计：各个阶段的时间、行数、单元格数、合并单元格数、
+ * 页数、输出字节数和分配的字节数
+ * 
+ * 只在设置了 {@link ConversionListener} 时收集。各阶段的时间不重叠：
+ * document.add 的时间不包括其中触发的页面事件。并行处理时文档的阶段时间是各个
+ * 工作表的和，可能大于实际经过的时间
+ */
+public final class ConversionMetrics {
+	/** 打开 Excel 文件，jxl 在这时解析整个文件 */
+	public static final int OPEN = 0;
+	/** 读取工作表，并行处理时包括复制工作表 */
+	public static final int READ = 1;
+	/** 读取合并单元格 */
+	public static final int MERGED_CELLS = 2;
+	/** 生成 report header 和 page header */
+	public static final int HEADERS = 3;
+	/** 转换行，processRow */
+	public static final int ROWS = 4;
+	/** iText 排版，document.add */
+	public static final int LAYOUT = 5;
+	/** 页面事件：页头、页码和页脚 */
+	public static final int PAGE_EVENTS = 6;
+	/** 关闭文档、合并工作表片段或截取预览页 */
+	public static final int FINISH = 7;
+	/** 阶段的个数 */
+	public static final int PHASES = 8;
+	
+	/** 阶段名称 */
+	private static final String[] PHASE_NAMES = { "open", "read",
+			"mergedCells", "headers", "rows", "layout", "pageEvents",
+			"finish" };
+	
+	/** 工作表索引，文档是 -1 */
+	private final int sheetIndex;
+	/** 工作表名称，文档是 null */
+	private final String sheetName;
+	
+	/** 各个阶段的纳秒数 */
+	private final long[] nanos = new long[PHASES];
+	/** 经过的纳秒数 */
+	long elapsedNanos = 0;
+	/** 输出的行数 */
+	long rows = 0;
+	/** 输出的单元格数，每行按工作表的列数计算 */
+	long cells = 0;
+	/** 合并单元格数 */
+	long mergedRegions = 0;
+	/** 页数 */
+	long pages = 0;
+	/** 输出的字节数，工作表是 -1 */
+	long outputBytes = -1;
+	/** 分配的字节数，JVM 不支持时是 -1 */
+	long allocatedBytes = 0;
+	
+	/** begin 的时间 */
+	private long beginNanos = 0;
+	/** begin 时当前线程已分配的字节数 */
+	private long beginAllocated = 0;
+	
+	ConversionMetrics(int sheetIndex, String sheetName) {
+		this.sheetIndex = sheetIndex;
+		this.sheetName = sheetName;
+	}
+	
+	/**
+	 * 开始计时，metrics 是 null 时不取时间
+	 * 
+	 * @param metrics
+	 *            - 统计，可以是 null
+	 * @return 当前时间，metrics 是 null 时返回 0
+	 */
+	static long start(ConversionMetrics metrics) {
+		return metrics == null ? 0 : System.nanoTime();
+	}
+	
+	/**
+	 * 把 start 以来的时间记到一个阶段
+	 */
+	void end(int phase, long start) {
+		nanos[phase] += System.nanoTime() - start;
+	}
+	
+	/**
+	 * 把 start 以来的时间记到一个阶段，减去这段时间里的页面事件
+	 * 
+	 * @param pageEventNanos
+	 *            - start 时页面事件的纳秒数
+	 */
+	void end(int phase, long start, long pageEventNanos) {
+		nanos[phase] += System.nanoTime() - start
+				- (nanos[PAGE_EVENTS] - pageEventNanos);
+	}
+	
+	/**
+	 * 开始统计经过的时间和当前线程分配的字节数
+	 */
+	void begin() {
+		beginNanos = System.nanoTime();
+		beginAllocated = AllocationCounter.getAllocatedBytes();
+	}
+	
+	/**
+	 * 结束 begin 开始的统计，可以多次 begin 和 finish，结果累加
+	 */
+	void finish() {
+		elapsedNanos += System.nanoTime() - beginNanos;
+		long allocated = AllocationCounter.getAllocatedBytes();
+		if (allocated < 0 || beginAllocated < 0)
+			allocatedBytes = -1;
+		else
+			addAllocatedBytes(allocated - beginAllocated);
+	}
+	
+	/**
+	 * 增加分配的字节数，参数是 -1 时结果是 -1
+	 */
+	void addAllocatedBytes(long bytes) {
+		if (bytes < 0 || allocatedBytes < 0)
+			allocatedBytes = -1;
+		else
+			allocatedBytes += bytes;
+	}
+	
+	/**
+	 * 加上一个工作表的阶段时间和数量，不包括经过的时间和分配的字节数
+	 * 
+	 * @param sheet
+	 *            - 工作表的统计
+	 */
+	void add(ConversionMetrics sheet) {
+		for (int k = 0; k < PHASES; k++)
+			nanos[k] += sheet.nanos[k];
+		rows += sheet.rows;
+		cells += sheet.cells;
+		mergedRegions += sheet.mergedRegions;
+		pages += sheet.pages;
+	}
+	
+	/**
+	 * 返回阶段的名称
+	 * 
+	 * @param phase
+	 *            - OPEN, READ, ... FINISH
+	 * @return
+	 */
+	public static String getPhaseName(int phase) {
+		return PHASE_NAMES[phase];
+	}
+	
+	/**
+	 * 返回是否是整个文档的统计
+	 * 
+	 * @return
+	 */
+	public boolean isDocument() {
+		return sheetIndex < 0;
+	}
+	
+	public int getSheetIndex() {
+		return sheetIndex;
+	}
+	
+	public String getSheetName() {
+		return sheetName;
+	}
+	
+	/**
+	 * 返回一个阶段的纳秒数
+	 * 
+	 * @param phase
+	 *            - OPEN, READ, ... FINISH
+	 * @return
+	 */
+	public long getNanos(int phase) {
+		return nanos[phase];
+	}
+	
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+	
+	public long getRows() {
+		return rows;
+	}
+	
+	public long getCells() {
+		return cells;
+	}
+	
+	public long getMergedRegions() {
+		return mergedRegions;
+	}
+	
+	public long getPages() {
+		return pages;
+	}
+	
+	public long getOutputBytes() {
+		return outputBytes;
+	}
+	
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+	
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(isDocument() ? "document" : "sheet " + sheetIndex + " "
+				+ sheetName);
+		sb.append(": elapsed=").append(elapsedNanos / 1000000).append("ms");
+		for (int k = 0; k < PHASES; k++)
+			sb.append(' ').append(PHASE_NAMES[k]).append('=')
+					.append(nanos[k] / 1000000).append("ms");
+		sb.append(" rows=").append(rows).append(" cells=").append(cells)
+				.append(" mergedRegions=").append(mergedRegions)
+				.append(" pages=").append(pages);
+		if (outputBytes >= 0)
+			sb.append(" outputBytes=").append(outputBytes);
+		sb.append(" allocatedBytes=").append(allocatedBytes);
+		return sb.toString();
+	}
+}
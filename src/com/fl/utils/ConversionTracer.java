@@ -0,0 +1,25 @@
+package com.fl.utils;
+
+/**
+ * 转换事件的接收者，用来找出单次慢的转换，和 GC 日志等按时间对照
+ * 
+ * 事件在发生的线程中传入，并行处理工作表时可能同时被多个线程调用
+ * 
+ * @see Excel2PdfTransformer#setConversionTracer(ConversionTracer)
+ * @see TraceEventWriter
+ */
+public interface ConversionTracer {
+	/** 不接收事件，默认使用。使用这个 tracer 时不产生事件 */
+	ConversionTracer NONE = new ConversionTracer() {
+		public void event(ConversionEvent event) {
+		}
+	};
+	
+	/**
+	 * 一个事件已结束
+	 * 
+	 * @param event
+	 *            - 事件
+	 */
+	void event(ConversionEvent event);
+}
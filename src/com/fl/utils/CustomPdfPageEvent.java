@@ -1,5 +1,6 @@
 package com.fl.utils;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -48,6 +49,30 @@ public class CustomPdfPageEvent extends PdfPageEventHelper {
 	private boolean showTotalPage = false;
 	/** 代替总页数的空格定义，在 openDocument 时计算 */
 	private String blankTextChars = "    ";
+	/** 代替总页数输出的文字，null 表示输出实际的总页数 */
+	private String totalPageText = null;
+	
+	/**
+	 * 页码样式中的文字，在 initFont 时拆分。第 i 个标记在 styleLiterals[i] 和
+	 * styleLiterals[i + 1] 之间
+	 */
+	private String[] styleLiterals = null;
+	/** 页码样式中的标记是否是总页数，否则是页码 */
+	private boolean[] styleTotalMarkers = null;
+	/** styleLiterals 的宽度，字体单位 */
+	private int[] styleLiteralWidths = null;
+	/** 数字 0-9 的宽度，字体单位 */
+	private final int[] digitWidths = new int[10];
+	/** 代替总页数的空格的宽度，字体单位 */
+	private int blankTextWidth = 0;
+	/** "00" 的宽度，页码右对齐时右边留出的位置 */
+	private float doubleDigitWidth = 0.0f;
+	/** "0" 的宽度 */
+	private float digitWidth = 0.0f;
+	/** 每个页脚相对于对齐位置的 X 偏移，在 initFont 时计算 */
+	private float[] footerOffsets = null;
+	/** 组成页码的文字，每页重复使用 */
+	private final StringBuilder pageNumberText = new StringBuilder(32);
 	
 	/** 保存初始的 top margin 值 */
 	private float _topMargin = 0.0f;
@@ -59,6 +84,18 @@ public class CustomPdfPageEvent extends PdfPageEventHelper {
 	private boolean resetMargin = false;
 	/** 是否是空文档 */
 	private boolean emptyDocument = true;
+	/** 是否输出页码和页脚，不输出时仍然保留页脚的位置 */
+	private boolean writeFooter = true;
+	/** 是否已经设置了初始的 margin */
+	private boolean initialMarginsSet = false;
+	/** 统计页面事件的时间和页数，null 表示不统计 */
+	private ConversionMetrics metrics = null;
+	/** 页面事件的接收者，null 表示不产生事件 */
+	private ConversionTracer tracer = null;
+	/** 当前工作表索引，用于页面事件 */
+	private int tracerSheetIndex = -1;
+	/** 每页结束时检查的取消标志，null 表示不检查 */
+	private CancellationToken cancellation = null;
 	
 	CustomPdfPageEvent() {
 	}
@@ -94,6 +131,50 @@ public class CustomPdfPageEvent extends PdfPageEventHelper {
 			footerHeight = size;
 	}
 	
+	/**
+	 * 设置关闭文档时代替总页数输出的文字，预览提前停止时使用
+	 * 
+	 * @param text
+	 *            - 文字，null 表示输出实际的总页数
+	 */
+	void setTotalPageText(String text) {
+		this.totalPageText = text;
+	}
+	
+	/**
+	 * 设置统计页面事件的时间和页数
+	 * 
+	 * @param metrics
+	 *            - 当前工作表或文档的统计，null 表示不统计
+	 */
+	void setMetrics(ConversionMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * 设置页开始和页结束事件的接收者
+	 * 
+	 * @param tracer
+	 *            - 接收者，null 表示不产生事件
+	 * @param sheetIndex
+	 *            - 当前工作表索引
+	 */
+	void setTracer(ConversionTracer tracer, int sheetIndex) {
+		this.tracer = tracer;
+		this.tracerSheetIndex = sheetIndex;
+	}
+	
+	/**
+	 * 设置每页结束时检查的取消标志，已取消或超过截止时间时在页结束事件中抛出
+	 * {@link ConversionCancelledException}，中止 iText 的排版
+	 * 
+	 * @param cancellation
+	 *            - 取消标志，null 表示不检查
+	 */
+	void setCancellation(CancellationToken cancellation) {
+		this.cancellation = cancellation;
+	}
+	
 	/**
 	 * 清空 page header
 	 */
@@ -167,6 +248,37 @@ public class CustomPdfPageEvent extends PdfPageEventHelper {
 		}
 	}
 	
+	/**
+	 * 设置是否输出页码和页脚。不输出时页面仍然保留页脚的位置，
+	 * 页码和页脚可以在合并文档时再用 {@link #writeFooter} 输出
+	 * 
+	 * @param writeFooter
+	 */
+	void setWriteFooter(boolean writeFooter) {
+		this.writeFooter = writeFooter;
+	}
+	
+	/**
+	 * 返回页脚的高度
+	 * 
+	 * @return
+	 */
+	float getFooterHeight() {
+		return footerHeight;
+	}
+	
+	/**
+	 * 设置初始的 top、bottom margin，代替打开文档时的 margin
+	 * 
+	 * @param topMargin
+	 * @param bottomMargin
+	 */
+	void setInitialMargins(float topMargin, float bottomMargin) {
+		this._topMargin = topMargin;
+		this._bottomMargin = bottomMargin;
+		this.initialMarginsSet = true;
+	}
+	
 	/**
 	 * 是否重置 margin
 	 * 
@@ -198,24 +310,90 @@ public class CustomPdfPageEvent extends PdfPageEventHelper {
 	 * 页结束事件
 	 */
 	public void onEndPage(PdfWriter writer, Document document) {
-		Rectangle page = document.getPageSize();
-		PdfContentByte cb = writer.getDirectContent();
-		if (writePageNumber && pageNumberTpl != null) {
+		long start = (metrics != null || tracer != null) ? System.nanoTime()
+				: 0;
+		if (writeFooter) {
+			writeFooter(writer.getDirectContent(), document.getPageSize(),
+					document.left(), document.right(),
+					document.bottomMargin(), writer.getPageNumber(), -1);
+		}
+		
+		// reset skipFirstWrite
+		skipFirstWrite = false;
+		
+		if (resetMargin) {
+			// 设置 margin
+			setMargin(document);
+			resetMargin = false;
+		}
+		// not empty document
+		emptyDocument = false;
+		if (metrics != null) {
+			metrics.end(ConversionMetrics.PAGE_EVENTS, start);
+			metrics.pages++;
+		}
+		if (tracer != null)
+			tracePage(ConversionEvent.PAGE_END, writer, start);
+		if (cancellation != null)
+			cancellation.check();
+	}
+	
+	/**
+	 * 产生页开始或页结束事件
+	 */
+	private void tracePage(int type, PdfWriter writer, long start) {
+		ConversionEvent event = new ConversionEvent(type, tracerSheetIndex,
+				start);
+		event.pageNumber = writer.getPageNumber();
+		tracer.event(event);
+	}
+	
+	/**
+	 * 输出页码和页脚
+	 * 
+	 * @param cb
+	 *            - PdfContentByte
+	 * @param page
+	 *            - 页面大小
+	 * @param left
+	 *            - 页面内容的左边界
+	 * @param right
+	 *            - 页面内容的右边界
+	 * @param bottomMargin
+	 *            - bottom margin
+	 * @param pageNumber
+	 *            - 页码
+	 * @param totalPage
+	 *            - 总页数，小于 0 表示还不知道，在关闭文档时写到模板里
+	 */
+	void writeFooter(PdfContentByte cb, Rectangle page, float left,
+			float right, float bottomMargin, int pageNumber, int totalPage) {
+		if (writePageNumber && (pageNumberTpl != null || totalPage >= 0)) {
 			cb.saveState();
-			// compose the footer
-			String text = this.pageNumberStyle.replaceAll(
-					FooterText.SIGN_PAGE_NUMBER,
-					String.valueOf(writer.getPageNumber()));
-			int totalPagePos = -1; // 总页码在text中的位置
-			if (showTotalPage == true) {
-				totalPagePos = text.indexOf(FooterText.SIGN_TOTAL_NUMBER);
-				text = text.replaceAll(FooterText.SIGN_TOTAL_NUMBER,
-						blankTextChars);
+			// compose the footer：按拆分好的样式拼接，同时累加宽度
+			StringBuilder text = pageNumberText;
+			text.setLength(0);
+			int width = 0;
+			int totalPageWidth = -1; // 总页码之前的文字宽度
+			for (int k = 0;; k++) {
+				text.append(styleLiterals[k]);
+				width += styleLiteralWidths[k];
+				if (k == styleTotalMarkers.length)
+					break;
+				if (styleTotalMarkers[k]) {
+					if (totalPageWidth < 0)
+						totalPageWidth = width;
+					text.append(blankTextChars);
+					width += blankTextWidth;
+				} else {
+					text.append(pageNumber);
+					width += getNumberWidth(pageNumber);
+				}
 			}
 			// 文字占的宽度
-			float textSize = font.getWidthPoint(text, pageNumberSize);
+			float textSize = toPoint(width);
 			// Y 坐标
-			float textBase = document.bottomMargin() - footerHeight;
+			float textBase = bottomMargin - footerHeight;
 			cb.beginText();
 			cb.setFontAndSize(font, pageNumberSize);
 			
@@ -224,17 +402,25 @@ public class CustomPdfPageEvent extends PdfPageEventHelper {
 			if (this.pageNumberAlign == Element.ALIGN_CENTER)
 				x = (page.getWidth() - textSize) / 2;
 			else if (this.pageNumberAlign == Element.ALIGN_LEFT)
-				x = document.left();
+				x = left;
 			else
-				x = document.right() - textSize
-						- font.getWidthPoint("00", pageNumberSize);
+				x = right - textSize - doubleDigitWidth;
 			cb.setTextMatrix(x, textBase);
-			cb.showText(text);
+			cb.showText(text.toString());
 			cb.endText();
 			if (showTotalPage == true) {
-				textSize = font.getWidthPoint(text.substring(0, totalPagePos),
-						pageNumberSize);
-				cb.addTemplate(pageNumberTpl, x + textSize, textBase);
+				textSize = toPoint(totalPageWidth);
+				if (totalPage >= 0) {
+					// 已知总页数，直接输出
+					cb.beginText();
+					cb.setFontAndSize(font, pageNumberSize);
+					cb.setTextMatrix(x + textSize + getTotalPageOffset(totalPage),
+							textBase);
+					cb.showText(String.valueOf(totalPage));
+					cb.endText();
+				} else {
+					cb.addTemplate(pageNumberTpl, x + textSize, textBase);
+				}
 			}
 			cb.restoreState();
 		}
@@ -243,10 +429,11 @@ public class CustomPdfPageEvent extends PdfPageEventHelper {
 			// 显示 page footer
 			cb.saveState();
 			float x = 0.0f;
-			float textBase = document.bottomMargin() - footerHeight;
+			float textBase = bottomMargin - footerHeight;
 			for (int i = 0; i < footerTexts.size(); i++) {
 				FooterText text = (FooterText) footerTexts.get(i);
 				
+				// 对齐的偏移已在 initFont 时按文字宽度计算
 				cb.beginText();
 				cb.setFontAndSize(font, text.getFontSize());
 				if (text.isBold())
@@ -256,29 +443,152 @@ public class CustomPdfPageEvent extends PdfPageEventHelper {
 					cb.setTextRenderingMode(
 							PdfContentByte.TEXT_RENDER_MODE_FILL);
 				if (text.getAlign() == Element.ALIGN_CENTER) {
-					x = document.getPageSize().getWidth() / 2;
+					x = page.getWidth() / 2;
 				} else if (text.getAlign() == Element.ALIGN_LEFT) {
-					x = document.left();
+					x = left;
 				} else {
-					x = document.right();
+					x = right;
 				}
-				cb.showTextAligned(text.getAlign(), text.getText(), x, textBase,
-						0.0f);
+				cb.setTextMatrix(x - footerOffsets[i], textBase);
+				cb.showText(text.getText());
 				cb.endText();
 			}
 			
 			cb.restoreState();
 		}
-		// reset skipFirstWrite
-		skipFirstWrite = false;
+	}
+	
+	/**
+	 * 总页数在占位空格里的 X 偏移，按位数调整
+	 * 
+	 * @param totalPage
+	 *            - 总页数
+	 * @return
+	 */
+	private float getTotalPageOffset(int totalPage) {
+		float x = 0.0f;
+		if (totalPage < 10) // 1 位数
+			x += doubleDigitWidth / 2;
+		else if (totalPage < 100) // 2 位数
+			x += digitWidth / 2;
+		else if (totalPage > 1000) // 4 位数或更多
+			x -= digitWidth / 2;
+		return x;
+	}
+	
+	/**
+	 * 数字的宽度，字体单位
+	 * 
+	 * @param number
+	 *            - 大于等于 0
+	 * @return
+	 */
+	private int getNumberWidth(int number) {
+		int width = 0;
+		do {
+			width += digitWidths[number % 10];
+			number /= 10;
+		} while (number > 0);
+		return width;
+	}
+	
+	/**
+	 * 把字体单位的宽度转换成页码字体大小的点数，和 BaseFont.getWidthPoint
+	 * 的计算相同
+	 */
+	private float toPoint(int width) {
+		return width * 0.001f * pageNumberSize;
+	}
+	
+	/**
+	 * 初始化页码所用字体，计算需要多少空格来代替 "总页数" 的位置。同时拆分
+	 * 页码样式，计算各段文字、数字和页脚的宽度，每页输出时不再测量文字
+	 * 
+	 * @throws Exception
+	 */
+	void initFont() throws Exception {
+		if (ChineseFont.containsChinese(pageNumberStyle)
+				&& ChineseFont.BASE_CHINESE_FONT != null)
+			font = ChineseFont.BASE_CHINESE_FONT;
+		else
+			font = BaseFont.createFont(BaseFont.HELVETICA, BaseFont.WINANSI,
+					false);
+					
+		// 计算需要多少空格来代替 "总页数" 的位置
+		float size = font.getWidthPoint("000", this.pageNumberSize);
+		float blankUnitSize = font.getWidthPoint(" ", this.pageNumberSize);
+		int needSpaceChars = Math.round(size / blankUnitSize);
+		blankTextChars = "";
+		for (int i = 0; i < needSpaceChars; i++)
+			blankTextChars += " ";
+		blankTextWidth = font.getWidth(blankTextChars);
 		
-		if (resetMargin) {
-			// 设置 margin
-			setMargin(document);
-			resetMargin = false;
+		for (int d = 0; d < digitWidths.length; d++)
+			digitWidths[d] = font.getWidth(String.valueOf(d));
+		doubleDigitWidth = font.getWidthPoint("00", pageNumberSize);
+		digitWidth = font.getWidthPoint("0", pageNumberSize);
+		
+		compilePageNumberStyle();
+		compileFooters();
+	}
+	
+	/**
+	 * 把页码样式拆分成文字和标记。不显示总页数时 #T 作为普通文字
+	 */
+	private void compilePageNumberStyle() {
+		String style = pageNumberStyle;
+		List<String> literals = new ArrayList<String>();
+		List<Boolean> markers = new ArrayList<Boolean>();
+		int from = 0;
+		int i = 0;
+		while (i < style.length()) {
+			boolean total;
+			if (style.startsWith(FooterText.SIGN_PAGE_NUMBER, i))
+				total = false;
+			else if (showTotalPage
+					&& style.startsWith(FooterText.SIGN_TOTAL_NUMBER, i))
+				total = true;
+			else {
+				i++;
+				continue;
+			}
+			literals.add(style.substring(from, i));
+			markers.add(Boolean.valueOf(total));
+			i += total ? FooterText.SIGN_TOTAL_NUMBER.length()
+					: FooterText.SIGN_PAGE_NUMBER.length();
+			from = i;
+		}
+		literals.add(style.substring(from));
+		
+		styleLiterals = literals.toArray(new String[literals.size()]);
+		styleLiteralWidths = new int[styleLiterals.length];
+		for (int k = 0; k < styleLiterals.length; k++)
+			styleLiteralWidths[k] = font.getWidth(styleLiterals[k]);
+		styleTotalMarkers = new boolean[markers.size()];
+		for (int k = 0; k < styleTotalMarkers.length; k++)
+			styleTotalMarkers[k] = markers.get(k).booleanValue();
+	}
+	
+	/**
+	 * 计算每个页脚相对于对齐位置的 X 偏移，和 showTextAligned 的计算相同
+	 */
+	private void compileFooters() {
+		if (!hasFooter) {
+			footerOffsets = null;
+			return;
+		}
+		footerOffsets = new float[footerTexts.size()];
+		for (int i = 0; i < footerOffsets.length; i++) {
+			FooterText text = (FooterText) footerTexts.get(i);
+			float width = font.getWidthPoint(text.getText(),
+					text.getFontSize());
+			if (text.getAlign() == Element.ALIGN_CENTER)
+				footerOffsets[i] = width / 2;
+			else if (text.getAlign() == Element.ALIGN_RIGHT)
+				footerOffsets[i] = width;
+			else
+				footerOffsets[i] = 0.0f;
 		}
-		// not empty document
-		emptyDocument = false;
 	}
 	
 	/**
@@ -291,26 +601,16 @@ public class CustomPdfPageEvent extends PdfPageEventHelper {
 				pageNumberTpl = writer.getDirectContent().createTemplate(100,
 						100);
 				pageNumberTpl.setBoundingBox(new Rectangle(-20, -20, 100, 100));
+			}
+			if (writePageNumber || hasFooter) {
 				// initialization of the font
-				if (ChineseFont.containsChinese(pageNumberStyle)
-						&& ChineseFont.BASE_CHINESE_FONT != null)
-					font = ChineseFont.BASE_CHINESE_FONT;
-				else
-					font = BaseFont.createFont(BaseFont.HELVETICA,
-							BaseFont.WINANSI, false);
-							
-				// 计算需要多少空格来代替 "总页数" 的位置
-				float size = font.getWidthPoint("000", this.pageNumberSize);
-				float blankUnitSize = font.getWidthPoint(" ",
-						this.pageNumberSize);
-				int needSpaceChars = Math.round(size / blankUnitSize);
-				blankTextChars = "";
-				for (int i = 0; i < needSpaceChars; i++)
-					blankTextChars += " ";
+				initFont();
 			}
 			// 保存初始的 top、bottom margin
-			_topMargin = document.topMargin();
-			_bottomMargin = document.bottomMargin();
+			if (!initialMarginsSet) {
+				_topMargin = document.topMargin();
+				_bottomMargin = document.bottomMargin();
+			}
 		} catch (Exception e) {
 			throw new ExceptionConverter(e);
 		}
@@ -320,6 +620,8 @@ public class CustomPdfPageEvent extends PdfPageEventHelper {
 	 * Start page 事件
 	 */
 	public void onStartPage(PdfWriter writer, Document document) {
+		long start = (metrics != null || tracer != null) ? System.nanoTime()
+				: 0;
 		if (headerTable != null && skipFirstWrite == false) {
 			Rectangle page = document.getPageSize();
 			headerTable.setTotalWidth(document.right() - document.left());
@@ -328,6 +630,10 @@ public class CustomPdfPageEvent extends PdfPageEventHelper {
 							+ headerTable.getTotalHeight(),
 					writer.getDirectContent());
 		}
+		if (metrics != null)
+			metrics.end(ConversionMetrics.PAGE_EVENTS, start);
+		if (tracer != null)
+			tracePage(ConversionEvent.PAGE_START, writer, start);
 	}
 	
 	/**
@@ -337,18 +643,19 @@ public class CustomPdfPageEvent extends PdfPageEventHelper {
 		if (showTotalPage == true && writePageNumber && pageNumberTpl != null) {
 			pageNumberTpl.beginText();
 			pageNumberTpl.setFontAndSize(font, pageNumberSize);
-			// 调整位置 (x 坐标)
-			float x = 0.0f;
-			int totalPage = writer.getPageNumber() - 1;
-			if (totalPage < 10) // 1 位数
-				x += font.getWidthPoint("00", pageNumberSize) / 2;
-			else if (totalPage < 100) // 2 位数
-				x += font.getWidthPoint("0", pageNumberSize) / 2;
-			else if (totalPage > 1000) // 4 位数或更多
-				x -= font.getWidthPoint("0", pageNumberSize) / 2;
-				
-			pageNumberTpl.setTextMatrix(x, 0);
-			pageNumberTpl.showText("" + totalPage);
+			if (totalPageText != null) {
+				// 在占位空格里居中
+				float x = (toPoint(blankTextWidth) - font.getWidthPoint(
+						totalPageText, pageNumberSize)) / 2;
+				pageNumberTpl.setTextMatrix(x, 0);
+				pageNumberTpl.showText(totalPageText);
+			} else {
+				// 调整位置 (x 坐标)
+				int totalPage = writer.getPageNumber() - 1;
+				float x = getTotalPageOffset(totalPage);
+				pageNumberTpl.setTextMatrix(x, 0);
+				pageNumberTpl.showText("" + totalPage);
+			}
 			pageNumberTpl.endText();
 		}
 	}
@@ -1,14 +1,20 @@
 package com.fl.utils;
 
 import java.io.File;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
 
 import com.itextpdf.text.PageSize;
 import com.itextpdf.text.Rectangle;
+import com.itextpdf.text.RectangleReadOnly;
 
 /**
  * 定义 Excel 文件信息
@@ -56,8 +62,20 @@ public class Excel implements Serializable {
 	
 	private static final long serialVersionUID = -407647832147105795L;
 	
+	/** 用 jxl 读取 .xls 文件，整个文件读入内存 */
+	public static final int XLS_READER_JXL = 0;
+	/** 用 POI 的 HSSF 记录流读取 .xls 文件，逐行读取 */
+	public static final int XLS_READER_HSSF = 1;
+	
+	/** 预览时总页数显示占位文字 */
+	public static final int PREVIEW_TOTAL_PLACEHOLDER = 0;
+	/** 预览时总页数显示按已处理的行估计的页数 */
+	public static final int PREVIEW_TOTAL_ESTIMATE = 1;
+	
 	/** 文件 */
 	private File file;
+	/** 文件内容的来源，null 表示读取 file */
+	private transient ExcelSource source;
 	/** 页头设置 */
 	private Map pageHeaderSetting = new HashMap();
 	
@@ -78,6 +96,32 @@ public class Excel implements Serializable {
 	private String pageNumberStyle = FooterText.STYLE_PAGE_NUMBER_N;
 	/** 页大小 */
 	private Rectangle pageSize = PageSize.A4;
+	/** 流式输出时每次写入 PDF 的行数，0 表示整个 sheet 一次写入 */
+	private int streamingChunkSize = 0;
+	/** 是否只输出工作表实际使用的行和列 */
+	private boolean trimUsedRange = false;
+	/** 是否并行处理工作表 */
+	private boolean parallelSheets = false;
+	/** 同时处理的工作表个数 */
+	private int sheetParallelism = Runtime.getRuntime().availableProcessors();
+	/** 并行处理工作表的 executor，null 表示每次转换时新建 */
+	private transient ExecutorService sheetExecutor;
+	/** 读取 .xls 文件的方式 */
+	private int xlsReader = XLS_READER_JXL;
+	/** PDF 输出的压缩设置 */
+	private PdfProfile pdfProfile = PdfProfile.DEFAULT;
+	/** 选择的工作表，Integer 是索引，String 是名称，空表示全部 */
+	private List<Object> sheetSelection = new ArrayList<Object>();
+	/** 每个工作表输出的行 */
+	private Map<Integer, RowRange> rowRanges = new HashMap<Integer, RowRange>();
+	/** 预览时最多输出的页数，0 表示不限制 */
+	private int previewPageLimit = 0;
+	/** 预览的时间限制 (毫秒)，0 表示不限制 */
+	private long previewTimeLimit = 0;
+	/** 预览时总页数的显示方式 */
+	private int previewTotalPage = PREVIEW_TOTAL_PLACEHOLDER;
+	/** 预览时代替总页数的文字 */
+	private String previewPlaceholder = "?";
 	
 	public Excel() {
 	}
@@ -90,6 +134,40 @@ public class Excel implements Serializable {
 		this.file = file;
 	}
 	
+	/**
+	 * 从内存中的数据读取，不复制
+	 * 
+	 * @param data
+	 *            - Excel 文件的内容
+	 */
+	public Excel(byte[] data) {
+		this.source = ExcelSource.fromBytes(data);
+	}
+	
+	/**
+	 * 从 ByteBuffer 读取，可以是内存映射的文件
+	 * 
+	 * @param buffer
+	 *            - Excel 文件的内容，从 position 到 limit
+	 */
+	public Excel(ByteBuffer buffer) {
+		this.source = ExcelSource.fromByteBuffer(buffer);
+	}
+	
+	/**
+	 * 从输入流读取，流在转换时读入内存并关闭
+	 * 
+	 * @param input
+	 *            - 输入流
+	 */
+	public Excel(InputStream input) {
+		this.source = ExcelSource.fromStream(input);
+	}
+	
+	public Excel(ExcelSource source) {
+		setSource(source);
+	}
+	
 	// -------------------------------------------- getter/setter
 	public File getFile() {
 		return file;
@@ -97,10 +175,27 @@ public class Excel implements Serializable {
 	
 	public void setFile(File file) {
 		this.file = file;
+		this.source = null;
 	}
 	
 	public void setFileName(String fileName) {
-		this.file = new File(fileName);
+		setFile(new File(fileName));
+	}
+	
+	/**
+	 * 文件内容的来源，没有设置时读取 file
+	 * 
+	 * @return
+	 */
+	public ExcelSource getSource() {
+		if (source == null && file != null)
+			return ExcelSource.fromFile(file);
+		return source;
+	}
+	
+	public void setSource(ExcelSource source) {
+		this.source = source;
+		this.file = (source == null) ? null : source.getFile();
 	}
 	
 	public int getReportHeaderEndRow() {
@@ -163,6 +258,199 @@ public class Excel implements Serializable {
 			this.pageSize = pageSize;
 	}
 	
+	public int getStreamingChunkSize() {
+		return streamingChunkSize;
+	}
+	
+	/**
+	 * 设置流式输出的行数。大于 0 时，每处理这么多行就把表格写入 PDF 并释放，
+	 * 内存占用只与这个值有关，而与 sheet 的行数无关
+	 * 
+	 * @param streamingChunkSize
+	 *            - 每次写入的行数，0 表示不使用流式输出
+	 */
+	public void setStreamingChunkSize(int streamingChunkSize) {
+		if (streamingChunkSize < 0)
+			throw new IllegalArgumentException("streamingChunkSize");
+		this.streamingChunkSize = streamingChunkSize;
+	}
+	
+	/**
+	 * 判断是否使用流式输出
+	 * 
+	 * @return
+	 */
+	public boolean isStreaming() {
+		return streamingChunkSize > 0;
+	}
+	
+	public boolean isTrimUsedRange() {
+		return trimUsedRange;
+	}
+	
+	/**
+	 * 设置是否只输出工作表实际使用的行和列。工作表的行数和列数包括设置了格式
+	 * 但是空的单元格，设置后最后一个有内容、有边框或属于合并单元格的行和列之后
+	 * 的部分不输出。列宽和页数会改变，默认不设置
+	 * 
+	 * @param trimUsedRange
+	 *            - false 表示按 jxl 报告的行数和列数输出，默认值
+	 * @see UsedRangeSheet
+	 */
+	public void setTrimUsedRange(boolean trimUsedRange) {
+		this.trimUsedRange = trimUsedRange;
+	}
+	
+	public boolean isParallelSheets() {
+		return parallelSheets;
+	}
+	
+	/**
+	 * 设置是否并行处理工作表。并行时每个工作表生成单独的 PDF，再按顺序合并
+	 * 
+	 * @param parallelSheets
+	 */
+	public void setParallelSheets(boolean parallelSheets) {
+		this.parallelSheets = parallelSheets;
+	}
+	
+	public int getSheetParallelism() {
+		return sheetParallelism;
+	}
+	
+	/**
+	 * 设置同时处理的工作表个数，默认是 CPU 个数
+	 * 
+	 * @param sheetParallelism
+	 */
+	public void setSheetParallelism(int sheetParallelism) {
+		if (sheetParallelism < 1)
+			throw new IllegalArgumentException("sheetParallelism");
+		this.sheetParallelism = sheetParallelism;
+	}
+	
+	public ExecutorService getSheetExecutor() {
+		return sheetExecutor;
+	}
+	
+	/**
+	 * 设置并行处理工作表的 executor，转换结束后不会关闭它
+	 * 
+	 * @param sheetExecutor
+	 *            - null 表示每次转换时新建
+	 */
+	public void setSheetExecutor(ExecutorService sheetExecutor) {
+		this.sheetExecutor = sheetExecutor;
+	}
+	
+	public int getXlsReader() {
+		return xlsReader;
+	}
+	
+	/**
+	 * 设置读取 .xls 文件的方式，.xlsx 文件总是逐行读取
+	 * 
+	 * @param xlsReader
+	 *            - {@link #XLS_READER_JXL} 或 {@link #XLS_READER_HSSF}
+	 */
+	public void setXlsReader(int xlsReader) {
+		if (xlsReader != XLS_READER_JXL && xlsReader != XLS_READER_HSSF)
+			throw new IllegalArgumentException("xlsReader");
+		this.xlsReader = xlsReader;
+	}
+	
+	public int getPreviewPageLimit() {
+		return previewPageLimit;
+	}
+	
+	/**
+	 * 设置预览的页数，输出这么多页后停止转换
+	 * 
+	 * @param previewPageLimit
+	 *            - 最多输出的页数，0 表示不限制
+	 */
+	public void setPreviewPageLimit(int previewPageLimit) {
+		if (previewPageLimit < 0)
+			throw new IllegalArgumentException("previewPageLimit");
+		this.previewPageLimit = previewPageLimit;
+	}
+	
+	public long getPreviewTimeLimit() {
+		return previewTimeLimit;
+	}
+	
+	/**
+	 * 设置预览的时间限制，超过后写完当前的行就停止转换
+	 * 
+	 * @param previewTimeLimit
+	 *            - 毫秒，0 表示不限制
+	 */
+	public void setPreviewTimeLimit(long previewTimeLimit) {
+		if (previewTimeLimit < 0)
+			throw new IllegalArgumentException("previewTimeLimit");
+		this.previewTimeLimit = previewTimeLimit;
+	}
+	
+	/**
+	 * 判断是否是预览，预览时不并行处理工作表
+	 * 
+	 * @return
+	 */
+	public boolean isPreview() {
+		return previewPageLimit > 0 || previewTimeLimit > 0;
+	}
+	
+	public int getPreviewTotalPage() {
+		return previewTotalPage;
+	}
+	
+	/**
+	 * 设置预览提前停止时总页数的显示方式
+	 * 
+	 * @param previewTotalPage
+	 *            - {@link #PREVIEW_TOTAL_PLACEHOLDER} 或
+	 *            {@link #PREVIEW_TOTAL_ESTIMATE}
+	 */
+	public void setPreviewTotalPage(int previewTotalPage) {
+		if (previewTotalPage != PREVIEW_TOTAL_PLACEHOLDER
+				&& previewTotalPage != PREVIEW_TOTAL_ESTIMATE)
+			throw new IllegalArgumentException("previewTotalPage");
+		this.previewTotalPage = previewTotalPage;
+	}
+	
+	public String getPreviewPlaceholder() {
+		return previewPlaceholder;
+	}
+	
+	/**
+	 * 设置预览提前停止时代替总页数的文字
+	 * 
+	 * @param previewPlaceholder
+	 *            - 文字，默认是 "?"
+	 */
+	public void setPreviewPlaceholder(String previewPlaceholder) {
+		if (previewPlaceholder == null)
+			throw new IllegalArgumentException("previewPlaceholder");
+		this.previewPlaceholder = previewPlaceholder;
+	}
+	
+	public PdfProfile getPdfProfile() {
+		return pdfProfile;
+	}
+	
+	/**
+	 * 设置 PDF 输出的压缩设置
+	 * 
+	 * @param pdfProfile
+	 *            - 如 {@link PdfProfile#FAST}、{@link PdfProfile#BALANCED}、
+	 *            {@link PdfProfile#SMALLEST}
+	 */
+	public void setPdfProfile(PdfProfile pdfProfile) {
+		if (pdfProfile == null)
+			throw new IllegalArgumentException("pdfProfile");
+		this.pdfProfile = pdfProfile;
+	}
+	
 	// ------------------------------------------- methods
 	
 	/**
@@ -208,6 +496,92 @@ public class Excel implements Serializable {
 		pageHeaderSetting.put(Integer.valueOf(sheetIndex), range);
 	}
 	
+	/**
+	 * 选择要输出的工作表，可以选择多个。没有选择时输出全部工作表
+	 * 
+	 * @param sheetIndex
+	 *            - sheet number, min is 0
+	 */
+	public void selectSheet(int sheetIndex) {
+		if (sheetIndex < 0)
+			throw new IllegalArgumentException("sheetIndex");
+		sheetSelection.add(Integer.valueOf(sheetIndex));
+	}
+	
+	/**
+	 * 按名称选择要输出的工作表
+	 * 
+	 * @param sheetName
+	 *            - 工作表名称
+	 */
+	public void selectSheet(String sheetName) {
+		if (sheetName == null)
+			throw new IllegalArgumentException("sheetName");
+		sheetSelection.add(sheetName);
+	}
+	
+	/**
+	 * 清除工作表的选择，输出全部工作表
+	 */
+	public void clearSheetSelection() {
+		sheetSelection.clear();
+	}
+	
+	public boolean hasSheetSelection() {
+		return !sheetSelection.isEmpty();
+	}
+	
+	/**
+	 * 工作表是否要输出
+	 * 
+	 * @param sheetIndex
+	 *            - sheet number, min is 0
+	 * @param sheetName
+	 *            - 工作表名称
+	 * @return
+	 */
+	public boolean isSheetSelected(int sheetIndex, String sheetName) {
+		if (sheetSelection.isEmpty())
+			return true;
+		return sheetSelection.contains(Integer.valueOf(sheetIndex))
+				|| (sheetName != null && sheetSelection.contains(sheetName));
+	}
+	
+	/**
+	 * 只输出工作表的一部分行，report header 和 page header 仍然输出
+	 * 
+	 * @param sheetIndex
+	 *            - sheet number, min is 0
+	 * @param startRow
+	 *            - 开始行（最小是 0）
+	 * @param endRow
+	 *            - 结束行，超过工作表的行数时到最后一行
+	 */
+	public void setRowRange(int sheetIndex, int startRow, int endRow) {
+		if (startRow < 0 || endRow < startRow)
+			throw new IllegalArgumentException("startRow or endRow is illegal");
+		rowRanges.put(Integer.valueOf(sheetIndex), new RowRange(startRow,
+				endRow));
+	}
+	
+	/**
+	 * 获得指定 sheet 输出的行
+	 * 
+	 * @param sheetIndex
+	 *            - sheet number, min is 0
+	 * @return null 表示全部行
+	 */
+	public RowRange getRowRange(int sheetIndex) {
+		return rowRanges.get(Integer.valueOf(sheetIndex));
+	}
+	
+	/**
+	 * 清除行的设置，输出全部行
+	 */
+	public void clearRowRanges() {
+		rowRanges.clear();
+	}
+	
 	/**
 	 * 增加页脚
 	 * 
@@ -285,4 +659,134 @@ public class Excel implements Serializable {
 				&& reportHeaderEndRow >= reportHeaderStartRow;
 	}
 	
+	/**
+	 * 复制设置。页头、页脚、工作表选择、行的设置和页面大小都复制，之后修改
+	 * 原来的对象不影响副本。文件来源与原来的对象共用
+	 * 
+	 * @return
+	 */
+	public Excel copy() {
+		Excel copy = new Excel();
+		copy.file = file;
+		copy.source = source;
+		for (Object entry : pageHeaderSetting.entrySet()) {
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) entry;
+			RowRange range = (RowRange) e.getValue();
+			copy.setPageHeader(((Integer) e.getKey()).intValue(),
+					new RowRange(range.getStartRow(), range.getEndRow()));
+		}
+		for (int i = 0; i < footerTexts.size(); i++) {
+			FooterText text = (FooterText) footerTexts.get(i);
+			FooterText footer = new FooterText(text.getText());
+			footer.setAlign(text.getAlign());
+			footer.setBold(text.isBold());
+			footer.setFontSize(text.getFontSize());
+			copy.addPageFooter(footer);
+		}
+		copy.reportHeaderStartRow = reportHeaderStartRow;
+		copy.reportHeaderEndRow = reportHeaderEndRow;
+		copy.showPageNumber = showPageNumber;
+		copy.pageNumberAlign = pageNumberAlign;
+		copy.pageNumberFontSize = pageNumberFontSize;
+		copy.pageNumberStyle = pageNumberStyle;
+		copy.pageSize = (pageSize instanceof RectangleReadOnly) ? pageSize
+				: new Rectangle(pageSize);
+		copy.streamingChunkSize = streamingChunkSize;
+		copy.trimUsedRange = trimUsedRange;
+		copy.parallelSheets = parallelSheets;
+		copy.sheetParallelism = sheetParallelism;
+		copy.sheetExecutor = sheetExecutor;
+		copy.xlsReader = xlsReader;
+		copy.pdfProfile = pdfProfile;
+		copy.sheetSelection.addAll(sheetSelection);
+		for (Map.Entry<Integer, RowRange> e : rowRanges.entrySet()) {
+			copy.rowRanges.put(e.getKey(), new RowRange(e.getValue()
+					.getStartRow(), e.getValue().getEndRow()));
+		}
+		copy.previewPageLimit = previewPageLimit;
+		copy.previewTimeLimit = previewTimeLimit;
+		copy.previewTotalPage = previewTotalPage;
+		copy.previewPlaceholder = previewPlaceholder;
+		return copy;
+	}
+	
+	/**
+	 * 影响输出的所有设置，按固定的顺序写成字符串。设置相同时结果相同，用作
+	 * 转换结果缓存的 key
+	 * 
+	 * @return
+	 */
+	public String getSettingsFingerprint() {
+		StringBuilder sb = new StringBuilder(256);
+		sb.append("page=").append(pageSize.getWidth()).append('x')
+				.append(pageSize.getHeight()).append('r')
+				.append(pageSize.getRotation());
+		sb.append(";reportHeader=").append(reportHeaderStartRow).append('-')
+				.append(reportHeaderEndRow);
+		sb.append(";pageHeaders=");
+		// pageHeaderSetting 是 raw Map，逐个复制，key 都是 Integer
+		TreeMap<Integer, RowRange> pageHeaders = new TreeMap<Integer, RowRange>();
+		for (Object entry : pageHeaderSetting.entrySet()) {
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) entry;
+			pageHeaders.put((Integer) e.getKey(), (RowRange) e.getValue());
+		}
+		appendRanges(sb, pageHeaders);
+		sb.append(";footers=");
+		for (int i = 0; i < footerTexts.size(); i++) {
+			FooterText text = (FooterText) footerTexts.get(i);
+			appendString(sb, text.getText());
+			sb.append(text.getAlign()).append(',').append(text.isBold())
+					.append(',').append(text.getFontSize()).append('|');
+		}
+		sb.append(";pageNumber=").append(showPageNumber).append(',')
+				.append(pageNumberAlign).append(',')
+				.append(pageNumberFontSize).append(',');
+		appendString(sb, pageNumberStyle);
+		sb.append(";chunk=").append(streamingChunkSize);
+		sb.append(";trim=").append(trimUsedRange);
+		sb.append(";parallel=").append(parallelSheets);
+		sb.append(";xlsReader=").append(xlsReader);
+		sb.append(";profile=").append(pdfProfile.getCompressionLevel())
+				.append(',').append(pdfProfile.isFullCompression())
+				.append(',').append(pdfProfile.isSubsetFonts());
+		// 选择的顺序不影响输出
+		TreeSet<String> sheets = new TreeSet<String>();
+		for (int i = 0; i < sheetSelection.size(); i++) {
+			Object sheet = sheetSelection.get(i);
+			StringBuilder item = new StringBuilder();
+			if (sheet instanceof Integer)
+				item.append('i').append(sheet);
+			else
+				appendString(item.append('n'), (String) sheet);
+			sheets.add(item.toString());
+		}
+		sb.append(";sheets=").append(sheets);
+		sb.append(";rows=");
+		appendRanges(sb, new TreeMap<Integer, RowRange>(rowRanges));
+		sb.append(";preview=").append(previewPageLimit).append(',')
+				.append(previewTimeLimit).append(',')
+				.append(previewTotalPage).append(',');
+		appendString(sb, previewPlaceholder);
+		return sb.toString();
+	}
+	
+	private static void appendRanges(StringBuilder sb,
+			Map<Integer, RowRange> ranges) {
+		for (Map.Entry<Integer, RowRange> entry : ranges.entrySet()) {
+			RowRange range = entry.getValue();
+			sb.append(entry.getKey()).append(':').append(range.getStartRow())
+					.append('-').append(range.getEndRow()).append('|');
+		}
+	}
+	
+	/**
+	 * 写入字符串，前面加上长度，避免和分隔符混淆
+	 */
+	private static void appendString(StringBuilder sb, String s) {
+		if (s == null)
+			sb.append("-1:");
+		else
+			sb.append(s.length()).append(':').append(s);
+	}
+	
 }
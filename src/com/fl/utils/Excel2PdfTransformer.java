@@ -2,33 +2,47 @@ package com.fl.utils;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
 
 import com.fl.utils.Excel.RowRange;
 import com.itextpdf.text.BaseColor;
 import com.itextpdf.text.Chunk;
 import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.Element;
 import com.itextpdf.text.Font;
 import com.itextpdf.text.FontFactory;
 import com.itextpdf.text.PageSize;
 import com.itextpdf.text.Paragraph;
+import com.itextpdf.text.Phrase;
+import com.itextpdf.text.Rectangle;
 import com.itextpdf.text.pdf.BaseFont;
+import com.itextpdf.text.pdf.PdfCopy;
+import com.itextpdf.text.pdf.PdfImportedPage;
 import com.itextpdf.text.pdf.PdfPCell;
 import com.itextpdf.text.pdf.PdfPTable;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfStamper;
 import com.itextpdf.text.pdf.PdfWriter;
 
 import jxl.Cell;
 import jxl.CellType;
-import jxl.Range;
-import jxl.Sheet;
 import jxl.Workbook;
+import jxl.WorkbookSettings;
 import jxl.format.Alignment;
 import jxl.format.BoldStyle;
 import jxl.format.BorderLineStyle;
@@ -36,47 +50,95 @@ import jxl.format.UnderlineStyle;
 import jxl.format.VerticalAlignment;
 
 /**
- * Excel 文件转换为 PDF 文件，不支持图表
+ * Excel 文件 (.xls, .xlsx) 转换为 PDF 文件，不支持图表
  * 
  * @author Tendy
  *         2007.7
  */
 public class Excel2PdfTransformer {
-	/** 页头 table */
-	protected PdfPTable headerTable = null;
+	/** 预览时每次写入 PDF 的行数 */
+	protected static final int PREVIEW_CHUNK_SIZE = 20;
 	
-	/** Excel 设置 */
-	protected Excel xls = null;
+	/** 没有格式的单元格使用的字体，不能修改 */
+	private static final Font DEFAULT_FONT = new Font();
 	
-	/** 要创建的 PDF 文档 */
-	protected Document document = null;
+	/** 没有格式的空单元格，不能修改 */
+	private static final PdfPCell BLANK_CELL = new PdfPCell(new Paragraph(""));
 	
-	/** 临时文档 */
-	protected Document tmpDocument = null;
+	/** Excel 设置，创建时复制的副本 */
+	protected final Excel xls;
 	
-	/** 当前处理的 Excel 工作表 */
-	protected Sheet currentSheet = null;
+	/** 字体转换缓存 */
+	protected final FontCache fontCache;
 	
-	/** 当前 Excel 工作表的合并单元格设置 */
-	protected Map currentRegionMap = null;
+	/** 单元格样式缓存 */
+	protected final CellStyleCache styleCache;
 	
-	/** 是否已经生成 Document 的 header */
-	protected boolean documentHeaderGenerated = false;
+	/** 转换结果缓存，null 表示不使用 */
+	private volatile ConversionCache resultCache = null;
 	
-	/** 当 Excel 的 border 是 NONE 是，pdf 的 border 是否是 0 */
-	protected boolean noEmptyBorder = true;
+	/** 工作表 PDF 片段的缓存，null 表示不使用 */
+	private volatile ConversionCache fragmentCache = null;
 	
-	/** 临时存放 pdfCell */
-	protected Map mergeRowCache = new HashMap();
+	/** 转换统计的接收者 */
+	private volatile ConversionListener conversionListener =
+			ConversionListener.NONE;
+	
+	/** 转换事件的接收者 */
+	private volatile ConversionTracer conversionTracer =
+			ConversionTracer.NONE;
+	
+	/** 子类是否覆盖了 transferFormat，覆盖时空单元格不共用 */
+	private final boolean transferFormatOverridden;
 	
 	/**
 	 * Constructor
 	 * 
+	 * 转换过程中的状态保存在每次调用 write 时新建的 {@link ConversionContext}
+	 * 中，同一个对象可以同时被多个线程调用。Excel 设置在创建时复制，之后修改
+	 * 原来的对象不影响这个对象
+	 * 
 	 * @param xls
 	 *            - Excel 设置
+	 * @see Excel#copy()
 	 */
 	public Excel2PdfTransformer(Excel xls) {
-		this.xls = xls;
+		this(xls, new FontCache(), new CellStyleCache());
+	}
+	
+	/**
+	 * Constructor，共用字体和样式缓存
+	 * 
+	 * @param xls
+	 *            - Excel 设置
+	 * @param fontCache
+	 *            - 字体转换缓存
+	 * @param styleCache
+	 *            - 单元格样式缓存
+	 */
+	public Excel2PdfTransformer(Excel xls, FontCache fontCache,
+			CellStyleCache styleCache) {
+		this.xls = xls.copy();
+		this.fontCache = fontCache;
+		this.styleCache = styleCache;
+		this.transferFormatOverridden = overridesTransferFormat(getClass());
+	}
+	
+	/**
+	 * 子类是否覆盖了 transferFormat
+	 */
+	private static boolean overridesTransferFormat(Class<?> type) {
+		for (Class<?> c = type; c != Excel2PdfTransformer.class; c = c
+				.getSuperclass()) {
+			try {
+				c.getDeclaredMethod("transferFormat", PdfPCell.class,
+						Cell.class, boolean.class, boolean.class);
+				return true;
+			} catch (NoSuchMethodException e) {
+				// 继续查找父类
+			}
+		}
+		return false;
 	}
 	
 	/**
@@ -87,18 +149,7 @@ public class Excel2PdfTransformer {
 	 * @throws Exception
 	 */
 	public void write(String fileName) throws Exception {
-		OutputStream output = new FileOutputStream(fileName);
-		try {
-			write(output);
-		} finally {
-			if (output != null) {
-				try {
-					output.close();
-				} catch (Exception e) {
-				}
-				;
-			}
-		}
+		write(new File(fileName), null);
 	}
 	
 	/**
@@ -109,9 +160,28 @@ public class Excel2PdfTransformer {
 	 * @throws Exception
 	 */
 	public void write(File file) throws Exception {
+		write(file, null);
+	}
+	
+	/**
+	 * 写到 PDF 文件，取消或超过截止时间时删除不完整的文件
+	 * 
+	 * @param file
+	 *            - PDF 文件
+	 * @param token
+	 *            - 取消标志和截止时间，null 表示不限制
+	 * @throws ConversionCancelledException
+	 *             - 转换被取消或超过截止时间
+	 * @throws Exception
+	 */
+	public void write(File file, CancellationToken token) throws Exception {
 		OutputStream output = new FileOutputStream(file);
+		boolean cancelled = false;
 		try {
-			write(output);
+			write(output, token);
+		} catch (ConversionCancelledException e) {
+			cancelled = true;
+			throw e;
 		} finally {
 			if (output != null) {
 				try {
@@ -120,239 +190,1054 @@ public class Excel2PdfTransformer {
 				}
 				;
 			}
+			if (cancelled)
+				file.delete();
 		}
 	}
 	
 	/**
-	 * 写到流
+	 * 写到流。设置了结果缓存时，先按文件内容和设置查找缓存
 	 * 
 	 * @param output
 	 *            - 输出流
 	 * @throws Exception
 	 */
 	public void write(OutputStream output) throws Exception {
-		documentHeaderGenerated = false;
-		noEmptyBorder = true;
-		// mergeRowCache.clear();
+		write(output, null);
+	}
+	
+	/**
+	 * 写到流。设置了结果缓存时，先按文件内容和设置查找缓存
+	 * 
+	 * 转换时在每一行、每次写入 document、每一页结束和每个工作表之前检查 token，
+	 * 取消或超过截止时间时关闭 workbook 和 document，抛出
+	 * {@link ConversionCancelledException}。这时输出流已关闭，其中是不完整的
+	 * PDF，应当丢弃；使用结果缓存时不完整的结果不放入缓存
+	 * 
+	 * @param output
+	 *            - 输出流
+	 * @param token
+	 *            - 取消标志和截止时间，null 表示不限制
+	 * @throws ConversionCancelledException
+	 *             - 转换被取消或超过截止时间
+	 * @throws Exception
+	 */
+	public void write(OutputStream output, CancellationToken token)
+			throws Exception {
+		if (token != null)
+			token.check();
+		ConversionCache cache = resultCache;
+		// 有时间限制的预览每次结果不同，不缓存
+		if (cache == null || xls.getPreviewTimeLimit() > 0) {
+			convert(output, token);
+			return;
+		}
 		
-		InputStream input = new FileInputStream(xls.getFile());
+		String key = cache.getKey(xls, getClass());
+		ConversionCache.EntryOutputStream entry = null;
+		try {
+			if (cache.writeTo(key, output))
+				return;
+			// 边转换边写到 output，成功后才放入缓存
+			entry = cache.newEntry(key, output);
+			convert(entry, token);
+			entry.commit();
+		} finally {
+			if (entry != null)
+				entry.discard();
+			output.close();
+		}
+	}
+	
+	/**
+	 * 转换 Excel 文件，写到流
+	 * 
+	 * @param output
+	 *            - 输出流
+	 * @param token
+	 *            - 取消标志和截止时间，null 表示不限制
+	 * @throws Exception
+	 */
+	protected void convert(OutputStream output, CancellationToken token)
+			throws Exception {
+		ConversionContext context = new ConversionContext();
+		context.cancellation = token;
+		ConversionTracer tracer = conversionTracer;
+		if (tracer != ConversionTracer.NONE)
+			context.tracer = tracer;
+		ConversionListener listener = conversionListener;
+		if (listener == ConversionListener.NONE) {
+			convert(context, output);
+			return;
+		}
+		
+		// 收集统计：时间、数量和输出的字节数
+		ConversionMetrics metrics = new ConversionMetrics(-1, null);
+		context.listener = listener;
+		context.metrics = metrics;
+		CountingOutputStream counter = new CountingOutputStream(output);
+		metrics.begin();
+		convert(context, counter);
+		metrics.finish();
+		metrics.outputBytes = counter.getCount();
+		listener.documentConverted(metrics);
+	}
+	
+	/**
+	 * 转换 Excel 文件，写到流
+	 * 
+	 * @param context
+	 *            - 转换状态
+	 * @param output
+	 *            - 输出流
+	 * @throws Exception
+	 */
+	private void convert(ConversionContext context, OutputStream output)
+			throws Exception {
+		ConversionMetrics metrics = context.metrics;
+		ConversionTracer tracer = context.tracer;
+		if (xls.getPreviewTimeLimit() > 0)
+			context.previewDeadline = System.currentTimeMillis()
+					+ xls.getPreviewTimeLimit();
+		// 限制页数的预览先写到内存，最后一页之后的内容在关闭时去掉
+		ByteArrayOutputStream previewBuffer = null;
+		CancellationToken token = context.cancellation;
+		boolean done = false;
 		
 		// 读取 Excel 文件
-		Workbook workbook = Workbook.getWorkbook(input);
+		long start = ConversionMetrics.start(metrics);
+		long traceStart = ConversionEvent.start(tracer);
+		WorkbookReader workbook = openWorkbook();
+		if (metrics != null)
+			metrics.end(ConversionMetrics.OPEN, start);
+		if (tracer != null)
+			tracer.event(new ConversionEvent(ConversionEvent.WORKBOOK_OPEN,
+					-1, traceStart));
 		try {
 			if (workbook.getNumberOfSheets() == 0) {
+				done = true;
 				return;
 			}
 			
-			// 创建 PDF document
-			document = new Document(xls.getPageSize(), 50, 50, 50, 50);
-			tmpDocument = new Document(PageSize.A4.rotate());
+			// 复用工作表片段时和并行处理相同，分别生成每个工作表再合并
+			if ((xls.isParallelSheets() || fragmentCache != null)
+					&& !xls.isPreview()) {
+				writeParallel(context, workbook, output);
+				done = true;
+				return;
+			}
 			
-			PdfWriter writer = PdfWriter.getInstance(document, output);
-			PdfWriter tmpWriter = PdfWriter.getInstance(tmpDocument,
-					new ByteArrayOutputStream());
+			// 创建 PDF document
+			context.document = new Document(xls.getPageSize(), 50, 50, 50,
+					50);
 					
+			if (xls.getPreviewPageLimit() > 0)
+				previewBuffer = new ByteArrayOutputStream();
+			PdfWriter writer = ProfilePdfWriter.getInstance(context.document,
+					previewBuffer != null ? previewBuffer : output,
+					xls.getPdfProfile());
+			xls.getPdfProfile().apply(writer);
+			context.writer = writer;
+			
 			// 新建事件
-			CustomPdfPageEvent pageEvent = new CustomPdfPageEvent();
-			pageEvent.setWritePageNumber(xls.isShowPageNumber());
-			pageEvent.setSkipFirstWrite(true);
-			pageEvent.setFooterText(xls.getPageFooter());
-			pageEvent.setPageNumberAlign(xls.getPageNumberAlign());
-			pageEvent.setPageNumberSize(xls.getPageNumberFontSize());
-			pageEvent.setPageNumberStyle(xls.getPageNumberStyle());
+			context.pageEvent = createPageEvent();
+			context.pageEvent.setCancellation(token);
 			// 设置事件处理
-			writer.setPageEvent(pageEvent);
+			writer.setPageEvent(context.pageEvent);
 			
 			// 打开文档
-			document.open();
-			tmpDocument.open();
-			
-			// A document cannot be empty. When closing an empty document,
-			// exception will occured.
-			Chunk ck = new Chunk("test", new Font());
-			tmpDocument.add(ck);
+			context.document.open();
 			
+			boolean firstSheet = true;
 			for (int sheetIndex = 0; sheetIndex < workbook
 					.getNumberOfSheets(); sheetIndex++) {
-				currentSheet = workbook.getSheet(sheetIndex);
-				if (currentSheet.getRows() == 0)
+				// 没有选择的工作表不读取
+				if (!isSheetSelected(workbook, sheetIndex))
 					continue;
-					
-				// 处理合并的单元格
-				currentRegionMap = readMergedCells(currentSheet);
-				// 清除临时 cache
-				if (mergeRowCache.size() > 0)
-					mergeRowCache.clear();
-					
-				// 处理 document header，位于第一个 sheet
-				if (sheetIndex == 0) {
-					processDocumentHeader();
-				} else {
-					// start on next page
-					pageEvent.setHeader(null);
-					pageEvent.setResetMargin(true);
-					document.add(Chunk.NEXTPAGE);
+				// 上一个工作表结束时已达到预览的限制，之后的工作表不输出，
+				// 总页数按提前停止处理
+				if (!firstSheet && isPreviewLimitReached(context)) {
+					context.previewStopped = true;
+					break;
 				}
-				
-				// 处理 page header
-				headerTable = processPageHeader(sheetIndex);
-				// processPageHeader 函数也使用了 currentRegionMap，恢复他们的值
-				resetMergeCellInfo(currentRegionMap);
-				
-				// 把 table 写到临时文档，是为了确定 table 的高度。所有的 table 必须要 render 一次才知道
-				// totalHeight
-				if (headerTable != null) {
-					headerTable.setTotalWidth(
-							tmpDocument.right() - tmpDocument.left());
-					headerTable.writeSelectedRows(0, -1,
-							tmpDocument.leftMargin(), 500,
-							tmpWriter.getDirectContent());
+				if (token != null)
+					token.check();
+				start = ConversionMetrics.start(metrics);
+				context.currentSheet = readSheet(workbook, sheetIndex);
+				if (!hasOutputRows(context.currentSheet, sheetIndex))
+					continue;
+				if (metrics != null) {
+					context.sheetMetrics = new ConversionMetrics(sheetIndex,
+							context.currentSheet.getName());
+					context.sheetMetrics.begin();
+					context.sheetMetrics.end(ConversionMetrics.READ, start);
 				}
 				
-				// 设置 header
-				pageEvent.setHeader(headerTable);
-				// 第一页不显示 header
-				pageEvent.setSkipFirstWrite(true);
-				// 重新设置 margin
-				pageEvent.setResetMargin(true);
-				
-				// 创建表格
-				PdfPTable currentTable = new PdfPTable(
-						currentSheet.getColumns());
-				currentTable.setWidthPercentage(100.0f);
-				currentTable.getDefaultCell().setPadding(1.0f);
-				currentTable.getDefaultCell().setBorderWidth(0.5f);
-				
-				int[] currentTableWidths = new int[currentSheet.getColumns()];
-				// int[] heights = new int[sheet.getRows()];
-				
-				for (int i = 0; i < currentSheet.getRows(); i++) {
-					// heights[i] = sheet.getRowView(i).getSize();
-					if (sheetIndex == 0 && xls.hasReportHeader()
-							&& i >= xls.getReportHeaderStartRow()
-							&& i <= xls.getReportHeaderEndRow()) {
-						// 跳过 document header
-						continue;
-					}
-					processRow(currentTable, i, currentTableWidths);
+				writeSheet(context, sheetIndex, !firstSheet);
+				firstSheet = false;
+				if (metrics != null) {
+					context.sheetMetrics.finish();
+					context.listener.sheetConverted(context.sheetMetrics);
+					metrics.add(context.sheetMetrics);
+					context.sheetMetrics = null;
 				}
-				
-				currentTable.setWidths(currentTableWidths);
-				document.add(currentTable);
-				
-				// 处理图像
-				// for (int i = 0; i < currentSheet.getNumberOfImages(); i++) {
-				// jxl.Image jxlImage = currentSheet.getDrawing(i);
-				// Image iTextImage = Image
-				// .getInstance(jxlImage.getImageData());
-				// document.add(iTextImage);
-				// }
+				if (context.previewStopped)
+					break;
 			} // end for (sheetIndex)
 			
+			if (context.previewStopped)
+				context.pageEvent.setTotalPageText(getPreviewTotalPageText(
+						context));
+			
 			// if (pageEvent.isEmptyDocument()) {
 			// // 如果没内容，添加内容，否则可能会出错
 			// ck = new Chunk("EMPTY DOCUMENT", new Font());
 			// document.add(ck);
 			// }
-			
+			done = true;
 		} finally {
+			// 最后一页的页面事件在关闭时发生
+			start = ConversionMetrics.start(metrics);
+			long pageEventNanos = 0;
+			if (metrics != null && context.pageEvent != null) {
+				context.pageEvent.setMetrics(metrics);
+				pageEventNanos = metrics.getNanos(ConversionMetrics.PAGE_EVENTS);
+			}
 			// 关闭 workbook
-			if (workbook != null)
-				workbook.close();
+			workbook.close();
 			// 关闭 document
-			if (document != null)
-				document.close();
-			if (tmpDocument != null)
-				tmpDocument.close();
-			if (input != null) {
-				input.close();
+			if (context.document != null)
+				closeDocument(context.document, context.pageEvent, done);
+			if (metrics != null)
+				metrics.end(ConversionMetrics.FINISH, start, pageEventNanos);
+		}
+		
+		if (previewBuffer != null) {
+			if (token != null)
+				token.check();
+			start = ConversionMetrics.start(metrics);
+			writePreviewPages(previewBuffer.toByteArray(), output);
+			if (metrics != null) {
+				metrics.end(ConversionMetrics.FINISH, start);
+				metrics.pages = Math.min(metrics.pages,
+						xls.getPreviewPageLimit());
 			}
 		}
 	}
 	
 	/**
-	 * 内部类，记录合并单元格的范围及处理状态
+	 * 打开 Excel 文件，.xlsx 文件按 zip 格式识别，.xls 文件按
+	 * {@link Excel#getXlsReader()} 选择 jxl 或 HSSF
+	 * 
+	 * @return
+	 * @throws Exception
 	 */
-	protected static class RegionInfo {
-		public RegionInfo() {
+	protected WorkbookReader openWorkbook() throws Exception {
+		ExcelSource source = xls.getSource();
+		if (source == null)
+			throw new IllegalArgumentException("no excel file or source");
+		if (source.isZip())
+			return new XlsxWorkbookReader(source);
+		if (xls.getXlsReader() == Excel.XLS_READER_HSSF)
+			return new HssfWorkbookReader(source);
+			
+		// jxl 读取时已把文件全部读入内存，读完就可以关闭
+		InputStream input = source.openStream();
+		try {
+			return new JxlWorkbookReader(
+					Workbook.getWorkbook(input, createWorkbookSettings()));
+		} finally {
+			input.close();
 		}
+	}
+	
+	/**
+	 * 创建读取 Excel 的设置
+	 * 
+	 * @return
+	 */
+	protected WorkbookSettings createWorkbookSettings() {
+		WorkbookSettings settings = new WorkbookSettings();
+		// jxl 每读取一个 sheet 会调用 System.gc()
+		settings.setGCDisabled(true);
+		return settings;
+	}
+	
+	/**
+	 * 新建页面事件
+	 * 
+	 * @return
+	 */
+	protected CustomPdfPageEvent createPageEvent() {
+		CustomPdfPageEvent pageEvent = new CustomPdfPageEvent();
+		pageEvent.setWritePageNumber(xls.isShowPageNumber());
+		pageEvent.setSkipFirstWrite(true);
+		pageEvent.setFooterText(xls.getPageFooter());
+		pageEvent.setPageNumberAlign(xls.getPageNumberAlign());
+		pageEvent.setPageNumberSize(xls.getPageNumberFontSize());
+		pageEvent.setPageNumberStyle(xls.getPageNumberStyle());
+		return pageEvent;
+	}
+	
+	/**
+	 * 把当前工作表写到 document
+	 * 
+	 * @param context
+	 *            - 转换状态
+	 * @param sheetIndex
+	 *            - 工作表索引，最小是 0
+	 * @param newPage
+	 *            - 是否从新的一页开始
+	 * @throws Exception
+	 */
+	protected void writeSheet(ConversionContext context, int sheetIndex,
+			boolean newPage) throws Exception {
+		SheetReader currentSheet = context.currentSheet;
+		Document document = context.document;
+		CustomPdfPageEvent pageEvent = context.pageEvent;
+		ConversionMetrics metrics = context.sheetMetrics;
+		ConversionTracer tracer = context.tracer;
+		long traceStart = ConversionEvent.start(tracer);
+		long rowsWritten = context.rowsWritten;
+		if (tracer != null)
+			pageEvent.setTracer(tracer, sheetIndex);
 		
-		public RegionInfo(Range range) {
-			this.range = range;
+		// 处理合并的单元格
+		long start = ConversionMetrics.start(metrics);
+		context.currentRegions = currentSheet.getMergedRegions();
+		long pageEventNanos = 0;
+		if (metrics != null) {
+			metrics.end(ConversionMetrics.MERGED_CELLS, start);
+			metrics.mergedRegions += context.currentRegions.size();
+			pageEvent.setMetrics(metrics);
+			start = System.nanoTime();
+			pageEventNanos = metrics.getNanos(ConversionMetrics.PAGE_EVENTS);
 		}
 		
-		// 是否已处理
-		private boolean done = false;
+		// 处理 document header，位于第一个 sheet
+		if (sheetIndex == 0) {
+			processDocumentHeader(context);
+		} else if (newPage) {
+			// start on next page
+			pageEvent.setHeader(null);
+			pageEvent.setResetMargin(true);
+			addToDocument(context, Chunk.NEXTPAGE);
+		}
 		
-		// 合并单元格的范围
-		private Range range;
+		// 处理 page header
+		PdfPTable headerTable = processPageHeader(context, sheetIndex);
+		context.headerTable = headerTable;
 		
-		public boolean isDone() {
-			return done;
+		// 按页面宽度计算 table 的高度，setMargin 需要 totalHeight
+		if (headerTable != null) {
+			headerTable.setTotalWidth(document.right() - document.left());
+			headerTable.calculateHeights();
 		}
 		
-		public Range getRange() {
-			return range;
+		// 设置 header
+		pageEvent.setHeader(headerTable);
+		// 第一页不显示 header
+		pageEvent.setSkipFirstWrite(true);
+		// 重新设置 margin
+		pageEvent.setResetMargin(true);
+		if (metrics != null)
+			metrics.end(ConversionMetrics.HEADERS, start, pageEventNanos);
+			
+		// 创建表格
+		PdfPTable currentTable = new PdfPTable(currentSheet.getColumns());
+		currentTable.setWidthPercentage(100.0f);
+		currentTable.getDefaultCell().setPadding(1.0f);
+		currentTable.getDefaultCell().setBorderWidth(0.5f);
+		
+		int[] currentTableWidths = new int[currentSheet.getColumns()];
+		// int[] heights = new int[sheet.getRows()];
+		
+		// 流式输出：列宽必须在第一次写入前确定，表格分批写入 document，
+		// 已写入的行会从 table 中删除
+		int chunkSize = xls.getStreamingChunkSize();
+		// 预览时分批写入，每批之后检查页数和时间
+		if (xls.isPreview() && chunkSize == 0)
+			chunkSize = PREVIEW_CHUNK_SIZE;
+		int pendingRows = 0;
+		MergedRegions.Cursor merged = context.currentRegions.cursor();
+		CancellationToken token = context.cancellation;
+		if (chunkSize > 0) {
+			readColumnWidths(currentSheet, currentTableWidths);
+			currentTable.setWidths(currentTableWidths);
+			currentTable.setComplete(false);
 		}
 		
-		public void setRange(Range range) {
-			this.range = range;
+		int[] outputRows = getOutputRows(currentSheet, sheetIndex);
+		context.rowsExpected += Math.max(0, outputRows[1] - outputRows[0] + 1);
+		for (int i = outputRows[0]; i <= outputRows[1]; i++) {
+			// heights[i] = sheet.getRowView(i).getSize();
+			if (sheetIndex == 0 && xls.hasReportHeader()
+					&& i >= xls.getReportHeaderStartRow()
+					&& i <= xls.getReportHeaderEndRow()) {
+				// 跳过 document header
+				continue;
+			}
+			if (token != null)
+				token.check();
+			start = ConversionMetrics.start(metrics);
+			processRow(context, currentTable, merged, i, currentTableWidths);
+			if (metrics != null) {
+				metrics.end(ConversionMetrics.ROWS, start);
+				metrics.rows++;
+				metrics.cells += currentSheet.getColumns();
+			}
+			context.rowsWritten++;
+			if (chunkSize > 0 && ++pendingRows >= chunkSize) {
+				addToDocument(context, sheetIndex, currentTable);
+				pendingRows = 0;
+				if (isPreviewLimitReached(context)) {
+					context.previewStopped = true;
+					break;
+				}
+			}
+		}
+		
+		if (chunkSize > 0) {
+			currentTable.setComplete(true);
+		} else {
+			currentTable.setWidths(currentTableWidths);
+		}
+		addToDocument(context, sheetIndex, currentTable);
+		
+		if (tracer != null) {
+			ConversionEvent event = new ConversionEvent(ConversionEvent.SHEET,
+					sheetIndex, traceStart);
+			event.rows = context.rowsWritten - rowsWritten;
+			event.cells = event.rows * currentSheet.getColumns();
+			event.mergedRegions = context.currentRegions.size();
+			tracer.event(event);
+		}
+		
+		// 处理图像
+		// for (int i = 0; i < currentSheet.getNumberOfImages(); i++) {
+		// jxl.Image jxlImage = currentSheet.getDrawing(i);
+		// Image iTextImage = Image
+		// .getInstance(jxlImage.getImageData());
+		// document.add(iTextImage);
+		// }
+	}
+	
+	/**
+	 * 把表格写到 document，收集统计时记录 iText 排版的时间
+	 * 
+	 * @param context
+	 *            - 转换状态
+	 * @param sheetIndex
+	 *            - 工作表索引，最小是 0
+	 * @param table
+	 *            - 表格
+	 * @throws Exception
+	 */
+	private void addToDocument(ConversionContext context, int sheetIndex,
+			PdfPTable table) throws Exception {
+		ConversionMetrics metrics = context.sheetMetrics;
+		ConversionTracer tracer = context.tracer;
+		if (context.cancellation != null)
+			context.cancellation.check();
+		if (metrics == null && tracer == null) {
+			addToDocument(context, table);
+			return;
+		}
+		long pageEventNanos = (metrics == null) ? 0 : metrics
+				.getNanos(ConversionMetrics.PAGE_EVENTS);
+		int rows = table.size();
+		long start = System.nanoTime();
+		addToDocument(context, table);
+		if (metrics != null)
+			metrics.end(ConversionMetrics.LAYOUT, start, pageEventNanos);
+		if (tracer != null) {
+			ConversionEvent event = new ConversionEvent(
+					ConversionEvent.DOCUMENT_ADD, sheetIndex, start);
+			event.rows = rows;
+			tracer.event(event);
+		}
+	}
+	
+	/**
+	 * 写到 document。页面事件中取消转换时，iText 把异常包装成
+	 * DocumentException，这里取出原来的异常
+	 * 
+	 * @param context
+	 *            - 转换状态
+	 * @param element
+	 *            - 表格等内容
+	 * @throws Exception
+	 */
+	private void addToDocument(ConversionContext context, Element element)
+			throws Exception {
+		try {
+			context.document.add(element);
+		} catch (DocumentException e) {
+			if (e.getCause() instanceof ConversionCancelledException)
+				throw (ConversionCancelledException) e.getCause();
+			throw e;
+		}
+	}
+	
+	/**
+	 * 关闭 document。转换中止时 iText 的状态可能不完整，不再检查取消，
+	 * 关闭时的错误也不抛出，保留原来的异常
+	 * 
+	 * @param document
+	 *            - PDF document
+	 * @param pageEvent
+	 *            - 页面事件，可以是 null
+	 * @param done
+	 *            - 转换是否正常结束
+	 */
+	private static void closeDocument(Document document,
+			CustomPdfPageEvent pageEvent, boolean done) {
+		if (done) {
+			document.close();
+			return;
+		}
+		if (pageEvent != null)
+			pageEvent.setCancellation(null);
+		try {
+			document.close();
+		} catch (RuntimeException e) {
+		}
+	}
+	
+	/**
+	 * 并行处理工作表：每个工作表在 executor 中生成一个单独的 PDF，
+	 * 然后按工作表的顺序合并，合并时输出页码和页脚
+	 * 
+	 * 没有设置并行处理、只使用片段缓存时，缓存中没有的工作表在调用的线程中
+	 * 直接读取 workbook 生成，不复制工作表，也不创建线程池
+	 * 
+	 * @param context
+	 *            - 转换状态，只用到统计
+	 * @param workbook
+	 *            - Excel 文件
+	 * @param output
+	 *            - 输出流
+	 * @throws Exception
+	 */
+	protected void writeParallel(ConversionContext context,
+			WorkbookReader workbook, OutputStream output) throws Exception {
+		final ConversionCache cache = fragmentCache;
+		ConversionMetrics metrics = context.metrics;
+		final CancellationToken token = context.cancellation;
+		boolean parallel = xls.isParallelSheets();
+		int parallelism = parallel ? xls.getSheetParallelism() : 1;
+		// executor 是 null 时在调用的线程中生成
+		ExecutorService executor = parallel ? xls.getSheetExecutor() : null;
+		boolean ownExecutor = parallel && (executor == null);
+		if (ownExecutor)
+			executor = Executors.newFixedThreadPool(parallelism);
+			
+		// workbook 同时只保留一个 sheet，每个 sheet 先复制一份再交给 executor。
+		// 限制同时存在的副本个数
+		final Semaphore permits = new Semaphore(parallelism);
+		List<Future<byte[]>> fragments = new ArrayList<Future<byte[]>>();
+		// 各个工作表的统计，从缓存取得的工作表是 null
+		List<ConversionMetrics> sheetMetrics =
+				new ArrayList<ConversionMetrics>();
+		boolean done = false;
+		try {
+			boolean firstSheet = true;
+			for (int sheetIndex = 0; sheetIndex < workbook
+					.getNumberOfSheets(); sheetIndex++) {
+				if (!isSheetSelected(workbook, sheetIndex))
+					continue;
+				if (token != null)
+					token.check();
+				long start = ConversionMetrics.start(metrics);
+				SheetReader sheet = readSheet(workbook, sheetIndex);
+				if (!hasOutputRows(sheet, sheetIndex))
+					continue;
+				final int index = sheetIndex;
+				final boolean first = firstSheet;
+				firstSheet = false;
+				// 按顺序读一遍工作表计算 key，不复制
+				final String key = (cache == null) ? null : getFragmentKey(
+						sheet, index, first);
+				final byte[] cached = (key == null) ? null : cache.get(key);
+				if (cached != null) {
+					// 工作表没有变化，直接使用上一次的片段
+					fragments.add(completedFragment(cached));
+					sheetMetrics.add(null);
+					continue;
+				}
+				if (executor == null) {
+					// 在调用的线程中生成，直接读取 workbook
+					ConversionMetrics m = (metrics == null) ? null
+							: new ConversionMetrics(index, sheet.getName());
+					if (m != null)
+						m.end(ConversionMetrics.READ, start);
+					byte[] fragment = writeFragment(index, sheet, first, m,
+							token);
+					if (key != null)
+						cache.put(key, fragment);
+					fragments.add(completedFragment(fragment));
+					sheetMetrics.add(m);
+					continue;
+				}
+				// 读取的时间不包括等待 permit 的时间
+				long readNanos = ConversionMetrics.start(metrics) - start;
+				
+				permits.acquire();
+				try {
+					start = ConversionMetrics.start(metrics);
+					final SheetReader snapshot = new SheetSnapshot(sheet,
+							getRowsToRead(sheet, index));
+					final ConversionMetrics m = (metrics == null) ? null
+							: new ConversionMetrics(index, sheet.getName());
+					if (m != null)
+						m.end(ConversionMetrics.READ, start - readNanos);
+					fragments.add(executor.submit(new Callable<byte[]>() {
+						public byte[] call() throws Exception {
+							try {
+								byte[] fragment = writeFragment(index,
+										snapshot, first, m, token);
+								if (key != null)
+									cache.put(key, fragment);
+								return fragment;
+							} finally {
+								permits.release();
+							}
+						}
+					}));
+					sheetMetrics.add(m);
+				} catch (RuntimeException e) {
+					permits.release();
+					throw e;
+				}
+			}
+			
+			List<byte[]> results = new ArrayList<byte[]>(fragments.size());
+			for (Future<byte[]> fragment : fragments) {
+				try {
+					results.add(fragment.get());
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof Exception)
+						throw (Exception) cause;
+					throw e;
+				}
+			}
+			if (metrics != null) {
+				for (int i = 0; i < sheetMetrics.size(); i++) {
+					ConversionMetrics m = sheetMetrics.get(i);
+					if (m == null)
+						continue;
+					m.elapsedNanos += m.getNanos(ConversionMetrics.READ);
+					context.listener.sheetConverted(m);
+					metrics.add(m);
+					// 其他线程分配的字节数，在调用的线程中生成时已经包括在内
+					if (executor != null)
+						metrics.addAllocatedBytes(m.getAllocatedBytes());
+				}
+			}
+			mergeFragments(results, output, metrics, token);
+			done = true;
+		} finally {
+			if (!done) {
+				for (Future<byte[]> fragment : fragments)
+					fragment.cancel(true);
+			}
+			if (ownExecutor)
+				executor.shutdown();
 		}
+	}
+	
+	/**
+	 * 已经生成的片段
+	 */
+	private static Future<byte[]> completedFragment(final byte[] fragment) {
+		FutureTask<byte[]> task = new FutureTask<byte[]>(
+				new Callable<byte[]>() {
+					public byte[] call() {
+						return fragment;
+					}
+				});
+		task.run();
+		return task;
+	}
+	
+	/**
+	 * 把一个工作表生成单独的 PDF。页码和页脚不输出，但是保留它们的位置，
+	 * 页面布局和顺序处理时相同
+	 * 
+	 * @param sheetIndex
+	 *            - 工作表索引，最小是 0
+	 * @param sheet
+	 *            - 工作表
+	 * @param firstSheet
+	 *            - 是否是第一个输出的工作表
+	 * @param metrics
+	 *            - 工作表的统计，null 表示不收集
+	 * @param token
+	 *            - 取消标志和截止时间，null 表示不限制
+	 * @return PDF 内容
+	 * @throws Exception
+	 */
+	protected byte[] writeFragment(int sheetIndex, SheetReader sheet,
+			boolean firstSheet, ConversionMetrics metrics,
+			CancellationToken token) throws Exception {
+		if (metrics != null)
+			metrics.begin();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ConversionContext context = new ConversionContext();
+		context.sheetMetrics = metrics;
+		context.cancellation = token;
+		ConversionTracer tracer = conversionTracer;
+		if (tracer != ConversionTracer.NONE)
+			context.tracer = tracer;
+		CustomPdfPageEvent pageEvent = createPageEvent();
+		pageEvent.setWriteFooter(false);
+		pageEvent.setCancellation(token);
+		context.pageEvent = pageEvent;
 		
-		public void setDone(boolean done) {
-			this.done = done;
+		// 第一页以后的页面都保留了页脚的高度
+		float bottomMargin = firstSheet ? 50
+				: 50 + pageEvent.getFooterHeight();
+		Document document = new Document(xls.getPageSize(), 50, 50, 50,
+				bottomMargin);
+		context.document = document;
+		pageEvent.setInitialMargins(50, 50);
+		boolean done = false;
+		try {
+			// 片段合并时内容流原样复制，只需要相同的压缩级别和字体子集
+			PdfWriter writer = ProfilePdfWriter.getInstance(document, output,
+					xls.getPdfProfile());
+			writer.setCompressionLevel(xls.getPdfProfile()
+					.getCompressionLevel());
+			writer.setPageEvent(pageEvent);
+			document.open();
+			context.currentSheet = sheet;
+			writeSheet(context, sheetIndex, false);
+			done = true;
+		} finally {
+			closeDocument(document, pageEvent, done);
 		}
+		if (metrics != null)
+			metrics.finish();
+		return output.toByteArray();
 	}
 	
+	/**
+	 * 按顺序合并各个工作表的 PDF，并输出页码和页脚
+	 * 
+	 * @param fragments
+	 *            - 各个工作表的 PDF
+	 * @param output
+	 *            - 输出流
+	 * @param metrics
+	 *            - 文档的统计，null 表示不收集
+	 * @param token
+	 *            - 取消标志和截止时间，null 表示不限制
+	 * @throws Exception
+	 */
+	protected void mergeFragments(List<byte[]> fragments, OutputStream output,
+			ConversionMetrics metrics, CancellationToken token)
+			throws Exception {
+		long start = ConversionMetrics.start(metrics);
+		CustomPdfPageEvent pageEvent = createPageEvent();
+		pageEvent.initFont();
+		
+		int totalPage = 0;
+		PdfReader[] readers = new PdfReader[fragments.size()];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new PdfReader(fragments.get(i));
+			totalPage += readers[i].getNumberOfPages();
+		}
+		
+		Document document = new Document(xls.getPageSize());
+		boolean done = false;
+		try {
+			PdfCopy copy = new PdfCopy(document, output);
+			xls.getPdfProfile().apply(copy);
+			document.open();
+			Rectangle pageSize = xls.getPageSize();
+			int pageNumber = 0;
+			for (int i = 0; i < readers.length; i++) {
+				for (int p = 1; p <= readers[i].getNumberOfPages(); p++) {
+					if (token != null)
+						token.check();
+					PdfImportedPage page = copy.getImportedPage(readers[i], p);
+					pageNumber++;
+					// 第一页的 bottom margin 不包括页脚的高度
+					float bottomMargin = (pageNumber == 1) ? 50
+							: 50 + pageEvent.getFooterHeight();
+					PdfCopy.PageStamp stamp = copy.createPageStamp(page);
+					pageEvent.writeFooter(stamp.getOverContent(), pageSize, 50,
+							pageSize.getWidth() - 50, bottomMargin, pageNumber,
+							totalPage);
+					stamp.alterContents();
+					copy.addPage(page);
+				}
+				copy.freeReader(readers[i]);
+				readers[i].close();
+				readers[i] = null;
+			}
+			done = true;
+		} finally {
+			closeDocument(document, null, done);
+			for (int i = 0; i < readers.length; i++) {
+				if (readers[i] != null)
+					readers[i].close();
+			}
+		}
+		if (metrics != null) {
+			metrics.end(ConversionMetrics.FINISH, start);
+			// 从缓存取得的片段没有页面事件
+			metrics.pages = totalPage;
+		}
+	}
+
 	// --------------------------------------------------- assistant functions
 	
+	/**
+	 * 工作表片段缓存的 key：工作表内容、位置和所有影响输出的设置。只读取
+	 * {@link #getRowsToRead(SheetReader, int)} 的行
+	 * 
+	 * @param sheet
+	 *            - 工作表，按行的顺序读取一遍
+	 * @param sheetIndex
+	 *            - 工作表索引，最小是 0
+	 * @param firstSheet
+	 *            - 是否是第一个输出的工作表
+	 * @return
+	 */
+	protected String getFragmentKey(SheetReader sheet, int sheetIndex,
+			boolean firstSheet) {
+		return "sheet-"
+				+ SheetFingerprint.compute(sheet,
+						getRowsToRead(sheet, sheetIndex),
+						xls.getSettingsFingerprint() + ";class="
+								+ getClass().getName() + ";sheetIndex="
+								+ sheetIndex + ";first=" + firstSheet);
+	}
+	
+	/**
+	 * 预览是否已达到页数或时间的限制
+	 * 
+	 * @param context
+	 *            - 转换状态
+	 * @return
+	 */
+	protected boolean isPreviewLimitReached(ConversionContext context) {
+		if (!xls.isPreview())
+			return false;
+		if (xls.getPreviewPageLimit() > 0
+				&& context.writer.getPageNumber() > xls.getPreviewPageLimit())
+			return true;
+		return context.previewDeadline > 0
+				&& System.currentTimeMillis() >= context.previewDeadline;
+	}
+	
+	/**
+	 * 预览提前停止时代替总页数的文字
+	 * 
+	 * @param context
+	 *            - 转换状态
+	 * @return
+	 */
+	protected String getPreviewTotalPageText(ConversionContext context) {
+		if (xls.getPreviewTotalPage() != Excel.PREVIEW_TOTAL_ESTIMATE
+				|| context.rowsWritten == 0)
+			return xls.getPreviewPlaceholder();
+		// 按已读取的工作表估计，之后的工作表还没读取，不计算在内
+		long pages = context.writer.getPageNumber();
+		long estimate = (pages * context.rowsExpected + context.rowsWritten - 1)
+				/ context.rowsWritten;
+		if (xls.getPreviewPageLimit() > 0)
+			pages = Math.min(pages, xls.getPreviewPageLimit());
+		return String.valueOf(Math.max(estimate, pages));
+	}
+	
+	/**
+	 * 输出预览的 PDF，去掉超过页数限制的页
+	 * 
+	 * @param pdf
+	 *            - 完整的预览
+	 * @param output
+	 *            - 输出流
+	 * @throws Exception
+	 */
+	protected void writePreviewPages(byte[] pdf, OutputStream output)
+			throws Exception {
+		PdfReader reader = new PdfReader(pdf);
+		try {
+			int limit = xls.getPreviewPageLimit();
+			if (reader.getNumberOfPages() <= limit) {
+				output.write(pdf);
+				output.close();
+				return;
+			}
+			reader.selectPages("1-" + limit);
+			PdfStamper stamper = new PdfStamper(reader, output);
+			stamper.getWriter().setCompressionLevel(
+					xls.getPdfProfile().getCompressionLevel());
+			if (xls.getPdfProfile().isFullCompression())
+				stamper.setFullCompression();
+			stamper.close();
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * 工作表是否要输出，只用到工作表名称，不读取工作表
+	 * 
+	 * @param workbook
+	 *            - Excel 文件
+	 * @param sheetIndex
+	 *            - 工作表索引，最小是 0
+	 * @return
+	 */
+	protected boolean isSheetSelected(WorkbookReader workbook, int sheetIndex) {
+		if (!xls.hasSheetSelection())
+			return true;
+		return xls.isSheetSelected(sheetIndex,
+				workbook.getSheetName(sheetIndex));
+	}
+	
+	/**
+	 * 读取工作表。{@link Excel#isTrimUsedRange()} 时只保留实际使用的行和列
+	 * 
+	 * @param workbook
+	 *            - Excel 文件
+	 * @param sheetIndex
+	 *            - 工作表索引，最小是 0
+	 * @return
+	 * @throws Exception
+	 */
+	protected SheetReader readSheet(WorkbookReader workbook, int sheetIndex)
+			throws Exception {
+		SheetReader sheet = workbook.getSheet(sheetIndex);
+		return xls.isTrimUsedRange() ? UsedRangeSheet.trim(sheet) : sheet;
+	}
+	
+	/**
+	 * 工作表输出的行，按 {@link Excel#getRowRange(int)} 限制
+	 * 
+	 * @param sheet
+	 *            - 工作表
+	 * @param sheetIndex
+	 *            - 工作表索引，最小是 0
+	 * @return {起始行, 结束行}，没有要输出的行时起始行大于结束行
+	 */
+	protected int[] getOutputRows(SheetReader sheet, int sheetIndex) {
+		int first = 0;
+		int last = sheet.getRows() - 1;
+		RowRange range = xls.getRowRange(sheetIndex);
+		if (range != null) {
+			first = Math.max(first, range.getStartRow());
+			last = Math.min(last, range.getEndRow());
+		}
+		return new int[] { first, last };
+	}
+	
+	private boolean hasOutputRows(SheetReader sheet, int sheetIndex) {
+		int[] rows = getOutputRows(sheet, sheetIndex);
+		return rows[0] <= rows[1];
+	}
+	
+	/**
+	 * 转换工作表时读取的行：输出的行、page header 和 report header
+	 * 
+	 * @param sheet
+	 *            - 工作表
+	 * @param sheetIndex
+	 *            - 工作表索引，最小是 0
+	 * @return
+	 */
+	protected BitSet getRowsToRead(SheetReader sheet, int sheetIndex) {
+		BitSet rows = new BitSet();
+		int[] outputRows = getOutputRows(sheet, sheetIndex);
+		if (outputRows[0] <= outputRows[1])
+			rows.set(outputRows[0], outputRows[1] + 1);
+		RowRange header = xls.getPageHeader(sheetIndex);
+		if (header != null)
+			rows.set(header.getStartRow(), header.getEndRow() + 1);
+		if (sheetIndex == 0 && xls.hasReportHeader())
+			rows.set(xls.getReportHeaderStartRow(),
+					xls.getReportHeaderEndRow() + 1);
+		return rows;
+	}
+	
 	/**
 	 * 处理文档头部，只处理一次
 	 * 
+	 * @param context
+	 *            - 转换状态
 	 * @throws Exception
 	 */
-	protected void processDocumentHeader() throws Exception {
-		if (xls.hasReportHeader() && !documentHeaderGenerated) {
+	protected void processDocumentHeader(ConversionContext context)
+			throws Exception {
+		if (xls.hasReportHeader() && !context.documentHeaderGenerated) {
+			long start = ConversionEvent.start(context.tracer);
 			// 默认如果 border 是 empty，不显示 border
-			noEmptyBorder = false;
-			PdfPTable headerTable = new PdfPTable(currentSheet.getColumns());
-			int[] tableWidths = new int[currentSheet.getColumns()];
+			context.noEmptyBorder = false;
+			int columns = context.currentSheet.getColumns();
+			PdfPTable headerTable = new PdfPTable(columns);
+			int[] tableWidths = new int[columns];
 			
 			headerTable.setWidthPercentage(100.0f);
 			headerTable.getDefaultCell().setBorderWidth(0.5f);
 			
+			MergedRegions.Cursor merged = context.currentRegions.cursor();
 			for (int i = xls.getReportHeaderStartRow(); i <= xls
 					.getReportHeaderEndRow(); i++) {
-				processRow(headerTable, i, tableWidths);
+				processRow(context, headerTable, merged, i, tableWidths);
 			}
 			
 			headerTable.setWidths(tableWidths);
-			document.add(headerTable);
-			noEmptyBorder = true;
-			documentHeaderGenerated = true;
+			context.document.add(headerTable);
+			context.noEmptyBorder = true;
+			context.documentHeaderGenerated = true;
+			if (context.tracer != null) {
+				ConversionEvent event = new ConversionEvent(
+						ConversionEvent.REPORT_HEADER, 0, start);
+				event.rows = xls.getReportHeaderEndRow()
+						- xls.getReportHeaderStartRow() + 1;
+				event.cells = event.rows * columns;
+				context.tracer.event(event);
+			}
 		}
 	}
 	
 	/**
 	 * 处理 page header
 	 * 
+	 * @param context
+	 *            - 转换状态
 	 * @param sheetIndex
 	 *            - 工作表索引，最小是 0
 	 * @return
 	 * @throws Exception
 	 */
-	protected PdfPTable processPageHeader(int sheetIndex) throws Exception {
+	protected PdfPTable processPageHeader(ConversionContext context,
+			int sheetIndex) throws Exception {
 		if (xls.hasPageHeader(sheetIndex)) {
-			PdfPTable table = new PdfPTable(currentSheet.getColumns());
-			int[] tableWidths = new int[currentSheet.getColumns()];
+			long start = ConversionEvent.start(context.tracer);
+			int columns = context.currentSheet.getColumns();
+			PdfPTable table = new PdfPTable(columns);
+			int[] tableWidths = new int[columns];
 			table.setWidthPercentage(100.0f);
 			table.getDefaultCell().setBorderWidth(0.5f);
 			RowRange range = xls.getPageHeader(sheetIndex);
+			MergedRegions.Cursor merged = context.currentRegions.cursor();
 			for (int i = range.getStartRow(); i <= range.getEndRow(); i++) {
-				processRow(table, i, tableWidths);
+				processRow(context, table, merged, i, tableWidths);
 			}
 			table.setWidthPercentage(100.0f);
 			table.setWidths(tableWidths);
+			if (context.tracer != null) {
+				ConversionEvent event = new ConversionEvent(
+						ConversionEvent.PAGE_HEADER, sheetIndex, start);
+				event.rows = range.getEndRow() - range.getStartRow() + 1;
+				event.cells = event.rows * columns;
+				context.tracer.event(event);
+			}
 			return table;
 		}
 		return null;
@@ -361,49 +1246,49 @@ public class Excel2PdfTransformer {
 	/**
 	 * 处理 Excel 文件的一行
 	 * 
+	 * @param context
+	 *            - 转换状态
 	 * @param table
 	 *            - PdfPTable
+	 * @param merged
+	 *            - 合并单元格的扫描游标，同一个 table 使用同一个游标
 	 * @param i
 	 *            - 行号
 	 * @param widths
 	 *            - 记录每列的宽度
 	 */
-	protected void processRow(PdfPTable table, int i, int[] widths) {
+	protected void processRow(ConversionContext context, PdfPTable table,
+			MergedRegions.Cursor merged, int i, int[] widths) {
 		int j;
+		SheetReader currentSheet = context.currentSheet;
+		boolean noEmptyBorder = context.noEmptyBorder;
 		Cell[] rowCells = currentSheet.getRow(i);
+		MergedRegions regions = merged.getRegions();
+		merged.moveTo(i);
 		for (j = 0; j < rowCells.length; j++) {
 			if (widths[j] <= 0)
-				widths[j] = currentSheet.getColumnView(j).getSize();
+				widths[j] = currentSheet.getColumnWidth(j);
 				
 			PdfPCell pdfCell = null;
 			Paragraph content = null;
 			Cell cell = rowCells[j];
-			jxl.format.CellFormat format = cell.getCellFormat();
-			Font font = null;
-			if (format != null && format.getFont() != null) {
-				font = convertFont(format.getFont());
-			} else {
-				font = new Font();
-			}
 			
-			String key = i + "," + j;
 			// 处理合并单元格
 			boolean mergeRow = false;
-			if (currentRegionMap.containsKey(key)) {
-				RegionInfo info = (RegionInfo) currentRegionMap.get(key);
-				Range range = info.getRange();
-				Cell topLeft = range.getTopLeft();
-				Cell bottomRight = range.getBottomRight();
-				if (info.isDone()) {
+			int region = merged.regionAt(j);
+			if (region >= 0) {
+				int firstRow = regions.getFirstRow(region);
+				int lastRow = regions.getLastRow(region);
+				int firstColumn = regions.getFirstColumn(region);
+				int lastColumn = regions.getLastColumn(region);
+				PdfPCell lastRowCell = merged.getHead(region);
+				if (lastRowCell != null) {
 					// 这个 cell (处于行 i 列 j) 已处理，继续下一个 cell
-					if (i > topLeft.getRow()
-							&& bottomRight.getRow() - topLeft.getRow() > 0) {
+					if (i > firstRow && lastRow - firstRow > 0) {
 						pdfCell = new PdfPCell();
 						// 有 rowspan，从下一行起
 						pdfCell.addElement(new Chunk(" "));
-						PdfPCell lastRowCell = (PdfPCell) mergeRowCache
-								.get(key);
-						boolean isLastRow = (i == bottomRight.getRow()); // 是否是合并单元格的最后一行
+						boolean isLastRow = (i == lastRow); // 是否是合并单元格的最后一行
 						
 						// 下边框
 						if (isLastRow) {
@@ -429,16 +1314,16 @@ public class Excel2PdfTransformer {
 								
 						// 设置边框
 						pdfCell.setBorderWidthTop(1.0f); // 上边框为 0
-						if (topLeft.getColumn() < bottomRight.getColumn()) {
+						if (firstColumn < lastColumn) {
 							// 大于 1 列
-							if (j == topLeft.getColumn()) {
+							if (j == firstColumn) {
 								// 左边界的 acell
 								pdfCell.setBorderWidthRight(0.0f);
 								pdfCell.setBorderWidthLeft(
 										lastRowCell.getBorderWidthLeft());
 								pdfCell.setBorderColorLeft(
 										lastRowCell.getBorderColorLeft());
-							} else if (j == bottomRight.getColumn()) {
+							} else if (j == lastColumn) {
 								// 右边界的 cell
 								pdfCell.setBorderWidthLeft(0.0f);
 								pdfCell.setBorderWidthRight(
@@ -465,46 +1350,33 @@ public class Excel2PdfTransformer {
 					}
 					continue;
 				} else {
-					content = new Paragraph(cell.getContents(), font);
+					content = new Paragraph(cell.getContents(),
+							getCellFont(cell));
 					pdfCell = new PdfPCell(content);
 					// 设置单元格合并
-					pdfCell.setColspan(
-							bottomRight.getColumn() - topLeft.getColumn() + 1);
-					if (bottomRight.getRow() > topLeft.getRow()) {
+					pdfCell.setColspan(lastColumn - firstColumn + 1);
+					if (lastRow > firstRow) {
 						mergeRow = true;
 					}
 					
-					// 设置单元格状态
-					for (int row = topLeft.getRow(); row <= bottomRight
-							.getRow(); row++) {
-						for (int col = topLeft.getColumn(); col <= bottomRight
-								.getColumn(); col++) {
-							key = row + "," + col;
-							info = (RegionInfo) currentRegionMap.get(key);
-							info.setDone(true); // 已处理
-							mergeRowCache.put(key, pdfCell); // 把这个 cell
-																// 缓存起来，这样可以取它的样式
-						}
-						
-					}
+					// 设置单元格状态：把这个 cell 缓存起来，这样可以取它的样式
+					merged.setHead(region, pdfCell);
 				}
 			}
 			
 			if (cell.getType() == CellType.EMPTY) {
-				// 空单元格
-				pdfCell = new PdfPCell(new Paragraph(""));
-				transferFormat(pdfCell, cell, mergeRow);
-				table.addCell(pdfCell);
+				// 空单元格，使用共享的单元格，addCell 添加的是副本
+				table.addCell(getEmptyCell(cell, mergeRow, noEmptyBorder));
 				// table.addCell(" ");
 				continue;
 			}
 			
 			if (pdfCell == null) {
-				content = new Paragraph(cell.getContents(), font);
+				content = new Paragraph(cell.getContents(), getCellFont(cell));
 				pdfCell = new PdfPCell(content);
 			}
 			
-			transferFormat(pdfCell, cell, mergeRow);
+			transferFormat(pdfCell, cell, mergeRow, noEmptyBorder);
 			
 			// pdfCell.setPadding(3.0f);
 			// pdfCell.setPaddingBottom(pdfCell.getPaddingTop() + 2.0f);
@@ -517,126 +1389,195 @@ public class Excel2PdfTransformer {
 			 * sheet.getColumns() 获得最大列数
 			 * 每行的列数 sheet.getRow(i) 是 实际列数
 			 */
+			PdfPCell padding = getPaddingCell(context, table);
 			for (int counter = j + 1; counter <= currentSheet
 					.getColumns(); counter++) {
 				// 增加一个空白 cell
-				table.addCell(" ");
+				table.addCell(padding);
 			}
 		}
 	}
 	
 	/**
-	 * 读取合并单元格
+	 * 取得单元格的字体
 	 * 
-	 * @param sheet
-	 *            - Excel Sheet
+	 * @param cell
+	 *            - jxl.Cell
+	 * @return 没有格式或字体时返回默认字体
 	 */
-	protected Map readMergedCells(Sheet sheet) {
-		/*
-		 * regionMap("行,列") = RegionInfo
-		 * 表示 excel 表中，位于 (行,列) 处的单元格，属于被合并的单元格
-		 */
-		Map regionMap = new HashMap(16);
-		Range[] mergedCells = sheet.getMergedCells();
-		if (mergedCells != null) {
-			for (int i = 0; i < mergedCells.length; i++) {
-				Cell topLeft = mergedCells[i].getTopLeft();
-				Cell bottomRight = mergedCells[i].getBottomRight();
-				for (int row = topLeft.getRow(); row <= bottomRight
-						.getRow(); row++) {
-					for (int col = topLeft.getColumn(); col <= bottomRight
-							.getColumn(); col++) {
-						regionMap.put(row + "," + col,
-								new RegionInfo(mergedCells[i]));
-					}
-				}
-			}
+	private Font getCellFont(Cell cell) {
+		jxl.format.CellFormat format = cell.getCellFormat();
+		if (format != null && format.getFont() != null)
+			return getFont(format.getFont());
+		return DEFAULT_FONT;
+	}
+	
+	/**
+	 * 取得空单元格。同一种样式共用一个单元格，PdfPTable.addCell 添加的是副本，
+	 * 返回的单元格不能修改
+	 * 
+	 * 共用的单元格按样式创建，不经过 {@link #transferFormat}。子类覆盖了
+	 * transferFormat 时，每个空单元格都新建并调用 transferFormat，和非空
+	 * 单元格一样
+	 * 
+	 * @param cell
+	 *            - jxl.Cell
+	 * @param mergeRow
+	 *            - 是否合并行
+	 * @param noEmptyBorder
+	 *            - border 是 NONE 时是否仍然显示细边框
+	 * @return
+	 */
+	protected PdfPCell getEmptyCell(Cell cell, boolean mergeRow,
+			boolean noEmptyBorder) {
+		if (transferFormatOverridden) {
+			PdfPCell pdfCell = new PdfPCell(new Paragraph(""));
+			transferFormat(pdfCell, cell, mergeRow, noEmptyBorder);
+			return pdfCell;
 		}
-		return regionMap;
+		jxl.format.CellFormat format = cell.getCellFormat();
+		if (format == null)
+			return BLANK_CELL;
+		return getCellStyle(format, cell.getType(), mergeRow, noEmptyBorder)
+				.getEmptyCell();
 	}
 	
 	/**
-	 * 重新设置 regionMap 为未处理
+	 * 取得补齐列数用的空白单元格，和 table.addCell(" ") 添加的单元格相同。
+	 * 每个表格只创建一次
 	 * 
-	 * @param regionMap
+	 * @param context
+	 *            - 转换状态
+	 * @param table
+	 *            - PdfPTable
+	 * @return
 	 */
-	protected void resetMergeCellInfo(Map regionMap) {
-		Iterator iter = regionMap.values().iterator();
-		while (iter.hasNext()) {
-			RegionInfo info = (RegionInfo) iter.next();
-			info.setDone(false);
+	private PdfPCell getPaddingCell(ConversionContext context,
+			PdfPTable table) {
+		if (context.paddingTable != table) {
+			PdfPCell padding = new PdfPCell(table.getDefaultCell());
+			padding.setPhrase(new Phrase(" "));
+			context.paddingCell = padding;
+			context.paddingTable = table;
+		}
+		return context.paddingCell;
+	}
+	
+	/**
+	 * 读取所有列的宽度
+	 * 
+	 * @param sheet
+	 *            - Excel Sheet
+	 * @param widths
+	 *            - 记录每列的宽度
+	 */
+	protected void readColumnWidths(SheetReader sheet, int[] widths) {
+		for (int j = 0; j < widths.length; j++) {
+			widths[j] = sheet.getColumnWidth(j);
 		}
 	}
 	
 	/**
 	 * 转换单元格格式
 	 * 
+	 * 没有覆盖这个方法时，空单元格使用按样式共用的单元格，不调用这个方法，
+	 * 见 {@link #getEmptyCell(Cell, boolean, boolean)}
+	 * 
 	 * @param pdfCell
 	 *            - PdfPCell
 	 * @param cell
 	 *            - jxl.Cell
 	 * @param mergeRow
 	 *            - 是否合并行
+	 * @param noEmptyBorder
+	 *            - border 是 NONE 时是否仍然显示细边框
 	 */
-	protected void transferFormat(PdfPCell pdfCell, Cell cell, boolean mergeRow) {
+	protected void transferFormat(PdfPCell pdfCell, Cell cell, boolean mergeRow,
+			boolean noEmptyBorder) {
 		jxl.format.CellFormat format = cell.getCellFormat();
 		if (format != null) {
-			// 水平对齐
-			pdfCell.setHorizontalAlignment(
-					convertAlignment(format.getAlignment(), cell.getType()));
-			// 垂直对齐
-			pdfCell.setVerticalAlignment(
-					convertVerticalAlignment(format.getVerticalAlignment()));
-					// 背景
-					// if (format.getBackgroundColour() != null) {
-					// pdfCell.setBackgroundColor(convertColour(
-					// format.getBackgroundColour(), Color.WHITE));
-					// }
-					
-			// 处理 border
-			BorderLineStyle lineStyle = null;
-			if (mergeRow) {
-				pdfCell.setBorderWidthBottom(0.0f);
-			} else {
-				lineStyle = format.getBorderLine(jxl.format.Border.BOTTOM);
-				pdfCell.setBorderWidthBottom(convertBorderStyle(lineStyle));
-				if (lineStyle.getValue() == BorderLineStyle.NONE.getValue())
-					pdfCell.setBorderColorBottom(BaseColor.GRAY);
-				// else
-				// pdfCell.setBorderColorBottom(convertColour(
-				// format.getBorderColour(jxl.format.Border.BOTTOM),
-				// Color.GRAY));
-			}
-			
-			lineStyle = format.getBorderLine(jxl.format.Border.TOP);
-			pdfCell.setBorderWidthTop(convertBorderStyle(lineStyle));
-			// if (lineStyle.getValue() == BorderLineStyle.NONE.getValue())
-			// pdfCell.setBorderColorTop(Color.GRAY);
-			// else
-			// pdfCell.setBorderColorTop(convertColour(
-			// format.getBorderColour(jxl.format.Border.TOP),
-			// Color.GRAY));
-			
-			lineStyle = format.getBorderLine(jxl.format.Border.LEFT);
-			pdfCell.setBorderWidthLeft(convertBorderStyle(lineStyle));
-			// if (lineStyle.getValue() == BorderLineStyle.NONE.getValue())
-			// pdfCell.setBorderColorLeft(Color.GRAY);
-			// else
-			// pdfCell.setBorderColorLeft(convertColour(
-			// format.getBorderColour(jxl.format.Border.LEFT),
-			// Color.GRAY));
-			
-			lineStyle = format.getBorderLine(jxl.format.Border.RIGHT);
-			pdfCell.setBorderWidthRight(convertBorderStyle(lineStyle));
-			// if (lineStyle.getValue() == BorderLineStyle.NONE.getValue())
-			// pdfCell.setBorderColorRight(Color.GRAY);
-			// else
-			// pdfCell.setBorderColorRight(convertColour(
-			// format.getBorderColour(jxl.format.Border.RIGHT),
-			// Color.GRAY));
-			
+			getCellStyle(format, cell.getType(), mergeRow, noEmptyBorder)
+					.applyTo(pdfCell);
+		}
+	}
+	
+	/**
+	 * 取得单元格样式，同一种组合只转换一次
+	 * 
+	 * @param format
+	 *            - jxl 单元格格式
+	 * @param cellType
+	 *            - 单元格类型
+	 * @param mergeRow
+	 *            - 是否合并行
+	 * @param noEmptyBorder
+	 *            - border 是 NONE 时是否仍然显示细边框
+	 * @return
+	 */
+	protected PdfCellStyle getCellStyle(jxl.format.CellFormat format,
+			CellType cellType, boolean mergeRow, boolean noEmptyBorder) {
+		int variant = CellStyleCache.variant(cellType, mergeRow, noEmptyBorder);
+		PdfCellStyle style = styleCache.get(format, variant);
+		if (style == null) {
+			style = createCellStyle(format, cellType, mergeRow, noEmptyBorder);
+			styleCache.put(format, variant, style);
 		}
+		return style;
+	}
+	
+	/**
+	 * 返回单元格样式缓存，可以查看命中次数
+	 * 
+	 * @return
+	 */
+	public CellStyleCache getStyleCache() {
+		return styleCache;
+	}
+	
+	/**
+	 * 把 jxl 单元格格式转换成样式
+	 * 
+	 * @param format
+	 *            - jxl 单元格格式
+	 * @param cellType
+	 *            - 单元格类型
+	 * @param mergeRow
+	 *            - 是否合并行
+	 * @param noEmptyBorder
+	 *            - border 是 NONE 时是否仍然显示细边框
+	 * @return
+	 */
+	protected PdfCellStyle createCellStyle(jxl.format.CellFormat format,
+			CellType cellType, boolean mergeRow, boolean noEmptyBorder) {
+		// 水平对齐
+		int align = convertAlignment(format.getAlignment(), cellType);
+		// 垂直对齐
+		int valign = convertVerticalAlignment(format.getVerticalAlignment());
+		// 背景
+		// if (format.getBackgroundColour() != null) {
+		// pdfCell.setBackgroundColor(convertColour(
+		// format.getBackgroundColour(), Color.WHITE));
+		// }
 		
+		// 处理 border
+		BorderLineStyle lineStyle = null;
+		float bottom = 0.0f;
+		BaseColor bottomColor = null;
+		if (!mergeRow) {
+			lineStyle = format.getBorderLine(jxl.format.Border.BOTTOM);
+			bottom = convertBorderStyle(lineStyle, noEmptyBorder);
+			if (lineStyle.getValue() == BorderLineStyle.NONE.getValue())
+				bottomColor = BaseColor.GRAY;
+		}
+		float top = convertBorderStyle(
+				format.getBorderLine(jxl.format.Border.TOP), noEmptyBorder);
+		float left = convertBorderStyle(
+				format.getBorderLine(jxl.format.Border.LEFT), noEmptyBorder);
+		float right = convertBorderStyle(
+				format.getBorderLine(jxl.format.Border.RIGHT), noEmptyBorder);
+				
+		return new PdfCellStyle(align, valign, top, bottom, left, right,
+				bottomColor);
 	}
 	
 	/**
@@ -753,6 +1694,94 @@ public class Excel2PdfTransformer {
 		// return Colour.DEFAULT_BACKGROUND;
 	}
 	
+	/**
+	 * 取得转换后的字体，同一个 jxl 字体只转换一次
+	 * 
+	 * @param f
+	 *            - 字体
+	 * @return
+	 */
+	protected Font getFont(jxl.format.Font f) {
+		Font font = fontCache.get(f);
+		if (font == null) {
+			font = convertFont(f);
+			fontCache.put(f, font);
+		}
+		return font;
+	}
+	
+	public ConversionCache getResultCache() {
+		return resultCache;
+	}
+	
+	/**
+	 * 设置转换结果缓存，多个 transformer 可以共用一个缓存
+	 * 
+	 * @param resultCache
+	 *            - null 表示不使用
+	 */
+	public void setResultCache(ConversionCache resultCache) {
+		this.resultCache = resultCache;
+	}
+	
+	public ConversionCache getFragmentCache() {
+		return fragmentCache;
+	}
+	
+	/**
+	 * 设置工作表 PDF 片段的缓存。设置后每个工作表单独生成 PDF 再合并，内容和
+	 * 设置都没有变化的工作表直接使用上一次生成的片段，页码和总页数在合并时重新
+	 * 输出。子类改变了转换方式时，不要和其他转换共用这个缓存
+	 * 
+	 * @param fragmentCache
+	 *            - null 表示不使用
+	 */
+	public void setFragmentCache(ConversionCache fragmentCache) {
+		this.fragmentCache = fragmentCache;
+	}
+	
+	public ConversionTracer getConversionTracer() {
+		return conversionTracer;
+	}
+	
+	/**
+	 * 设置转换事件的接收者：打开文件、每个工作表、report header、page header、
+	 * 每次 document.add、页开始和页结束，带有时间和数量
+	 * 
+	 * @param conversionTracer
+	 *            - null 或 ConversionTracer.NONE 表示不产生事件
+	 * @see TraceEventWriter
+	 */
+	public void setConversionTracer(ConversionTracer conversionTracer) {
+		this.conversionTracer = (conversionTracer == null)
+				? ConversionTracer.NONE : conversionTracer;
+	}
+	
+	public ConversionListener getConversionListener() {
+		return conversionListener;
+	}
+	
+	/**
+	 * 设置转换统计的接收者：每个工作表和整个文档各个阶段的时间、行数、
+	 * 单元格数、合并单元格数、页数、输出字节数和分配的字节数
+	 * 
+	 * @param conversionListener
+	 *            - null 或 ConversionListener.NONE 表示不收集统计
+	 */
+	public void setConversionListener(ConversionListener conversionListener) {
+		this.conversionListener = (conversionListener == null)
+				? ConversionListener.NONE : conversionListener;
+	}
+	
+	/**
+	 * 返回字体转换缓存，可以查看命中次数
+	 * 
+	 * @return
+	 */
+	public FontCache getFontCache() {
+		return fontCache;
+	}
+	
 	/**
 	 * 转换字体
 	 * 
@@ -822,9 +1851,12 @@ public class Excel2PdfTransformer {
 	 * 
 	 * @param style
 	 *            - jxl.format.BorderLineStyle
+	 * @param noEmptyBorder
+	 *            - border 是 NONE 时是否仍然显示细边框
 	 * @return
 	 */
-	protected float convertBorderStyle(BorderLineStyle style) {
+	protected float convertBorderStyle(BorderLineStyle style,
+			boolean noEmptyBorder) {
 		if (style == null)
 			return 0.0f;
 			
@@ -870,4 +1902,29 @@ public class Excel2PdfTransformer {
 		transformer.write(dest);
 	}
 	
+	/**
+	 * 计算写入字节数的输出流
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		/** 写入的字节数 */
+		private long count = 0;
+		
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+		
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+		
+		long getCount() {
+			return count;
+		}
+	}
 }
@@ -0,0 +1,224 @@
+package com.fl.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Excel 文件的内容来源：文件、byte[]、ByteBuffer、输入流或内存映射的文件
+ * 
+ * 内存中的数据直接读取，不复制，也不写临时文件。输入流在第一次使用时读入内存，
+ * 之后和 ByteBuffer 相同。数据在转换过程中不能被修改
+ */
+public final class ExcelSource {
+	/** 文件，不是文件时是 null */
+	private final File file;
+	/** 内存中的数据，文件来源时是 null */
+	private ByteBuffer buffer;
+	/** 还没读取的输入流 */
+	private InputStream input;
+	
+	private ExcelSource(File file, ByteBuffer buffer, InputStream input) {
+		this.file = file;
+		this.buffer = buffer;
+		this.input = input;
+	}
+	
+	/**
+	 * 从文件读取
+	 * 
+	 * @param file
+	 *            - Excel 文件
+	 * @return
+	 */
+	public static ExcelSource fromFile(File file) {
+		if (file == null)
+			throw new IllegalArgumentException("file");
+		return new ExcelSource(file, null, null);
+	}
+	
+	/**
+	 * 从 byte[] 读取，不复制数据
+	 * 
+	 * @param data
+	 *            - Excel 文件的内容
+	 * @return
+	 */
+	public static ExcelSource fromBytes(byte[] data) {
+		return fromBytes(data, 0, data.length);
+	}
+	
+	/**
+	 * 从 byte[] 的一部分读取，不复制数据
+	 * 
+	 * @param data
+	 *            - 数据
+	 * @param offset
+	 *            - 起始位置
+	 * @param length
+	 *            - 长度
+	 * @return
+	 */
+	public static ExcelSource fromBytes(byte[] data, int offset, int length) {
+		return new ExcelSource(null, ByteBuffer.wrap(data, offset, length)
+				.slice(), null);
+	}
+	
+	/**
+	 * 从 ByteBuffer 的 position 到 limit 读取，不复制数据，也不修改它的 position
+	 * 
+	 * @param buffer
+	 *            - Excel 文件的内容，可以是 direct 或内存映射的 buffer
+	 * @return
+	 */
+	public static ExcelSource fromByteBuffer(ByteBuffer buffer) {
+		return new ExcelSource(null, buffer.slice(), null);
+	}
+	
+	/**
+	 * 从输入流读取。流在第一次转换时全部读入内存并关闭
+	 * 
+	 * @param input
+	 *            - 输入流
+	 * @return
+	 */
+	public static ExcelSource fromStream(InputStream input) {
+		if (input == null)
+			throw new IllegalArgumentException("input");
+		return new ExcelSource(null, null, input);
+	}
+	
+	/**
+	 * 把整个文件映射到内存 (只读)。适合较大的本地文件，数据由操作系统按需读入
+	 * 
+	 * @param file
+	 *            - Excel 文件
+	 * @return
+	 * @throws IOException
+	 */
+	public static ExcelSource map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// 映射建立后，关闭文件不影响映射的内容
+			return new ExcelSource(file, channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, channel.size()), null);
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * 把文件的一部分映射到内存 (只读)
+	 * 
+	 * @param channel
+	 *            - 文件，映射后可以关闭
+	 * @param position
+	 *            - 起始位置
+	 * @param size
+	 *            - 长度
+	 * @return
+	 * @throws IOException
+	 */
+	public static ExcelSource map(FileChannel channel, long position,
+			long size) throws IOException {
+		return new ExcelSource(null, channel.map(
+				FileChannel.MapMode.READ_ONLY, position, size), null);
+	}
+	
+	/**
+	 * 文件来源返回文件，其他来源返回 null。内存映射整个文件时也返回这个文件
+	 * 
+	 * @return
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * 是否是内存中的数据
+	 * 
+	 * @return
+	 */
+	public synchronized boolean isInMemory() {
+		return buffer != null || input != null;
+	}
+	
+	/**
+	 * 取得内存中的数据，输入流这时读入内存
+	 * 
+	 * @return 数据的只读视图，文件来源返回 null
+	 * @throws IOException
+	 */
+	public synchronized ByteBuffer getBuffer() throws IOException {
+		if (input != null) {
+			ExposedOutputStream output = new ExposedOutputStream();
+			try {
+				byte[] b = new byte[8192];
+				int n;
+				while ((n = input.read(b)) >= 0)
+					output.write(b, 0, n);
+			} finally {
+				input.close();
+				input = null;
+			}
+			buffer = output.toBuffer();
+		}
+		return (buffer == null) ? null : buffer.asReadOnlyBuffer();
+	}
+	
+	/**
+	 * 打开输入流
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public InputStream openStream() throws IOException {
+		ByteBuffer data = getBuffer();
+		if (data != null)
+			return new ByteBufferInputStream(data);
+		return new FileInputStream(file);
+	}
+	
+	/**
+	 * 数据是否是 zip 格式 (.xlsx)
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean isZip() throws IOException {
+		InputStream stream = openStream();
+		try {
+			byte[] header = new byte[4];
+			int n = 0;
+			while (n < header.length) {
+				int count = stream.read(header, n, header.length - n);
+				if (count < 0)
+					return false;
+				n += count;
+			}
+			return header[0] == 'P' && header[1] == 'K' && header[2] == 3
+					&& header[3] == 4;
+		} finally {
+			stream.close();
+		}
+	}
+	
+	/**
+	 * 读入输入流时不再复制最后的数组
+	 */
+	private static class ExposedOutputStream extends ByteArrayOutputStream {
+		ExposedOutputStream() {
+			super(64 * 1024);
+		}
+		
+		ByteBuffer toBuffer() {
+			return ByteBuffer.wrap(buf, 0, count).slice();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package com.fl.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.itextpdf.text.Font;
+
+/**
+ * 字体转换缓存，jxl 字体转换成的 iText 字体
+ * 
+ * 一个 workbook 通常只有几十个不同的字体，但是有大量的单元格，转换结果按字体的
+ * 属性（名称、字号、粗细、斜体、下划线、颜色等）缓存起来，缓存的 iText 字体
+ * 不能被修改
+ * 
+ * 缓存可以被多个 workbook 的转换共用，key 是 {@link SimpleFont} 副本，不保留
+ * jxl 的 FontRecord，也不在其他线程调用它的方法
+ */
+public class FontCache {
+	/** 缓存：字体属性 = com.itextpdf.text.Font */
+	private final ConcurrentMap<SimpleFont, Font> fonts = new ConcurrentHashMap<SimpleFont, Font>(
+			64);
+	
+	/** 最大缓存个数，0 表示不限制 */
+	private volatile int maximumSize = 0;
+	
+	/** 命中次数 */
+	private final AtomicLong hits = new AtomicLong();
+	
+	/** 未命中次数 */
+	private final AtomicLong misses = new AtomicLong();
+	
+	/**
+	 * 取得缓存的字体
+	 * 
+	 * @param f
+	 *            - jxl 字体
+	 * @return 没有缓存时返回 null
+	 */
+	public Font get(jxl.format.Font f) {
+		Font font = fonts.get(SimpleFont.of(f));
+		if (font != null)
+			hits.incrementAndGet();
+		else
+			misses.incrementAndGet();
+		return font;
+	}
+	
+	/**
+	 * 缓存字体
+	 * 
+	 * @param f
+	 *            - jxl 字体
+	 * @param font
+	 *            - 转换后的字体
+	 */
+	public void put(jxl.format.Font f, Font font) {
+		evictIfFull();
+		fonts.putIfAbsent(SimpleFont.of(f), font);
+	}
+	
+	/**
+	 * 设置最大缓存的字体个数，超过时清空缓存。多个 workbook 共用缓存时，
+	 * 用来限制长时间运行的内存占用
+	 * 
+	 * @param maximumSize
+	 *            - 最大个数，0 表示不限制
+	 */
+	public void setMaximumSize(int maximumSize) {
+		this.maximumSize = maximumSize;
+	}
+	
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+	
+	/**
+	 * 清除缓存和计数
+	 */
+	public void clear() {
+		fonts.clear();
+		hits.set(0);
+		misses.set(0);
+	}
+	
+	/**
+	 * 缓存的字体个数
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return fonts.size();
+	}
+	
+	public long getHits() {
+		return hits.get();
+	}
+	
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	private void evictIfFull() {
+		int max = maximumSize;
+		if (max > 0 && fonts.size() >= max)
+			fonts.clear();
+	}
+}
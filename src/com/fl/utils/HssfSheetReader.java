@@ -0,0 +1,429 @@
+package com.fl.utils;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BlankRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.ColumnInfoRecord;
+import org.apache.poi.hssf.record.DefaultColWidthRecord;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.MergeCellsRecord;
+import org.apache.poi.hssf.record.MulBlankRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.RecordFactoryInputStream;
+import org.apache.poi.hssf.record.RowRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.poifs.filesystem.DocumentInputStream;
+import org.apache.poi.ss.usermodel.ErrorConstants;
+import org.apache.poi.ss.util.CellRangeAddress;
+
+import jxl.Cell;
+import jxl.CellType;
+
+/**
+ * 按记录流读取 .xls 文件的一个工作表
+ * 
+ * 创建时先扫描一遍工作表的记录，读取行数、列数、使用范围、列宽和合并单元格
+ * （MERGEDCELLS 位于单元格之后），不保存单元格。之后 getRow 按顺序读取记录，
+ * 只保留最后读取的一行。行号比上一次小时从头重新读取，转换时只有 header 的
+ * 几行会这样
+ */
+public class HssfSheetReader implements SheetReader {
+	/** 空行 */
+	private static final Cell[] EMPTY_ROW = new Cell[0];
+	/** 公式结果的类型，同 org.apache.poi.ss.usermodel.Cell */
+	private static final int RESULT_STRING = 1;
+	private static final int RESULT_BOOLEAN = 4;
+	private static final int RESULT_ERROR = 5;
+	
+	/** 所属的 workbook */
+	private final HssfWorkbookReader workbook;
+	/** 工作表名称 */
+	private final String name;
+	/** BOF 记录在 workbook 流中的位置 */
+	private final int offset;
+	/** 行数 */
+	private int rows = 0;
+	/** 最大列数 */
+	private int columns = 0;
+	/** 使用范围的行数 */
+	private int usedRows = 0;
+	/** 使用范围的列数 */
+	private int usedColumns = 0;
+	/** 默认列宽 */
+	private int defaultColumnWidth = 8 * 256;
+	/** 设置了宽度的列：{起始列, 结束列, 宽度} */
+	private final List<int[]> columnWidths = new ArrayList<int[]>();
+	/** 合并单元格 */
+	private MergedRegions mergedRegions = MergedRegions.EMPTY;
+	
+	/** 正在读取的流，null 表示还没开始或已关闭 */
+	private DocumentInputStream input = null;
+	/** 正在读取的记录 */
+	private RecordFactoryInputStream records = null;
+	/** 嵌套的 BOF 层数，图表等子流位于工作表中 */
+	private int depth = 0;
+	/** 已读取但还没返回的单元格 */
+	private final Deque<Cell> pending = new ArrayDeque<Cell>();
+	/** 结果是字符串的公式，值在下一个 STRING 记录中 */
+	private FormulaRecord stringFormula = null;
+	/** 是否已读完工作表的记录 */
+	private boolean exhausted = false;
+	/** 是否已读到工作表结尾 */
+	private boolean endOfData = false;
+	/** 上一次请求的行号 */
+	private int lastRequested = -1;
+	/** 最后读取的一行的行号 */
+	private int bufferedIndex = -1;
+	/** 最后读取的一行 */
+	private Cell[] bufferedRow = null;
+	
+	/**
+	 * Constructor，扫描工作表的结构
+	 * 
+	 * @param workbook
+	 *            - 所属的 workbook
+	 * @param name
+	 *            - 工作表名称
+	 * @param offset
+	 *            - BOF 记录在 workbook 流中的位置
+	 * @throws IOException
+	 */
+	HssfSheetReader(HssfWorkbookReader workbook, String name, int offset)
+			throws IOException {
+		this.workbook = workbook;
+		this.name = name;
+		this.offset = offset;
+		scan();
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public int getRows() {
+		return rows;
+	}
+	
+	public int getColumns() {
+		return columns;
+	}
+	
+	public int getUsedRows() {
+		return usedRows;
+	}
+	
+	public int getUsedColumns() {
+		return usedColumns;
+	}
+	
+	public Cell[] getRow(int row) {
+		try {
+			if (row < lastRequested)
+				restart();
+			lastRequested = row;
+			while (!endOfData && bufferedIndex < row)
+				readNextRow();
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot read sheet " + name, e);
+		}
+		return (bufferedIndex == row) ? bufferedRow : EMPTY_ROW;
+	}
+	
+	public int getColumnWidth(int column) {
+		for (int k = 0; k < columnWidths.size(); k++) {
+			int[] range = columnWidths.get(k);
+			if (column >= range[0] && column <= range[1])
+				return range[2];
+		}
+		return defaultColumnWidth;
+	}
+	
+	public MergedRegions getMergedRegions() {
+		return mergedRegions;
+	}
+	
+	/**
+	 * 关闭正在读取的流
+	 */
+	void close() {
+		if (input != null) {
+			input.close();
+			input = null;
+		}
+		records = null;
+	}
+	
+	// ------------------------------------------------ private
+	
+	/**
+	 * 扫描工作表：列宽、行数、列数、使用范围和合并单元格
+	 * 
+	 * @throws IOException
+	 */
+	private void scan() throws IOException {
+		DocumentInputStream scanInput = workbook.openStream(offset);
+		List<int[]> merges = new ArrayList<int[]>();
+		try {
+			RecordFactoryInputStream scanner = new RecordFactoryInputStream(
+					scanInput, false);
+			int level = 0;
+			Record record;
+			while ((record = scanner.nextRecord()) != null) {
+				if (record instanceof BOFRecord) {
+					level++;
+				} else if (record instanceof EOFRecord) {
+					if (--level == 0)
+						break;
+				} else if (level != 1) {
+					continue;
+				} else if (record instanceof RowRecord) {
+					// 和 jxl 相同，没有单元格的行也计入行数
+					int row = ((RowRecord) record).getRowNumber();
+					if (row + 1 > rows)
+						rows = row + 1;
+				} else if (record instanceof MulBlankRecord) {
+					MulBlankRecord blanks = (MulBlankRecord) record;
+					addCell(blanks.getRow(), blanks.getLastColumn());
+					// 空单元格有边框时才使用
+					for (int k = blanks.getNumColumns() - 1; k >= 0; k--) {
+						if (UsedRangeSheet.hasBorder(workbook
+								.getCellFormat(blanks.getXFAt(k)))) {
+							addUsed(blanks.getRow(), blanks.getFirstColumn()
+									+ k);
+							break;
+						}
+					}
+				} else if (record instanceof CellValueRecordInterface) {
+					CellValueRecordInterface cell = (CellValueRecordInterface) record;
+					addCell(cell.getRow(), cell.getColumn());
+					if (!(record instanceof BlankRecord)
+							|| UsedRangeSheet.hasBorder(workbook
+									.getCellFormat(cell.getXFIndex())))
+						addUsed(cell.getRow(), cell.getColumn());
+				} else if (record instanceof ColumnInfoRecord) {
+					ColumnInfoRecord info = (ColumnInfoRecord) record;
+					columnWidths.add(new int[] { info.getFirstColumn(),
+							info.getLastColumn(), info.getColumnWidth() });
+				} else if (record instanceof DefaultColWidthRecord) {
+					defaultColumnWidth = ((DefaultColWidthRecord) record)
+							.getColWidth() * 256;
+				} else if (record instanceof MergeCellsRecord) {
+					MergeCellsRecord merged = (MergeCellsRecord) record;
+					for (int k = 0; k < merged.getNumAreas(); k++) {
+						CellRangeAddress area = merged.getAreaAt(k);
+						merges.add(new int[] { area.getFirstRow(),
+								area.getFirstColumn(), area.getLastRow(),
+								area.getLastColumn() });
+					}
+				}
+			}
+		} finally {
+			scanInput.close();
+		}
+		for (int k = 0; k < merges.size(); k++) {
+			int[] area = merges.get(k);
+			addUsed(area[2], area[3]);
+		}
+		if (!merges.isEmpty())
+			mergedRegions = new MergedRegions(
+					merges.toArray(new int[merges.size()][]));
+	}
+	
+	private void addCell(int row, int column) {
+		if (row + 1 > rows)
+			rows = row + 1;
+		if (column + 1 > columns)
+			columns = column + 1;
+	}
+	
+	private void addUsed(int row, int column) {
+		if (row + 1 > usedRows)
+			usedRows = row + 1;
+		if (column + 1 > usedColumns)
+			usedColumns = column + 1;
+	}
+	
+	/**
+	 * 从头开始读取行
+	 */
+	private void restart() {
+		close();
+		pending.clear();
+		stringFormula = null;
+		depth = 0;
+		exhausted = false;
+		endOfData = false;
+		bufferedIndex = -1;
+		bufferedRow = null;
+	}
+	
+	/**
+	 * 读取下一行，读到工作表结尾时设置 endOfData
+	 * 
+	 * @throws IOException
+	 */
+	private void readNextRow() throws IOException {
+		Cell first = nextCell();
+		if (first == null) {
+			endOfData = true;
+			close();
+			return;
+		}
+		int row = first.getRow();
+		List<Cell> cells = new ArrayList<Cell>();
+		cells.add(first);
+		Cell cell;
+		while ((cell = nextCell()) != null) {
+			if (cell.getRow() != row) {
+				// 下一行的第一个单元格
+				pending.addFirst(cell);
+				break;
+			}
+			cells.add(cell);
+		}
+		bufferedIndex = row;
+		bufferedRow = SimpleCell.toRow(row, cells);
+	}
+	
+	/**
+	 * 读取下一个单元格
+	 * 
+	 * @return 工作表结尾返回 null
+	 * @throws IOException
+	 */
+	private Cell nextCell() throws IOException {
+		if (records == null && !exhausted) {
+			input = workbook.openStream(offset);
+			records = new RecordFactoryInputStream(input, false);
+		}
+		while (pending.isEmpty() && records != null) {
+			Record record = records.nextRecord();
+			if (record == null) {
+				flushStringFormula(null);
+				exhausted = true;
+				close();
+				break;
+			}
+			if (record instanceof BOFRecord) {
+				depth++;
+			} else if (record instanceof EOFRecord) {
+				if (--depth == 0) {
+					flushStringFormula(null);
+					exhausted = true;
+					close();
+				}
+			} else if (depth == 1) {
+				readRecord(record);
+			}
+		}
+		return pending.pollFirst();
+	}
+	
+	/**
+	 * 把单元格记录转换成单元格，放到 pending 中
+	 * 
+	 * @param record
+	 */
+	private void readRecord(Record record) {
+		if (record instanceof StringRecord) {
+			flushStringFormula(((StringRecord) record).getString());
+			return;
+		}
+		flushStringFormula(null);
+		
+		if (record instanceof LabelSSTRecord) {
+			LabelSSTRecord label = (LabelSSTRecord) record;
+			pending.addLast(new SimpleCell(label.getRow(), label.getColumn(),
+					CellType.LABEL, workbook.getSharedString(label
+							.getSSTIndex()), workbook.getCellFormat(label
+							.getXFIndex())));
+		} else if (record instanceof NumberRecord) {
+			NumberRecord number = (NumberRecord) record;
+			pending.addLast(SimpleCell.number(number.getRow(),
+					number.getColumn(), number.getValue(), false,
+					workbook.getCellFormat(number.getXFIndex()),
+					workbook.getDataFormatter()));
+		} else if (record instanceof BlankRecord) {
+			BlankRecord blank = (BlankRecord) record;
+			pending.addLast(new SimpleCell(blank.getRow(), blank.getColumn(),
+					CellType.EMPTY, "", workbook.getCellFormat(blank
+							.getXFIndex())));
+		} else if (record instanceof MulBlankRecord) {
+			MulBlankRecord blanks = (MulBlankRecord) record;
+			for (int k = 0; k < blanks.getNumColumns(); k++) {
+				pending.addLast(new SimpleCell(blanks.getRow(), blanks
+						.getFirstColumn() + k, CellType.EMPTY, "", workbook
+						.getCellFormat(blanks.getXFAt(k))));
+			}
+		} else if (record instanceof FormulaRecord) {
+			FormulaRecord formula = (FormulaRecord) record;
+			SimpleCellFormat format = workbook.getCellFormat(formula
+					.getXFIndex());
+			if (formula.hasCachedResultString()) {
+				stringFormula = formula;
+			} else if (formula.getCachedResultType() == RESULT_BOOLEAN) {
+				pending.addLast(new SimpleCell(formula.getRow(), formula
+						.getColumn(), CellType.BOOLEAN_FORMULA, String
+						.valueOf(formula.getCachedBooleanValue()), format));
+			} else if (formula.getCachedResultType() == RESULT_ERROR) {
+				pending.addLast(new SimpleCell(formula.getRow(), formula
+						.getColumn(), CellType.FORMULA_ERROR, ErrorConstants
+						.getText(formula.getCachedErrorValue()), format));
+			} else if (formula.getCachedResultType() == RESULT_STRING) {
+				// 空字符串，没有 STRING 记录
+				pending.addLast(new SimpleCell(formula.getRow(), formula
+						.getColumn(), CellType.STRING_FORMULA, "", format));
+			} else {
+				pending.addLast(SimpleCell.number(formula.getRow(),
+						formula.getColumn(), formula.getValue(), true, format,
+						workbook.getDataFormatter()));
+			}
+		} else if (record instanceof BoolErrRecord) {
+			BoolErrRecord value = (BoolErrRecord) record;
+			SimpleCellFormat format = workbook.getCellFormat(value
+					.getXFIndex());
+			if (value.isBoolean()) {
+				// 和 jxl 相同，输出 true/false
+				pending.addLast(new SimpleCell(value.getRow(), value
+						.getColumn(), CellType.BOOLEAN, String.valueOf(value
+						.getBooleanValue()), format));
+			} else {
+				pending.addLast(new SimpleCell(value.getRow(), value
+						.getColumn(), CellType.ERROR, ErrorConstants
+						.getText(value.getErrorValue()), format));
+			}
+		} else if (record instanceof LabelRecord) {
+			LabelRecord label = (LabelRecord) record;
+			pending.addLast(new SimpleCell(label.getRow(), label.getColumn(),
+					CellType.LABEL, label.getValue(), workbook
+							.getCellFormat(label.getXFIndex())));
+		}
+	}
+	
+	/**
+	 * 输出等待 STRING 记录的公式
+	 * 
+	 * @param value
+	 *            - 公式的结果，null 表示没有 STRING 记录
+	 */
+	private void flushStringFormula(String value) {
+		if (stringFormula == null)
+			return;
+		FormulaRecord formula = stringFormula;
+		stringFormula = null;
+		pending.addLast(new SimpleCell(formula.getRow(), formula.getColumn(),
+				CellType.STRING_FORMULA, value == null ? "" : value, workbook
+						.getCellFormat(formula.getXFIndex())));
+	}
+}
@@ -0,0 +1,356 @@
+package com.fl.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.DimensionsRecord;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.ExtendedFormatRecord;
+import org.apache.poi.hssf.record.FontRecord;
+import org.apache.poi.hssf.record.FormatRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.RecordFactoryInputStream;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.poifs.filesystem.DocumentInputStream;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.util.StringUtil;
+
+import jxl.format.Alignment;
+import jxl.format.BoldStyle;
+import jxl.format.BorderLineStyle;
+import jxl.format.UnderlineStyle;
+import jxl.format.VerticalAlignment;
+
+/**
+ * 通过 POI 的 HSSF 记录流读取 .xls 文件
+ * 
+ * 和 jxl 不同，打开时只读取 workbook 的全局记录（字体、格式、XF、共享字符串和
+ * 工作表列表），工作表的记录在转换时按顺序读取，不建立整个文件的对象。文件通过
+ * NPOIFSFileSystem 按块读取，不会整个读入内存
+ * 
+ * @see HssfSheetReader
+ */
+public class HssfWorkbookReader implements WorkbookReader {
+	/** workbook 流的名称 */
+	private static final String[] WORKBOOK_NAMES = { "Workbook", "WORKBOOK" };
+	
+	/** OLE2 文件 */
+	private final NPOIFSFileSystem fs;
+	/** workbook 流的名称 */
+	private String streamName;
+	/** 工作表名称 */
+	private final List<String> sheetNames = new ArrayList<String>();
+	/** 工作表 BOF 记录在流中的位置 */
+	private final List<Integer> sheetOffsets = new ArrayList<Integer>();
+	/** 共享字符串 */
+	private SSTRecord sst = null;
+	/** 单元格格式，按 XF 记录的顺序 */
+	private final List<SimpleCellFormat> cellFormats = new ArrayList<SimpleCellFormat>();
+	/** 数字格式化，不是线程安全的 */
+	private final DataFormatter dataFormatter = new DataFormatter();
+	/** 最后读取的工作表 */
+	private HssfSheetReader currentSheet = null;
+	
+	/**
+	 * 打开 .xls 文件，读取 workbook 的全局记录
+	 * 
+	 * @param file
+	 *            - .xls 文件
+	 * @throws IOException
+	 */
+	public HssfWorkbookReader(File file) throws IOException {
+		this(ExcelSource.fromFile(file));
+	}
+	
+	/**
+	 * 打开 .xls 文件。文件来源按块读取；内存中的数据交给 NPOIFSFileSystem，
+	 * 它会把数据复制一次
+	 * 
+	 * @param source
+	 *            - .xls 文件的内容
+	 * @throws IOException
+	 */
+	public HssfWorkbookReader(ExcelSource source) throws IOException {
+		fs = openFileSystem(source);
+		boolean done = false;
+		try {
+			streamName = findWorkbookStream(fs);
+			readGlobals();
+			done = true;
+		} finally {
+			if (!done)
+				fs.close();
+		}
+	}
+	
+	public int getNumberOfSheets() {
+		return sheetOffsets.size();
+	}
+	
+	public String getSheetName(int index) {
+		return sheetNames.get(index);
+	}
+	
+	public SheetReader getSheet(int index) throws Exception {
+		if (currentSheet != null)
+			currentSheet.close();
+		currentSheet = new HssfSheetReader(this, sheetNames.get(index),
+				sheetOffsets.get(index).intValue());
+		return currentSheet;
+	}
+	
+	public void close() {
+		if (currentSheet != null)
+			currentSheet.close();
+		currentSheet = null;
+		try {
+			fs.close();
+		} catch (IOException e) {
+		}
+	}
+	
+	// ------------------------------------------------ package
+	
+	/**
+	 * 打开 workbook 流，并移动到指定位置
+	 * 
+	 * @param offset
+	 *            - 位置
+	 * @return
+	 * @throws IOException
+	 */
+	DocumentInputStream openStream(int offset) throws IOException {
+		DocumentInputStream input = fs.createDocumentInputStream(streamName);
+		skip(input, offset);
+		return input;
+	}
+	
+	/**
+	 * 只读取工作表名称和各个工作表 DIMENSIONS 记录中的行数、列数，不解析
+	 * 共享字符串、格式和单元格。jxl 读取的文件也是 .xls，估计内存时都用这个
+	 * 方法
+	 * 
+	 * @param source
+	 *            - .xls 文件的内容
+	 * @param names
+	 *            - 返回工作表名称
+	 * @param dimensions
+	 *            - 返回各个工作表的 {行数, 列数}，没有 DIMENSIONS 记录时是
+	 *            {0, 0}
+	 * @throws IOException
+	 */
+	static void readDimensions(ExcelSource source, List<String> names,
+			List<int[]> dimensions) throws IOException {
+		NPOIFSFileSystem fs = openFileSystem(source);
+		try {
+			String streamName = findWorkbookStream(fs);
+			List<Integer> offsets = new ArrayList<Integer>();
+			DocumentInputStream input = fs.createDocumentInputStream(streamName);
+			try {
+				// 全局记录到第一个 EOF 为止，只读取 BOUNDSHEET
+				while (input.available() >= 4) {
+					int sid = input.readUShort();
+					int length = input.readUShort();
+					if (sid == EOFRecord.sid)
+						break;
+					if (sid == BoundSheetRecord.sid) {
+						offsets.add(Integer.valueOf(input.readInt()));
+						// 可见性和类型
+						input.readUShort();
+						int chars = input.readUByte();
+						boolean unicode = (input.readUByte() & 1) != 0;
+						names.add(unicode ? StringUtil.readUnicodeLE(input,
+								chars) : StringUtil.readCompressedUnicode(input,
+								chars));
+						length -= 8 + (unicode ? chars * 2 : chars);
+					}
+					skip(input, length);
+				}
+			} finally {
+				input.close();
+			}
+			
+			for (int k = 0; k < offsets.size(); k++) {
+				int[] dimension = { 0, 0 };
+				input = fs.createDocumentInputStream(streamName);
+				try {
+					skip(input, offsets.get(k).intValue());
+					// DIMENSIONS 位于单元格之前
+					while (input.available() >= 4) {
+						int sid = input.readUShort();
+						int length = input.readUShort();
+						if (sid == EOFRecord.sid)
+							break;
+						if (sid == DimensionsRecord.sid) {
+							input.readInt();
+							// 最后一行和最后一列加 1
+							int rows = input.readInt();
+							input.readUShort();
+							int columns = input.readUShort();
+							dimension = new int[] { Math.max(rows, 0), columns };
+							break;
+						}
+						skip(input, length);
+					}
+				} finally {
+					input.close();
+				}
+				dimensions.add(dimension);
+			}
+		} finally {
+			fs.close();
+		}
+	}
+	
+	/**
+	 * 取得共享字符串
+	 * 
+	 * @param index
+	 *            - 编号
+	 * @return
+	 */
+	String getSharedString(int index) {
+		if (sst == null || index < 0 || index >= sst.getNumUniqueStrings())
+			return "";
+		return sst.getString(index).getString();
+	}
+	
+	/**
+	 * 取得单元格格式
+	 * 
+	 * @param index
+	 *            - XF 编号
+	 * @return
+	 */
+	SimpleCellFormat getCellFormat(int index) {
+		return (index >= 0 && index < cellFormats.size()) ? cellFormats
+				.get(index) : null;
+	}
+	
+	DataFormatter getDataFormatter() {
+		return dataFormatter;
+	}
+	
+	// ------------------------------------------------ private
+	
+	/**
+	 * 打开 OLE2 文件
+	 */
+	private static NPOIFSFileSystem openFileSystem(ExcelSource source)
+			throws IOException {
+		ByteBuffer buffer = source.getBuffer();
+		if (buffer == null)
+			return new NPOIFSFileSystem(source.getFile(), true);
+		return new NPOIFSFileSystem(new ByteBufferInputStream(buffer));
+	}
+	
+	/**
+	 * workbook 流的名称
+	 */
+	private static String findWorkbookStream(NPOIFSFileSystem fs)
+			throws IOException {
+		for (int k = 0; k < WORKBOOK_NAMES.length; k++) {
+			try {
+				fs.getRoot().getEntry(WORKBOOK_NAMES[k]);
+				return WORKBOOK_NAMES[k];
+			} catch (FileNotFoundException e) {
+			}
+		}
+		throw new IOException("no workbook stream, not a BIFF8 file");
+	}
+	
+	private static void skip(DocumentInputStream input, long count)
+			throws IOException {
+		long remaining = count;
+		while (remaining > 0) {
+			long skipped = input.skip(remaining);
+			if (skipped <= 0)
+				throw new IOException("cannot skip " + count + " bytes");
+			remaining -= skipped;
+		}
+	}
+	
+	/**
+	 * 读取 workbook 的全局记录，到第一个 EOF 为止
+	 * 
+	 * @throws IOException
+	 */
+	private void readGlobals() throws IOException {
+		DocumentInputStream input = openStream(0);
+		List<FontRecord> fonts = new ArrayList<FontRecord>();
+		List<ExtendedFormatRecord> xfs = new ArrayList<ExtendedFormatRecord>();
+		Map<Integer, String> numberFormats = new HashMap<Integer, String>();
+		try {
+			RecordFactoryInputStream records = new RecordFactoryInputStream(
+					input, false);
+			Record record;
+			while ((record = records.nextRecord()) != null) {
+				if (record instanceof EOFRecord) {
+					break;
+				} else if (record instanceof BOFRecord) {
+					if (((BOFRecord) record).getType() != BOFRecord.TYPE_WORKBOOK)
+						throw new IOException("not a workbook stream");
+				} else if (record instanceof FontRecord) {
+					fonts.add((FontRecord) record);
+				} else if (record instanceof FormatRecord) {
+					FormatRecord format = (FormatRecord) record;
+					numberFormats.put(Integer.valueOf(format.getIndexCode()),
+							format.getFormatString());
+				} else if (record instanceof ExtendedFormatRecord) {
+					xfs.add((ExtendedFormatRecord) record);
+				} else if (record instanceof SSTRecord) {
+					sst = (SSTRecord) record;
+				} else if (record instanceof BoundSheetRecord) {
+					BoundSheetRecord sheet = (BoundSheetRecord) record;
+					sheetNames.add(sheet.getSheetname());
+					sheetOffsets.add(Integer.valueOf(sheet.getPositionOfBof()));
+				}
+			}
+		} finally {
+			input.close();
+		}
+		
+		SimpleFont[] converted = new SimpleFont[fonts.size()];
+		for (int k = 0; k < converted.length; k++)
+			converted[k] = convertFont(fonts.get(k));
+		for (int k = 0; k < xfs.size(); k++) {
+			ExtendedFormatRecord xf = xfs.get(k);
+			// 字体编号 4 不存在，之后的编号要减 1
+			int fontIndex = xf.getFontIndex();
+			if (fontIndex > 4)
+				fontIndex--;
+			int formatIndex = xf.getFormatIndex();
+			String formatString = numberFormats.get(Integer
+					.valueOf(formatIndex));
+			if (formatString == null)
+				formatString = BuiltinFormats.getBuiltinFormat(formatIndex);
+			cellFormats.add(new SimpleCellFormat(
+					fontIndex < converted.length ? converted[fontIndex] : null,
+					Alignment.getAlignment(xf.getAlignment()),
+					VerticalAlignment.getAlignment(xf.getVerticalAlignment()),
+					xf.getWrapText(),
+					BorderLineStyle.getStyle(xf.getBorderTop()),
+					BorderLineStyle.getStyle(xf.getBorderBottom()),
+					BorderLineStyle.getStyle(xf.getBorderLeft()),
+					BorderLineStyle.getStyle(xf.getBorderRight()),
+					formatIndex, formatString));
+		}
+	}
+	
+	private static SimpleFont convertFont(FontRecord font) {
+		return new SimpleFont(font.getFontName(), font.getFontHeight() / 20,
+				font.getBoldWeight() >= BoldStyle.BOLD.getValue(),
+				font.isItalic(), font.isStruckout(),
+				UnderlineStyle.getStyle(font.getUnderline()));
+	}
+}
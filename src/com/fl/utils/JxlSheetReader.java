@@ -0,0 +1,65 @@
+package com.fl.utils;
+
+import jxl.Cell;
+import jxl.Range;
+import jxl.Sheet;
+
+/**
+ * 通过 jxl 读取工作表
+ * 
+ * jxl 的 Workbook 同时只保留一个 Sheet 的内容，调用 Workbook.getSheet 读取另一个
+ * Sheet 后，这个对象就不能再用了
+ */
+public class JxlSheetReader implements SheetReader {
+	/** jxl 工作表 */
+	private final Sheet sheet;
+	
+	/** 合并单元格，第一次使用时读取 */
+	private MergedRegions mergedRegions = null;
+	
+	public JxlSheetReader(Sheet sheet) {
+		this.sheet = sheet;
+	}
+	
+	public String getName() {
+		return sheet.getName();
+	}
+	
+	public int getRows() {
+		return sheet.getRows();
+	}
+	
+	public int getColumns() {
+		return sheet.getColumns();
+	}
+	
+	/**
+	 * jxl 的工作表在内存中，由 {@link UsedRangeSheet} 逐行查找
+	 */
+	public int getUsedRows() {
+		return -1;
+	}
+	
+	public int getUsedColumns() {
+		return -1;
+	}
+	
+	public Cell[] getRow(int row) {
+		return sheet.getRow(row);
+	}
+	
+	public int getColumnWidth(int column) {
+		return sheet.getColumnView(column).getSize();
+	}
+	
+	public MergedRegions getMergedRegions() {
+		if (mergedRegions == null) {
+			Range[] mergedCells = sheet.getMergedCells();
+			if (mergedCells == null || mergedCells.length == 0)
+				mergedRegions = MergedRegions.EMPTY;
+			else
+				mergedRegions = new MergedRegions(mergedCells);
+		}
+		return mergedRegions;
+	}
+}
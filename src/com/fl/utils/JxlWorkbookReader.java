@@ -0,0 +1,31 @@
+package com.fl.utils;
+
+import jxl.Workbook;
+
+/**
+ * 通过 jxl 读取 .xls 文件
+ */
+public class JxlWorkbookReader implements WorkbookReader {
+	/** jxl workbook */
+	private final Workbook workbook;
+	
+	public JxlWorkbookReader(Workbook workbook) {
+		this.workbook = workbook;
+	}
+	
+	public int getNumberOfSheets() {
+		return workbook.getNumberOfSheets();
+	}
+	
+	public String getSheetName(int index) {
+		return workbook.getSheetNames()[index];
+	}
+	
+	public SheetReader getSheet(int index) {
+		return new JxlSheetReader(workbook.getSheet(index));
+	}
+	
+	public void close() {
+		workbook.close();
+	}
+}
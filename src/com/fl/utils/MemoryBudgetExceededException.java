@@ -0,0 +1,40 @@
+package com.fl.utils;
+
+/**
+ * 估计的内存超过了预算，任务不运行
+ * 
+ * @see BatchTransformer#setJobMemoryBudget(long)
+ * @see BatchTransformer#setProcessMemoryBudget(long)
+ */
+public class MemoryBudgetExceededException extends Exception {
+	private static final long serialVersionUID = -2871306411958203245L;
+	
+	/** 内存估计 */
+	private final MemoryEstimate estimate;
+	
+	/** 预算的字节数 */
+	private final long budget;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param estimate
+	 *            - 内存估计
+	 * @param budget
+	 *            - 预算的字节数
+	 */
+	public MemoryBudgetExceededException(MemoryEstimate estimate, long budget) {
+		super("estimated " + estimate.getEstimatedBytes() / 1048576
+				+ "MB exceeds budget " + budget / 1048576 + "MB: " + estimate);
+		this.estimate = estimate;
+		this.budget = budget;
+	}
+	
+	public MemoryEstimate getEstimate() {
+		return estimate;
+	}
+	
+	public long getBudget() {
+		return budget;
+	}
+}
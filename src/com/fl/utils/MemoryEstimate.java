@@ -0,0 +1,129 @@
+package com.fl.utils;
+
+/**
+ * 一个 Excel 文件转换时需要的堆内存的估计，由 {@link MemoryEstimator} 计算
+ * 
+ * 分别估计整个工作表放在一个 PdfPTable 中的普通方式和按
+ * {@link Excel#setStreamingChunkSize(int)} 分批写入的流式方式
+ */
+public final class MemoryEstimate {
+	/** 读取方式 */
+	public static final String READER_JXL = "jxl";
+	public static final String READER_HSSF = "hssf";
+	public static final String READER_XLSX = "xlsx";
+	
+	/** 读取方式 */
+	private final String reader;
+	/** 要输出的工作表数 */
+	private final int sheets;
+	/** 要输出的行数，所有工作表的和 */
+	private final long rows;
+	/** 要输出的单元格数，所有工作表的和 */
+	private final long cells;
+	/** 最大的工作表的单元格数 */
+	private final long maxSheetCells;
+	/** Excel 文件的字节数 */
+	private final long sourceBytes;
+	/** 普通方式的峰值字节数 */
+	private final long inMemoryBytes;
+	/** 流式方式的峰值字节数 */
+	private final long streamingBytes;
+	/** 流式方式每批写入的行数 */
+	private final int streamingChunkSize;
+	/** 估计时 Excel 设置是否已是流式方式 */
+	private final boolean streaming;
+	
+	MemoryEstimate(String reader, int sheets, long rows, long cells,
+			long maxSheetCells, long sourceBytes, long inMemoryBytes,
+			long streamingBytes, int streamingChunkSize, boolean streaming) {
+		this.reader = reader;
+		this.sheets = sheets;
+		this.rows = rows;
+		this.cells = cells;
+		this.maxSheetCells = maxSheetCells;
+		this.sourceBytes = sourceBytes;
+		this.inMemoryBytes = inMemoryBytes;
+		this.streamingBytes = streamingBytes;
+		this.streamingChunkSize = streamingChunkSize;
+		this.streaming = streaming;
+	}
+	
+	/**
+	 * 读取方式
+	 * 
+	 * @return {@link #READER_JXL}、{@link #READER_HSSF} 或
+	 *         {@link #READER_XLSX}
+	 */
+	public String getReader() {
+		return reader;
+	}
+	
+	public int getSheets() {
+		return sheets;
+	}
+	
+	public long getRows() {
+		return rows;
+	}
+	
+	public long getCells() {
+		return cells;
+	}
+	
+	public long getMaxSheetCells() {
+		return maxSheetCells;
+	}
+	
+	public long getSourceBytes() {
+		return sourceBytes;
+	}
+	
+	/**
+	 * 普通方式 (不分批写入) 的峰值字节数
+	 * 
+	 * @return
+	 */
+	public long getInMemoryBytes() {
+		return inMemoryBytes;
+	}
+	
+	/**
+	 * 流式方式的峰值字节数
+	 * 
+	 * @return
+	 * @see #getStreamingChunkSize()
+	 */
+	public long getStreamingBytes() {
+		return streamingBytes;
+	}
+	
+	/**
+	 * 流式方式每批写入的行数，Excel 设置没有指定时使用估计器的默认值
+	 * 
+	 * @return
+	 */
+	public int getStreamingChunkSize() {
+		return streamingChunkSize;
+	}
+	
+	public boolean isStreaming() {
+		return streaming;
+	}
+	
+	/**
+	 * 按估计时的 Excel 设置转换的峰值字节数
+	 * 
+	 * @return
+	 */
+	public long getEstimatedBytes() {
+		return streaming ? streamingBytes : inMemoryBytes;
+	}
+	
+	public String toString() {
+		return "reader=" + reader + " sheets=" + sheets + " rows=" + rows
+				+ " cells=" + cells + " maxSheetCells=" + maxSheetCells
+				+ " sourceBytes=" + sourceBytes + " inMemoryMB="
+				+ inMemoryBytes / 1048576 + " streamingMB=" + streamingBytes
+				/ 1048576 + " chunk=" + streamingChunkSize;
+	}
+}
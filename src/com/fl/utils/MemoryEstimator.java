@@ -0,0 +1,269 @@
+package com.fl.utils;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fl.utils.Excel.RowRange;
+
+/**
+ * 转换前估计需要的堆内存
+ * 
+ * 估计时不打开 Excel 文件：只读取工作表列表和每个工作表记录的范围（.xls 的
+ * DIMENSIONS 记录，.xlsx 的 &lt;dimension ref&gt;），不读取共享字符串和单元格。
+ * 按记录的范围计算，不考虑 {@link Excel#isTrimUsedRange()}，也不统计合并单元格
+ * 和中文
+ * 
+ * 三种读取方式使用不同的系数：jxl 把整个文件读入内存，读取的工作表的每个
+ * 单元格都有对象；HSSF 和 .xlsx 按行读取，只保留共享字符串等全局内容和一行。
+ * 转换时普通方式中每个单元格的 PdfPCell、Paragraph 和 Chunk 占大部分内存，
+ * 流式方式只保留一批行。结果是近似值，用于准入控制，不是上限
+ * 
+ * @see BatchTransformer#setMemoryEstimator(MemoryEstimator)
+ */
+public class MemoryEstimator {
+	/** 默认的固定开销：iText、字体和 JVM 的基本占用 */
+	public static final long DEFAULT_BASE_BYTES = 10L * 1024 * 1024;
+	/** 默认的 jxl 解析后每个单元格的字节数 */
+	public static final int DEFAULT_MODEL_CELL_BYTES = 130;
+	/** 默认的 PDF 表格中每个单元格的字节数 */
+	public static final int DEFAULT_TABLE_CELL_BYTES = 650;
+	/** 默认的并行处理时工作表副本中每个单元格的字节数 */
+	public static final int DEFAULT_SNAPSHOT_CELL_BYTES = 120;
+	/** 默认的 jxl 读取时每个文件字节占用的堆字节数 */
+	public static final double DEFAULT_JXL_SOURCE_RATIO = 1.0;
+	/** 默认的 HSSF 读取时每个文件字节占用的堆字节数 */
+	public static final double DEFAULT_HSSF_SOURCE_RATIO = 1.0;
+	/** 默认的 .xlsx 读取时每个文件字节占用的堆字节数 */
+	public static final double DEFAULT_XLSX_SOURCE_RATIO = 1.0;
+	/** 默认的流式方式每批写入的行数 */
+	public static final int DEFAULT_STREAMING_CHUNK_SIZE = 100;
+	
+	/** 固定开销 */
+	private long baseBytes = DEFAULT_BASE_BYTES;
+	/** jxl 解析后每个单元格的字节数 */
+	private int modelCellBytes = DEFAULT_MODEL_CELL_BYTES;
+	/** PDF 表格中每个单元格的字节数 */
+	private int tableCellBytes = DEFAULT_TABLE_CELL_BYTES;
+	/** 并行处理时工作表副本中每个单元格的字节数 */
+	private int snapshotCellBytes = DEFAULT_SNAPSHOT_CELL_BYTES;
+	/** 各种读取方式每个文件字节占用的堆字节数 */
+	private double jxlSourceRatio = DEFAULT_JXL_SOURCE_RATIO;
+	private double hssfSourceRatio = DEFAULT_HSSF_SOURCE_RATIO;
+	private double xlsxSourceRatio = DEFAULT_XLSX_SOURCE_RATIO;
+	/** Excel 设置没有指定时，流式方式每批写入的行数 */
+	private int streamingChunkSize = DEFAULT_STREAMING_CHUNK_SIZE;
+	
+	public MemoryEstimator() {
+	}
+	
+	/**
+	 * 估计转换一个 Excel 文件需要的堆内存，按 Excel 设置中选择的工作表和行
+	 * 
+	 * @param xls
+	 *            - Excel 设置
+	 * @return
+	 * @throws Exception
+	 *             - 读取 Excel 文件出错
+	 */
+	public MemoryEstimate estimate(Excel xls) throws Exception {
+		ExcelSource source = xls.getSource();
+		if (source == null)
+			throw new IllegalArgumentException("no excel file or source");
+		// 和 Excel2PdfTransformer#openWorkbook 相同的选择
+		String reader;
+		double sourceRatio;
+		// jxl 读取过的工作表一直保留到关闭 workbook
+		boolean resident;
+		List<String> names = new ArrayList<String>();
+		List<int[]> dimensions = new ArrayList<int[]>();
+		if (source.isZip()) {
+			reader = MemoryEstimate.READER_XLSX;
+			sourceRatio = xlsxSourceRatio;
+			resident = false;
+			XlsxWorkbookReader.readDimensions(source, names, dimensions);
+		} else {
+			boolean hssf = xls.getXlsReader() == Excel.XLS_READER_HSSF;
+			reader = hssf ? MemoryEstimate.READER_HSSF
+					: MemoryEstimate.READER_JXL;
+			sourceRatio = hssf ? hssfSourceRatio : jxlSourceRatio;
+			resident = !hssf;
+			HssfWorkbookReader.readDimensions(source, names, dimensions);
+		}
+		
+		int chunkSize = xls.isStreaming() ? xls.getStreamingChunkSize()
+				: streamingChunkSize;
+		// 并行处理时同时转换的工作表，每个都有一份副本和表格
+		boolean parallel = xls.isParallelSheets();
+		int parallelism = parallel ? xls.getSheetParallelism() : 1;
+		long[] inMemory = new long[parallelism];
+		long[] streaming = new long[parallelism];
+		
+		int sheets = 0;
+		long rows = 0;
+		long cells = 0;
+		long maxSheetCells = 0;
+		long modelBytes = 0;
+		for (int sheetIndex = 0; sheetIndex < names.size(); sheetIndex++) {
+			if (!xls.isSheetSelected(sheetIndex, names.get(sheetIndex)))
+				continue;
+			int[] dimension = dimensions.get(sheetIndex);
+			int columns = dimension[1];
+			int first = 0;
+			int last = dimension[0] - 1;
+			RowRange range = xls.getRowRange(sheetIndex);
+			if (range != null) {
+				first = Math.max(first, range.getStartRow());
+				last = Math.min(last, range.getEndRow());
+			}
+			if (first > last)
+				continue;
+			int sheetRows = last - first + 1;
+			long sheetCells = (long) sheetRows * columns;
+			
+			if (resident)
+				modelBytes += (long) dimension[0] * columns * modelCellBytes;
+			long copy = parallel ? sheetCells * snapshotCellBytes : 0;
+			insert(inMemory, copy + sheetCells * tableCellBytes);
+			insert(streaming, copy + (long) Math.min(sheetRows, chunkSize)
+					* columns * tableCellBytes);
+			
+			sheets++;
+			rows += sheetRows;
+			cells += sheetCells;
+			maxSheetCells = Math.max(maxSheetCells, sheetCells);
+		}
+		
+		long sourceBytes = getSourceBytes(source);
+		long fixed = baseBytes + Math.round(sourceBytes * sourceRatio)
+				+ modelBytes;
+		return new MemoryEstimate(reader, sheets, rows, cells, maxSheetCells,
+				sourceBytes, fixed + sum(inMemory), fixed + sum(streaming),
+				chunkSize, xls.isStreaming());
+	}
+	
+	/**
+	 * 保留最大的几个值，数组按从大到小排列
+	 */
+	private static void insert(long[] largest, long value) {
+		for (int i = 0; i < largest.length; i++) {
+			if (value > largest[i]) {
+				long t = largest[i];
+				largest[i] = value;
+				value = t;
+			}
+		}
+	}
+	
+	private static long sum(long[] values) {
+		long sum = 0;
+		for (int i = 0; i < values.length; i++)
+			sum += values[i];
+		return sum;
+	}
+	
+	/**
+	 * Excel 文件的字节数
+	 */
+	private static long getSourceBytes(ExcelSource source) throws Exception {
+		ByteBuffer buffer = source.getBuffer();
+		if (buffer != null)
+			return buffer.remaining();
+		File file = source.getFile();
+		return (file == null) ? 0 : file.length();
+	}
+	
+	// -------------------------------------------- getter/setter
+	public long getBaseBytes() {
+		return baseBytes;
+	}
+	
+	public void setBaseBytes(long baseBytes) {
+		if (baseBytes < 0)
+			throw new IllegalArgumentException("baseBytes");
+		this.baseBytes = baseBytes;
+	}
+	
+	public int getModelCellBytes() {
+		return modelCellBytes;
+	}
+	
+	/**
+	 * 设置 jxl 解析后每个单元格的字节数，HSSF 和 .xlsx 不使用
+	 * 
+	 * @param modelCellBytes
+	 */
+	public void setModelCellBytes(int modelCellBytes) {
+		if (modelCellBytes < 0)
+			throw new IllegalArgumentException("modelCellBytes");
+		this.modelCellBytes = modelCellBytes;
+	}
+	
+	public int getTableCellBytes() {
+		return tableCellBytes;
+	}
+	
+	public void setTableCellBytes(int tableCellBytes) {
+		if (tableCellBytes < 0)
+			throw new IllegalArgumentException("tableCellBytes");
+		this.tableCellBytes = tableCellBytes;
+	}
+	
+	public int getSnapshotCellBytes() {
+		return snapshotCellBytes;
+	}
+	
+	public void setSnapshotCellBytes(int snapshotCellBytes) {
+		if (snapshotCellBytes < 0)
+			throw new IllegalArgumentException("snapshotCellBytes");
+		this.snapshotCellBytes = snapshotCellBytes;
+	}
+	
+	public double getJxlSourceRatio() {
+		return jxlSourceRatio;
+	}
+	
+	public void setJxlSourceRatio(double jxlSourceRatio) {
+		if (jxlSourceRatio < 0)
+			throw new IllegalArgumentException("jxlSourceRatio");
+		this.jxlSourceRatio = jxlSourceRatio;
+	}
+	
+	public double getHssfSourceRatio() {
+		return hssfSourceRatio;
+	}
+	
+	public void setHssfSourceRatio(double hssfSourceRatio) {
+		if (hssfSourceRatio < 0)
+			throw new IllegalArgumentException("hssfSourceRatio");
+		this.hssfSourceRatio = hssfSourceRatio;
+	}
+	
+	public double getXlsxSourceRatio() {
+		return xlsxSourceRatio;
+	}
+	
+	public void setXlsxSourceRatio(double xlsxSourceRatio) {
+		if (xlsxSourceRatio < 0)
+			throw new IllegalArgumentException("xlsxSourceRatio");
+		this.xlsxSourceRatio = xlsxSourceRatio;
+	}
+	
+	public int getStreamingChunkSize() {
+		return streamingChunkSize;
+	}
+	
+	/**
+	 * 设置 Excel 设置没有指定时，流式方式每批写入的行数。准入控制把任务改为
+	 * 流式方式时也使用这个值
+	 * 
+	 * @param streamingChunkSize
+	 *            - 大于 0
+	 */
+	public void setStreamingChunkSize(int streamingChunkSize) {
+		if (streamingChunkSize < 1)
+			throw new IllegalArgumentException("streamingChunkSize");
+		this.streamingChunkSize = streamingChunkSize;
+	}
+}
@@ -0,0 +1,228 @@
+package com.fl.utils;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.itextpdf.text.pdf.PdfPCell;
+
+import jxl.Cell;
+import jxl.Range;
+
+/**
+ * 工作表的合并单元格索引
+ * 
+ * 合并区域按起始行排序，只保存四个坐标。处理行时用 {@link Cursor} 顺序扫描，
+ * 内存占用只与合并区域的个数有关，与区域覆盖的单元格个数无关
+ */
+public final class MergedRegions {
+	
+	/** 没有合并区域的工作表共用的空索引 */
+	public static final MergedRegions EMPTY = new MergedRegions(new int[0][]);
+	
+	/** 起始行，已排序 */
+	private final int[] firstRows;
+	/** 结束行 */
+	private final int[] lastRows;
+	/** 起始列 */
+	private final int[] firstColumns;
+	/** 结束列 */
+	private final int[] lastColumns;
+	/** 合并区域覆盖的最大列数 */
+	private final int columns;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param ranges
+	 *            - jxl 的合并单元格，可以是 null
+	 */
+	public MergedRegions(Range[] ranges) {
+		this(toRegions(ranges));
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param regions
+	 *            - 合并区域，每个是 {起始行, 起始列, 结束行, 结束列}，可以是 null
+	 */
+	public MergedRegions(int[][] regions) {
+		int[][] sorted = (regions == null) ? new int[0][] : regions.clone();
+		Arrays.sort(sorted, new Comparator<int[]>() {
+			public int compare(int[] a, int[] b) {
+				return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+			}
+		});
+		
+		int n = sorted.length;
+		firstRows = new int[n];
+		lastRows = new int[n];
+		firstColumns = new int[n];
+		lastColumns = new int[n];
+		int maxColumns = 0;
+		for (int i = 0; i < n; i++) {
+			firstRows[i] = sorted[i][0];
+			firstColumns[i] = sorted[i][1];
+			lastRows[i] = sorted[i][2];
+			lastColumns[i] = sorted[i][3];
+			if (lastColumns[i] + 1 > maxColumns)
+				maxColumns = lastColumns[i] + 1;
+		}
+		columns = maxColumns;
+	}
+	
+	private static int[][] toRegions(Range[] ranges) {
+		if (ranges == null)
+			return null;
+		int[][] regions = new int[ranges.length][];
+		for (int i = 0; i < ranges.length; i++) {
+			Cell topLeft = ranges[i].getTopLeft();
+			Cell bottomRight = ranges[i].getBottomRight();
+			regions[i] = new int[] { topLeft.getRow(), topLeft.getColumn(),
+					bottomRight.getRow(), bottomRight.getColumn() };
+		}
+		return regions;
+	}
+	
+	/**
+	 * 合并区域的个数
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return firstRows.length;
+	}
+	
+	public int getFirstRow(int region) {
+		return firstRows[region];
+	}
+	
+	public int getLastRow(int region) {
+		return lastRows[region];
+	}
+	
+	public int getFirstColumn(int region) {
+		return firstColumns[region];
+	}
+	
+	public int getLastColumn(int region) {
+		return lastColumns[region];
+	}
+	
+	/**
+	 * 创建一个新的扫描游标，每生成一个 table 使用一个游标
+	 * 
+	 * @return
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+	
+	/**
+	 * 按行顺序扫描合并区域，记录当前行每列所属的区域，以及每个区域已输出的 cell
+	 */
+	public final class Cursor {
+		/** 当前行每列所属的合并区域，-1 表示不属于合并区域 */
+		private final int[] regionByColumn;
+		/** 当前行有效的合并区域 */
+		private final int[] active;
+		/** 有效区域的个数 */
+		private int activeCount = 0;
+		/** 每个区域第一次输出的 cell，null 表示还没处理 */
+		private final PdfPCell[] heads;
+		/** 下一个要进入扫描范围的区域 */
+		private int next = 0;
+		/** 当前行 */
+		private int row = -1;
+		
+		Cursor() {
+			regionByColumn = new int[columns];
+			Arrays.fill(regionByColumn, -1);
+			active = new int[firstRows.length];
+			heads = new PdfPCell[firstRows.length];
+		}
+		
+		public MergedRegions getRegions() {
+			return MergedRegions.this;
+		}
+		
+		/**
+		 * 移动到指定行。向后移动时重新开始扫描
+		 * 
+		 * @param newRow
+		 *            - 行号
+		 */
+		public void moveTo(int newRow) {
+			if (newRow == row)
+				return;
+			if (newRow < row) {
+				Arrays.fill(regionByColumn, -1);
+				Arrays.fill(heads, null);
+				activeCount = 0;
+				next = 0;
+			}
+			row = newRow;
+			
+			// 移除已结束的区域
+			int kept = 0;
+			for (int k = 0; k < activeCount; k++) {
+				int region = active[k];
+				if (lastRows[region] < row) {
+					mark(region, -1);
+					heads[region] = null;
+				} else {
+					active[kept++] = region;
+				}
+			}
+			activeCount = kept;
+			
+			// 加入从这一行开始的区域
+			while (next < firstRows.length && firstRows[next] <= row) {
+				int region = next++;
+				if (lastRows[region] >= row) {
+					mark(region, region);
+					active[activeCount++] = region;
+				}
+			}
+		}
+		
+		/**
+		 * 当前行指定列所属的合并区域
+		 * 
+		 * @param column
+		 *            - 列号
+		 * @return 区域编号，-1 表示不属于合并区域
+		 */
+		public int regionAt(int column) {
+			return column < regionByColumn.length ? regionByColumn[column] : -1;
+		}
+		
+		/**
+		 * 返回区域已输出的 cell
+		 * 
+		 * @param region
+		 *            - 区域编号
+		 * @return null 表示这个区域还没处理
+		 */
+		public PdfPCell getHead(int region) {
+			return heads[region];
+		}
+		
+		/**
+		 * 记录区域已输出的 cell，之后的行用它的样式
+		 * 
+		 * @param region
+		 *            - 区域编号
+		 * @param cell
+		 *            - PdfPCell
+		 */
+		public void setHead(int region, PdfPCell cell) {
+			heads[region] = cell;
+		}
+		
+		private void mark(int region, int value) {
+			for (int col = firstColumns[region]; col <= lastColumns[region]; col++)
+				regionByColumn[col] = value;
+		}
+	}
+}
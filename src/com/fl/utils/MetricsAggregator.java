@@ -0,0 +1,137 @@
+package com.fl.utils;
+
+/**
+ * 在内存中累计转换统计的 listener，多个转换可以共用
+ */
+public class MetricsAggregator implements ConversionListener {
+	/** 转换的文档数 */
+	private long documents = 0;
+	/** 转换的工作表数 */
+	private long sheets = 0;
+	/** 各个阶段的纳秒数 */
+	private final long[] nanos = new long[ConversionMetrics.PHASES];
+	/** 经过的纳秒数 */
+	private long elapsedNanos = 0;
+	/** 最长的一次转换的纳秒数 */
+	private long maxElapsedNanos = 0;
+	/** 行数 */
+	private long rows = 0;
+	/** 单元格数 */
+	private long cells = 0;
+	/** 合并单元格数 */
+	private long mergedRegions = 0;
+	/** 页数 */
+	private long pages = 0;
+	/** 输出的字节数 */
+	private long outputBytes = 0;
+	/** 分配的字节数，JVM 不支持时是 -1 */
+	private long allocatedBytes = 0;
+	
+	public synchronized void sheetConverted(ConversionMetrics metrics) {
+		sheets++;
+	}
+	
+	public synchronized void documentConverted(ConversionMetrics metrics) {
+		documents++;
+		for (int k = 0; k < nanos.length; k++)
+			nanos[k] += metrics.getNanos(k);
+		elapsedNanos += metrics.getElapsedNanos();
+		maxElapsedNanos = Math.max(maxElapsedNanos, metrics
+				.getElapsedNanos());
+		rows += metrics.getRows();
+		cells += metrics.getCells();
+		mergedRegions += metrics.getMergedRegions();
+		pages += metrics.getPages();
+		outputBytes += Math.max(0, metrics.getOutputBytes());
+		if (metrics.getAllocatedBytes() < 0 || allocatedBytes < 0)
+			allocatedBytes = -1;
+		else
+			allocatedBytes += metrics.getAllocatedBytes();
+	}
+	
+	/**
+	 * 清空统计
+	 */
+	public synchronized void reset() {
+		documents = 0;
+		sheets = 0;
+		for (int k = 0; k < nanos.length; k++)
+			nanos[k] = 0;
+		elapsedNanos = 0;
+		maxElapsedNanos = 0;
+		rows = 0;
+		cells = 0;
+		mergedRegions = 0;
+		pages = 0;
+		outputBytes = 0;
+		allocatedBytes = 0;
+	}
+	
+	public synchronized long getDocuments() {
+		return documents;
+	}
+	
+	public synchronized long getSheets() {
+		return sheets;
+	}
+	
+	/**
+	 * 返回一个阶段的纳秒数
+	 * 
+	 * @param phase
+	 *            - ConversionMetrics.OPEN ... ConversionMetrics.FINISH
+	 * @return
+	 */
+	public synchronized long getNanos(int phase) {
+		return nanos[phase];
+	}
+	
+	public synchronized long getElapsedNanos() {
+		return elapsedNanos;
+	}
+	
+	public synchronized long getMaxElapsedNanos() {
+		return maxElapsedNanos;
+	}
+	
+	public synchronized long getRows() {
+		return rows;
+	}
+	
+	public synchronized long getCells() {
+		return cells;
+	}
+	
+	public synchronized long getMergedRegions() {
+		return mergedRegions;
+	}
+	
+	public synchronized long getPages() {
+		return pages;
+	}
+	
+	public synchronized long getOutputBytes() {
+		return outputBytes;
+	}
+	
+	public synchronized long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+	
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("documents=").append(documents).append(" sheets=")
+				.append(sheets).append(" elapsed=")
+				.append(elapsedNanos / 1000000).append("ms max=")
+				.append(maxElapsedNanos / 1000000).append("ms");
+		for (int k = 0; k < nanos.length; k++)
+			sb.append(' ').append(ConversionMetrics.getPhaseName(k))
+					.append('=').append(nanos[k] / 1000000).append("ms");
+		sb.append(" rows=").append(rows).append(" cells=").append(cells)
+				.append(" mergedRegions=").append(mergedRegions)
+				.append(" pages=").append(pages).append(" outputBytes=")
+				.append(outputBytes).append(" allocatedBytes=")
+				.append(allocatedBytes);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,103 @@
+package com.fl.utils;
+
+import com.itextpdf.text.BaseColor;
+import com.itextpdf.text.Paragraph;
+import com.itextpdf.text.pdf.PdfPCell;
+
+/**
+ * 单元格样式，由 jxl 的 CellFormat 转换而来，创建后不能修改
+ * 
+ * @see CellStyleCache
+ */
+public final class PdfCellStyle {
+	/** 水平对齐 */
+	private final int horizontalAlignment;
+	/** 垂直对齐 */
+	private final int verticalAlignment;
+	/** 上边框宽度 */
+	private final float borderWidthTop;
+	/** 下边框宽度 */
+	private final float borderWidthBottom;
+	/** 左边框宽度 */
+	private final float borderWidthLeft;
+	/** 右边框宽度 */
+	private final float borderWidthRight;
+	/** 下边框颜色，null 表示不设置 */
+	private final BaseColor borderColorBottom;
+	/** 使用这个样式的空单元格，第一次使用时创建 */
+	private volatile PdfPCell emptyCell = null;
+	
+	public PdfCellStyle(int horizontalAlignment, int verticalAlignment,
+			float borderWidthTop, float borderWidthBottom,
+			float borderWidthLeft, float borderWidthRight,
+			BaseColor borderColorBottom) {
+		this.horizontalAlignment = horizontalAlignment;
+		this.verticalAlignment = verticalAlignment;
+		this.borderWidthTop = borderWidthTop;
+		this.borderWidthBottom = borderWidthBottom;
+		this.borderWidthLeft = borderWidthLeft;
+		this.borderWidthRight = borderWidthRight;
+		this.borderColorBottom = borderColorBottom;
+	}
+	
+	/**
+	 * 把样式设置到 PdfPCell
+	 * 
+	 * @param pdfCell
+	 *            - PdfPCell
+	 */
+	public void applyTo(PdfPCell pdfCell) {
+		pdfCell.setHorizontalAlignment(horizontalAlignment);
+		pdfCell.setVerticalAlignment(verticalAlignment);
+		pdfCell.setBorderWidthBottom(borderWidthBottom);
+		if (borderColorBottom != null)
+			pdfCell.setBorderColorBottom(borderColorBottom);
+		pdfCell.setBorderWidthTop(borderWidthTop);
+		pdfCell.setBorderWidthLeft(borderWidthLeft);
+		pdfCell.setBorderWidthRight(borderWidthRight);
+	}
+	
+	/**
+	 * 返回使用这个样式的空单元格。PdfPTable.addCell 添加的是单元格的副本，
+	 * 所以同一个单元格可以添加多次，但是不能修改
+	 * 
+	 * @return
+	 */
+	public PdfPCell getEmptyCell() {
+		PdfPCell cell = emptyCell;
+		if (cell == null) {
+			cell = new PdfPCell(new Paragraph(""));
+			applyTo(cell);
+			emptyCell = cell;
+		}
+		return cell;
+	}
+	
+	public int getHorizontalAlignment() {
+		return horizontalAlignment;
+	}
+	
+	public int getVerticalAlignment() {
+		return verticalAlignment;
+	}
+	
+	public float getBorderWidthTop() {
+		return borderWidthTop;
+	}
+	
+	public float getBorderWidthBottom() {
+		return borderWidthBottom;
+	}
+	
+	public float getBorderWidthLeft() {
+		return borderWidthLeft;
+	}
+	
+	public float getBorderWidthRight() {
+		return borderWidthRight;
+	}
+	
+	public BaseColor getBorderColorBottom() {
+		return borderColorBottom;
+	}
+}
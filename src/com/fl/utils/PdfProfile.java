@@ -0,0 +1,102 @@
+package com.fl.utils;
+
+import java.io.Serializable;
+import java.util.zip.Deflater;
+
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.pdf.PdfStream;
+import com.itextpdf.text.pdf.PdfWriter;
+
+/**
+ * PDF 输出的压缩设置：压缩级别、交叉引用和对象流、嵌入字体是否取子集
+ * 
+ * 交叉引用和对象流 (full compression) 需要 PDF 1.5，生成的文件较小，但写入时
+ * 要多压缩一遍对象。STSong-Light 等 CJK 字体和标准字体不嵌入，子集设置只影响
+ * 嵌入的字体。子集按每个 writer 设置，不修改共用的 BaseFont
+ * 
+ * @see Excel#setPdfProfile(PdfProfile)
+ */
+public final class PdfProfile implements Serializable {
+	
+	private static final long serialVersionUID = 3164728094365014771L;
+	
+	/** iText 的默认设置，和以前的输出相同 */
+	public static final PdfProfile DEFAULT = new PdfProfile("DEFAULT",
+			PdfStream.DEFAULT_COMPRESSION, false, true);
+	/** 最快：最低的压缩级别，不压缩对象，嵌入字体不取子集 */
+	public static final PdfProfile FAST = new PdfProfile("FAST",
+			Deflater.BEST_SPEED, false, false);
+	/** 默认压缩级别，压缩交叉引用和对象 */
+	public static final PdfProfile BALANCED = new PdfProfile("BALANCED",
+			PdfStream.DEFAULT_COMPRESSION, true, true);
+	/** 最小：最高的压缩级别，压缩交叉引用和对象 */
+	public static final PdfProfile SMALLEST = new PdfProfile("SMALLEST",
+			Deflater.BEST_COMPRESSION, true, true);
+	
+	/** 名称 */
+	private final String name;
+	/** 流的压缩级别，0-9 或 PdfStream.DEFAULT_COMPRESSION */
+	private final int compressionLevel;
+	/** 是否使用交叉引用流和对象流 */
+	private final boolean fullCompression;
+	/** 嵌入字体是否只嵌入用到的字符 */
+	private final boolean subsetFonts;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param name
+	 *            - 名称
+	 * @param compressionLevel
+	 *            - 流的压缩级别，0-9 或 PdfStream.DEFAULT_COMPRESSION
+	 * @param fullCompression
+	 *            - 是否使用交叉引用流和对象流
+	 * @param subsetFonts
+	 *            - 嵌入字体是否只嵌入用到的字符
+	 */
+	public PdfProfile(String name, int compressionLevel,
+			boolean fullCompression, boolean subsetFonts) {
+		if (compressionLevel != PdfStream.DEFAULT_COMPRESSION
+				&& (compressionLevel < PdfStream.NO_COMPRESSION
+						|| compressionLevel > PdfStream.BEST_COMPRESSION))
+			throw new IllegalArgumentException("compressionLevel: "
+					+ compressionLevel);
+		this.name = name;
+		this.compressionLevel = compressionLevel;
+		this.fullCompression = fullCompression;
+		this.subsetFonts = subsetFonts;
+	}
+	
+	/**
+	 * 把设置用到 writer，要在 document.open() 之前调用
+	 * 
+	 * @param writer
+	 *            - PdfWriter 或 PdfCopy
+	 * @throws DocumentException
+	 */
+	public void apply(PdfWriter writer) throws DocumentException {
+		writer.setCompressionLevel(compressionLevel);
+		if (fullCompression)
+			writer.setFullCompression();
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+	
+	public boolean isFullCompression() {
+		return fullCompression;
+	}
+	
+	public boolean isSubsetFonts() {
+		return subsetFonts;
+	}
+	
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,84 @@
+package com.fl.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.pdf.PdfDocument;
+import com.itextpdf.text.pdf.PdfWriter;
+
+/**
+ * 按 {@link PdfProfile#isSubsetFonts()} 设置嵌入字体子集的 PdfWriter
+ * 
+ * iText 在关闭文档时写入字体，BaseFont 和 writer 中对应的 FontDetails 都允许
+ * 时才取子集。BaseFont 在字体转换缓存和 iText 的字体缓存中共用，多个任务可能
+ * 使用不同的设置，所以不修改 BaseFont，只修改这个 writer 的 FontDetails
+ * 
+ * FontDetails 不是 public 的类，用反射调用 setSubset。反射不可用时按 iText
+ * 的默认设置取子集
+ */
+final class ProfilePdfWriter extends PdfWriter {
+	/** FontDetails.setSubset(boolean)，不可用时是 null */
+	private static final Method SET_SUBSET = findSetSubset();
+	
+	/** 嵌入字体是否取子集 */
+	private final boolean subsetFonts;
+	
+	private ProfilePdfWriter(PdfDocument pdf, OutputStream output,
+			boolean subsetFonts) {
+		super(pdf, output);
+		this.subsetFonts = subsetFonts;
+	}
+	
+	/**
+	 * 创建 writer，和 PdfWriter.getInstance 相同，另外按 profile 设置字体子集。
+	 * 压缩设置由调用者设置
+	 * 
+	 * @param document
+	 *            - 文档
+	 * @param output
+	 *            - 输出流
+	 * @param profile
+	 *            - 输出设置
+	 * @return
+	 * @throws DocumentException
+	 */
+	static PdfWriter getInstance(Document document, OutputStream output,
+			PdfProfile profile) throws DocumentException {
+		PdfDocument pdf = new PdfDocument();
+		document.addDocListener(pdf);
+		PdfWriter writer = new ProfilePdfWriter(pdf, output,
+				profile.isSubsetFonts());
+		pdf.addWriter(writer);
+		return writer;
+	}
+	
+	/**
+	 * 写入字体等共用的对象，写入前设置这个文档中字体的子集
+	 */
+	protected void addSharedObjectsToBody() throws IOException {
+		if (!subsetFonts && SET_SUBSET != null) {
+			for (Object details : documentFonts.values()) {
+				try {
+					SET_SUBSET.invoke(details, Boolean.FALSE);
+				} catch (Exception e) {
+					// 按默认设置取子集
+				}
+			}
+		}
+		super.addSharedObjectsToBody();
+	}
+	
+	private static Method findSetSubset() {
+		try {
+			Method method = Class.forName("com.itextpdf.text.pdf.FontDetails")
+					.getMethod("setSubset", boolean.class);
+			method.setAccessible(true);
+			return method;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package com.fl.utils;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+
+import jxl.Cell;
+import jxl.format.Border;
+import jxl.format.BorderLineStyle;
+import jxl.format.CellFormat;
+import jxl.format.Colour;
+import jxl.format.Font;
+
+/**
+ * 计算工作表内容的摘要：单元格的类型、内容和格式，合并单元格和列宽
+ * 
+ * 摘要相同的工作表，在设置相同时转换出的 PDF 相同，用来复用上一次转换的结果。
+ * 按行的顺序读取一遍，不保存单元格
+ */
+public final class SheetFingerprint {
+	/** 字符串编码 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private final MessageDigest digest;
+	
+	private SheetFingerprint() {
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * 计算工作表的摘要
+	 * 
+	 * @param sheet
+	 *            - 工作表，按行的顺序读取
+	 * @param settings
+	 *            - 影响这个工作表输出的设置
+	 * @return 十六进制字符串
+	 */
+	public static String compute(SheetReader sheet, String settings) {
+		return compute(sheet, null, settings);
+	}
+	
+	/**
+	 * 计算工作表的摘要，只读取指定的行，其他行按空行计算
+	 * 
+	 * @param sheet
+	 *            - 工作表，按行的顺序读取
+	 * @param rowsToRead
+	 *            - 要读取的行，null 表示全部
+	 * @param settings
+	 *            - 影响这个工作表输出的设置
+	 * @return 十六进制字符串
+	 * @see SheetSnapshot#SheetSnapshot(SheetReader, BitSet)
+	 */
+	public static String compute(SheetReader sheet, BitSet rowsToRead,
+			String settings) {
+		SheetFingerprint fp = new SheetFingerprint();
+		fp.putString(settings);
+		fp.putString(sheet.getName());
+		int rows = sheet.getRows();
+		int columns = sheet.getColumns();
+		fp.putInt(rows);
+		fp.putInt(columns);
+		for (int j = 0; j < columns; j++)
+			fp.putInt(sheet.getColumnWidth(j));
+		
+		MergedRegions regions = sheet.getMergedRegions();
+		fp.putInt(regions.size());
+		for (int k = 0; k < regions.size(); k++) {
+			fp.putInt(regions.getFirstRow(k));
+			fp.putInt(regions.getFirstColumn(k));
+			fp.putInt(regions.getLastRow(k));
+			fp.putInt(regions.getLastColumn(k));
+		}
+		
+		for (int i = 0; i < rows; i++) {
+			if (rowsToRead != null && !rowsToRead.get(i)) {
+				fp.putInt(0);
+				continue;
+			}
+			Cell[] cells = sheet.getRow(i);
+			fp.putInt(cells.length);
+			for (int j = 0; j < cells.length; j++) {
+				Cell cell = cells[j];
+				fp.putString(cell.getType().toString());
+				fp.putString(cell.getContents());
+				fp.putFormat(cell.getCellFormat());
+			}
+		}
+		return fp.toHex();
+	}
+	
+	// ------------------------------------------------ private
+	
+	private void putFormat(CellFormat format) {
+		if (format == null) {
+			putInt(-1);
+			return;
+		}
+		putInt(format.getAlignment() == null ? -1 : format.getAlignment()
+				.getValue());
+		putInt(format.getVerticalAlignment() == null ? -1 : format
+				.getVerticalAlignment().getValue());
+		putInt(format.getWrap() ? 1 : 0);
+		putBorder(format, Border.TOP);
+		putBorder(format, Border.BOTTOM);
+		putBorder(format, Border.LEFT);
+		putBorder(format, Border.RIGHT);
+		putColour(format.getBackgroundColour());
+		
+		Font font = format.getFont();
+		if (font == null) {
+			putInt(-1);
+			return;
+		}
+		putString(font.getName());
+		putInt(font.getPointSize());
+		putInt(font.getBoldWeight());
+		putInt(font.isItalic() ? 1 : 0);
+		putInt(font.isStruckout() ? 1 : 0);
+		putInt(font.getUnderlineStyle() == null ? -1 : font
+				.getUnderlineStyle().getValue());
+		putColour(font.getColour());
+	}
+	
+	private void putBorder(CellFormat format, Border border) {
+		BorderLineStyle style = format.getBorderLine(border);
+		putInt(style == null ? -1 : style.getValue());
+	}
+	
+	private void putColour(Colour colour) {
+		putInt(colour == null ? -1 : colour.getValue());
+	}
+	
+	private void putInt(int v) {
+		digest.update((byte) (v >>> 24));
+		digest.update((byte) (v >>> 16));
+		digest.update((byte) (v >>> 8));
+		digest.update((byte) v);
+	}
+	
+	/**
+	 * 字符串前面加上长度，避免 "ab"+"c" 和 "a"+"bc" 相同
+	 */
+	private void putString(String s) {
+		if (s == null) {
+			putInt(-1);
+			return;
+		}
+		byte[] b = s.getBytes(UTF8);
+		putInt(b.length);
+		digest.update(b);
+	}
+	
+	private String toHex() {
+		byte[] b = digest.digest();
+		StringBuilder sb = new StringBuilder(b.length * 2);
+		for (int i = 0; i < b.length; i++) {
+			sb.append(Character.forDigit((b[i] >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b[i] & 0xf, 16));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,75 @@
+package com.fl.utils;
+
+import jxl.Cell;
+
+/**
+ * 读取一个 Excel 工作表的内容，转换时只通过这个接口访问工作表
+ * 
+ * @see JxlSheetReader
+ * @see HssfSheetReader
+ * @see XlsxSheetReader
+ * @see SheetSnapshot
+ */
+public interface SheetReader {
+	
+	/**
+	 * 工作表名称
+	 * 
+	 * @return
+	 */
+	String getName();
+	
+	/**
+	 * 行数
+	 * 
+	 * @return
+	 */
+	int getRows();
+	
+	/**
+	 * 最大列数，每行的实际列数可能少于这个值
+	 * 
+	 * @return
+	 */
+	int getColumns();
+	
+	/**
+	 * 实际使用的行数，到最后一个有内容、有边框或属于合并单元格的行为止
+	 * 
+	 * @return 读取工作表结构时没有计算的返回 -1
+	 * @see UsedRangeSheet
+	 */
+	int getUsedRows();
+	
+	/**
+	 * 实际使用的列数，计算方法同 {@link #getUsedRows()}
+	 * 
+	 * @return 读取工作表结构时没有计算的返回 -1
+	 */
+	int getUsedColumns();
+	
+	/**
+	 * 读取一行
+	 * 
+	 * @param row
+	 *            - 行号，最小是 0
+	 * @return 这一行的单元格
+	 */
+	Cell[] getRow(int row);
+	
+	/**
+	 * 列宽，单位同 jxl.CellView.getSize()
+	 * 
+	 * @param column
+	 *            - 列号，最小是 0
+	 * @return
+	 */
+	int getColumnWidth(int column);
+	
+	/**
+	 * 合并单元格
+	 * 
+	 * @return
+	 */
+	MergedRegions getMergedRegions();
+}
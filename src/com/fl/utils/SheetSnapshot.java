@@ -0,0 +1,168 @@
+package com.fl.utils;
+
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import jxl.Cell;
+import jxl.CellFeatures;
+import jxl.CellType;
+import jxl.format.CellFormat;
+
+/**
+ * 工作表内容的副本，不再依赖 Workbook，可以交给其他线程处理
+ * 
+ * 单元格的内容在创建副本时取出。jxl 格式化数字和日期的对象不是线程安全的，
+ * 所以不能在其他线程调用原来单元格的 getContents。格式也复制为
+ * {@link SimpleCellFormat}，jxl 的 XFRecord 第一次读取属性时才初始化，
+ * 没有同步
+ */
+public class SheetSnapshot implements SheetReader {
+	/** 空行 */
+	private static final Cell[] EMPTY_ROW = new Cell[0];
+	
+	/** 工作表名称 */
+	private final String name;
+	/** 最大列数 */
+	private final int columns;
+	/** 原来的工作表的使用范围 */
+	private final int usedRows;
+	private final int usedColumns;
+	/** 所有行 */
+	private final Cell[][] rows;
+	/** 列宽 */
+	private final int[] columnWidths;
+	/** 合并单元格 */
+	private final MergedRegions mergedRegions;
+	
+	/**
+	 * 复制工作表的内容
+	 * 
+	 * @param sheet
+	 *            - 要复制的工作表
+	 */
+	public SheetSnapshot(SheetReader sheet) {
+		this(sheet, null);
+	}
+	
+	/**
+	 * 复制工作表中指定的行，其他行是空行，不读取
+	 * 
+	 * @param sheet
+	 *            - 要复制的工作表
+	 * @param rowsToCopy
+	 *            - 要复制的行，null 表示全部
+	 */
+	public SheetSnapshot(SheetReader sheet, BitSet rowsToCopy) {
+		name = sheet.getName();
+		columns = sheet.getColumns();
+		usedRows = sheet.getUsedRows();
+		usedColumns = sheet.getUsedColumns();
+		rows = new Cell[sheet.getRows()][];
+		// 同一个格式只复制一次
+		Map<CellFormat, SimpleCellFormat> formats =
+				new IdentityHashMap<CellFormat, SimpleCellFormat>();
+		for (int i = 0; i < rows.length; i++) {
+			if (rowsToCopy != null && !rowsToCopy.get(i)) {
+				rows[i] = EMPTY_ROW;
+				continue;
+			}
+			Cell[] source = sheet.getRow(i);
+			Cell[] copy = new Cell[source.length];
+			for (int j = 0; j < source.length; j++)
+				copy[j] = new CellCopy(source[j], formats);
+			rows[i] = copy;
+		}
+		columnWidths = new int[columns];
+		for (int j = 0; j < columns; j++)
+			columnWidths[j] = sheet.getColumnWidth(j);
+		mergedRegions = sheet.getMergedRegions();
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public int getRows() {
+		return rows.length;
+	}
+	
+	public int getColumns() {
+		return columns;
+	}
+	
+	public int getUsedRows() {
+		return usedRows;
+	}
+	
+	public int getUsedColumns() {
+		return usedColumns;
+	}
+	
+	public Cell[] getRow(int row) {
+		return rows[row];
+	}
+	
+	public int getColumnWidth(int column) {
+		return columnWidths[column];
+	}
+	
+	public MergedRegions getMergedRegions() {
+		return mergedRegions;
+	}
+	
+	/**
+	 * 单元格副本
+	 */
+	static class CellCopy implements Cell {
+		private final int row;
+		private final int column;
+		private final CellType type;
+		private final boolean hidden;
+		private final String contents;
+		private final SimpleCellFormat format;
+		
+		CellCopy(Cell cell, Map<CellFormat, SimpleCellFormat> formats) {
+			row = cell.getRow();
+			column = cell.getColumn();
+			type = cell.getType();
+			hidden = cell.isHidden();
+			contents = cell.getContents();
+			CellFormat source = cell.getCellFormat();
+			SimpleCellFormat copy = formats.get(source);
+			if (copy == null && source != null) {
+				copy = SimpleCellFormat.of(source);
+				formats.put(source, copy);
+			}
+			format = copy;
+		}
+		
+		public int getRow() {
+			return row;
+		}
+		
+		public int getColumn() {
+			return column;
+		}
+		
+		public CellType getType() {
+			return type;
+		}
+		
+		public boolean isHidden() {
+			return hidden;
+		}
+		
+		public String getContents() {
+			return contents;
+		}
+		
+		public CellFormat getCellFormat() {
+			return format;
+		}
+		
+		public CellFeatures getCellFeatures() {
+			return null;
+		}
+	}
+}
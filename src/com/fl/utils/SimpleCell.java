@@ -0,0 +1,120 @@
+package com.fl.utils;
+
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+
+import jxl.Cell;
+import jxl.CellFeatures;
+import jxl.CellType;
+import jxl.format.CellFormat;
+
+/**
+ * 不通过 jxl 读取的单元格，内容在读取时已格式化
+ */
+class SimpleCell implements Cell {
+	private final int row;
+	private final int column;
+	private final CellType type;
+	private final String contents;
+	private final CellFormat format;
+	
+	SimpleCell(int row, int column, CellType type, String contents,
+			CellFormat format) {
+		this.row = row;
+		this.column = column;
+		this.type = type;
+		this.contents = contents;
+		this.format = format;
+	}
+	
+	/**
+	 * 创建数字或日期单元格，按单元格的数字格式输出内容
+	 * 
+	 * @param row
+	 *            - 行号
+	 * @param column
+	 *            - 列号
+	 * @param value
+	 *            - 数值
+	 * @param formula
+	 *            - 是否是公式
+	 * @param format
+	 *            - 单元格格式，可以是 null
+	 * @param formatter
+	 *            - 数字格式化
+	 * @return
+	 */
+	static SimpleCell number(int row, int column, double value,
+			boolean formula, SimpleCellFormat format, DataFormatter formatter) {
+		int formatIndex = (format == null) ? 0 : format.getFormatIndex();
+		String formatString = (format == null) ? null : format
+				.getFormatString();
+		if (formatString == null)
+			formatString = "General";
+		boolean date = DateUtil.isADateFormat(formatIndex, formatString)
+				&& DateUtil.isValidExcelDate(value);
+		CellType cellType;
+		if (date)
+			cellType = formula ? CellType.DATE_FORMULA : CellType.DATE;
+		else
+			cellType = formula ? CellType.NUMBER_FORMULA : CellType.NUMBER;
+		String contents = formatter.formatRawCellContents(value, formatIndex,
+				formatString);
+		return new SimpleCell(row, column, cellType, contents, format);
+	}
+	
+	/**
+	 * 把一行的单元格按列排列，空白的位置补空单元格，和 jxl 的 getRow 相同
+	 * 
+	 * @param row
+	 *            - 行号
+	 * @param cells
+	 *            - 这一行的单元格
+	 * @return
+	 */
+	static Cell[] toRow(int row, List<Cell> cells) {
+		int length = 0;
+		for (int k = 0; k < cells.size(); k++) {
+			if (cells.get(k).getColumn() + 1 > length)
+				length = cells.get(k).getColumn() + 1;
+		}
+		Cell[] result = new Cell[length];
+		for (int k = 0; k < cells.size(); k++)
+			result[cells.get(k).getColumn()] = cells.get(k);
+		for (int j = 0; j < length; j++) {
+			if (result[j] == null)
+				result[j] = new SimpleCell(row, j, CellType.EMPTY, "", null);
+		}
+		return result;
+	}
+	
+	public int getRow() {
+		return row;
+	}
+	
+	public int getColumn() {
+		return column;
+	}
+	
+	public CellType getType() {
+		return type;
+	}
+	
+	public boolean isHidden() {
+		return false;
+	}
+	
+	public String getContents() {
+		return contents;
+	}
+	
+	public CellFormat getCellFormat() {
+		return format;
+	}
+	
+	public CellFeatures getCellFeatures() {
+		return null;
+	}
+}
@@ -0,0 +1,261 @@
+package com.fl.utils;
+
+import jxl.format.Alignment;
+import jxl.format.Border;
+import jxl.format.BorderLineStyle;
+import jxl.format.CellFormat;
+import jxl.format.Colour;
+import jxl.format.Font;
+import jxl.format.Format;
+import jxl.format.Orientation;
+import jxl.format.Pattern;
+import jxl.format.VerticalAlignment;
+
+/**
+ * 不通过 jxl 读取的单元格格式 (.xlsx 的 cellXfs 或 .xls 的 XF 记录)，按 jxl 的
+ * CellFormat 接口提供给转换过程
+ * 
+ * 读取 .xlsx 和 .xls 时只保存转换用到的属性：字体、对齐、边框和数字格式，其他
+ * 属性是默认值。按属性比较，不同文件中相同的格式共用 {@link CellStyleCache}
+ * 中的转换结果
+ * 
+ * jxl 的格式用 {@link #of(CellFormat)} 复制成这个类，作为缓存的 key 或交给其他
+ * 线程，不保留 jxl 的 XFRecord 和它所属的 FormattingRecords
+ */
+public final class SimpleCellFormat implements CellFormat, Format {
+	/** 字体 */
+	private final SimpleFont font;
+	/** 水平对齐 */
+	private final Alignment alignment;
+	/** 垂直对齐 */
+	private final VerticalAlignment verticalAlignment;
+	/** 文字方向 */
+	private final Orientation orientation;
+	/** 是否自动换行 */
+	private final boolean wrap;
+	/** 边框：上、下、左、右 */
+	private final BorderLineStyle top, bottom, left, right;
+	/** 边框颜色：上、下、左、右 */
+	private final Colour topColour, bottomColour, leftColour, rightColour;
+	/** 背景颜色 */
+	private final Colour backgroundColour;
+	/** 填充图案 */
+	private final Pattern pattern;
+	/** 缩进 */
+	private final int indentation;
+	/** 是否缩小字体填充 */
+	private final boolean shrinkToFit;
+	/** 是否锁定 */
+	private final boolean locked;
+	/** 数字格式编号 */
+	private final int formatIndex;
+	/** 数字格式 */
+	private final String formatString;
+	
+	public SimpleCellFormat(SimpleFont font, Alignment alignment,
+			VerticalAlignment verticalAlignment, boolean wrap,
+			BorderLineStyle top, BorderLineStyle bottom, BorderLineStyle left,
+			BorderLineStyle right, int formatIndex, String formatString) {
+		this.font = font;
+		this.alignment = alignment;
+		this.verticalAlignment = verticalAlignment;
+		this.orientation = Orientation.HORIZONTAL;
+		this.wrap = wrap;
+		this.top = top;
+		this.bottom = bottom;
+		this.left = left;
+		this.right = right;
+		this.topColour = Colour.BLACK;
+		this.bottomColour = Colour.BLACK;
+		this.leftColour = Colour.BLACK;
+		this.rightColour = Colour.BLACK;
+		this.backgroundColour = Colour.DEFAULT_BACKGROUND;
+		this.pattern = Pattern.NONE;
+		this.indentation = 0;
+		this.shrinkToFit = false;
+		this.locked = true;
+		this.formatIndex = formatIndex;
+		this.formatString = formatString;
+	}
+	
+	/**
+	 * 复制 jxl 格式的所有属性
+	 * 
+	 * @param format
+	 *            - jxl 单元格格式
+	 */
+	private SimpleCellFormat(CellFormat format) {
+		Format numberFormat = format.getFormat();
+		this.font = SimpleFont.of(format.getFont());
+		this.alignment = format.getAlignment();
+		this.verticalAlignment = format.getVerticalAlignment();
+		this.orientation = format.getOrientation();
+		this.wrap = format.getWrap();
+		this.top = format.getBorderLine(Border.TOP);
+		this.bottom = format.getBorderLine(Border.BOTTOM);
+		this.left = format.getBorderLine(Border.LEFT);
+		this.right = format.getBorderLine(Border.RIGHT);
+		this.topColour = format.getBorderColour(Border.TOP);
+		this.bottomColour = format.getBorderColour(Border.BOTTOM);
+		this.leftColour = format.getBorderColour(Border.LEFT);
+		this.rightColour = format.getBorderColour(Border.RIGHT);
+		this.backgroundColour = format.getBackgroundColour();
+		this.pattern = format.getPattern();
+		this.indentation = format.getIndentation();
+		this.shrinkToFit = format.isShrinkToFit();
+		this.locked = format.isLocked();
+		// jxl 的格式编号不在 CellFormat 接口中，按格式字符串比较
+		this.formatIndex = -1;
+		this.formatString = (numberFormat == null) ? null : numberFormat
+				.getFormatString();
+	}
+	
+	/**
+	 * 复制单元格格式。jxl 的 XFRecord 在第一次使用时才初始化，不能交给其他
+	 * 线程，也不能作为多个 workbook 共用的缓存的 key
+	 * 
+	 * @param format
+	 *            - 单元格格式，可以是 null
+	 * @return format 已经是 SimpleCellFormat 时返回 format
+	 */
+	public static SimpleCellFormat of(CellFormat format) {
+		if (format == null || format instanceof SimpleCellFormat)
+			return (SimpleCellFormat) format;
+		return new SimpleCellFormat(format);
+	}
+	
+	/**
+	 * 数字格式编号，内置格式小于 164
+	 * 
+	 * @return 从 jxl 格式复制时是 -1
+	 */
+	public int getFormatIndex() {
+		return formatIndex;
+	}
+	
+	/**
+	 * 数字格式
+	 * 
+	 * @return
+	 */
+	public String getFormatString() {
+		return formatString;
+	}
+	
+	/**
+	 * 数字格式
+	 * 
+	 * @return 没有格式字符串时返回 null
+	 */
+	public Format getFormat() {
+		return (formatString == null) ? null : this;
+	}
+	
+	public Font getFont() {
+		return font;
+	}
+	
+	public boolean getWrap() {
+		return wrap;
+	}
+	
+	public Alignment getAlignment() {
+		return alignment;
+	}
+	
+	public VerticalAlignment getVerticalAlignment() {
+		return verticalAlignment;
+	}
+	
+	public Orientation getOrientation() {
+		return orientation;
+	}
+	
+	public BorderLineStyle getBorder(Border border) {
+		return getBorderLine(border);
+	}
+	
+	public BorderLineStyle getBorderLine(Border border) {
+		if (border == Border.TOP)
+			return top;
+		if (border == Border.BOTTOM)
+			return bottom;
+		if (border == Border.LEFT)
+			return left;
+		if (border == Border.RIGHT)
+			return right;
+		return BorderLineStyle.NONE;
+	}
+	
+	public Colour getBorderColour(Border border) {
+		if (border == Border.TOP)
+			return topColour;
+		if (border == Border.BOTTOM)
+			return bottomColour;
+		if (border == Border.LEFT)
+			return leftColour;
+		if (border == Border.RIGHT)
+			return rightColour;
+		return Colour.BLACK;
+	}
+	
+	public boolean hasBorders() {
+		return top != BorderLineStyle.NONE || bottom != BorderLineStyle.NONE
+				|| left != BorderLineStyle.NONE
+				|| right != BorderLineStyle.NONE;
+	}
+	
+	public Colour getBackgroundColour() {
+		return backgroundColour;
+	}
+	
+	public Pattern getPattern() {
+		return pattern;
+	}
+	
+	public int getIndentation() {
+		return indentation;
+	}
+	
+	public boolean isShrinkToFit() {
+		return shrinkToFit;
+	}
+	
+	public boolean isLocked() {
+		return locked;
+	}
+	
+	public boolean equals(Object o) {
+		if (o == this)
+			return true;
+		if (!(o instanceof SimpleCellFormat))
+			return false;
+		SimpleCellFormat f = (SimpleCellFormat) o;
+		return alignment == f.alignment
+				&& verticalAlignment == f.verticalAlignment
+				&& orientation == f.orientation && wrap == f.wrap
+				&& top == f.top && bottom == f.bottom && left == f.left
+				&& right == f.right && topColour == f.topColour
+				&& bottomColour == f.bottomColour
+				&& leftColour == f.leftColour
+				&& rightColour == f.rightColour
+				&& backgroundColour == f.backgroundColour
+				&& pattern == f.pattern && indentation == f.indentation
+				&& shrinkToFit == f.shrinkToFit && locked == f.locked
+				&& formatIndex == f.formatIndex
+				&& (font == null ? f.font == null : font.equals(f.font))
+				&& (formatString == null ? f.formatString == null
+						: formatString.equals(f.formatString));
+	}
+	
+	public int hashCode() {
+		int h = (font == null) ? 0 : font.hashCode();
+		h = h * 31 + alignment.getValue();
+		h = h * 31 + verticalAlignment.getValue();
+		h = h * 31 + top.getValue();
+		h = h * 31 + bottom.getValue();
+		h = h * 31 + left.getValue();
+		h = h * 31 + right.getValue();
+		return h * 31 + formatIndex + (wrap ? 1 : 0);
+	}
+}
@@ -0,0 +1,126 @@
+package com.fl.utils;
+
+import jxl.format.BoldStyle;
+import jxl.format.Colour;
+import jxl.format.Font;
+import jxl.format.ScriptStyle;
+import jxl.format.UnderlineStyle;
+
+/**
+ * 不通过 jxl 读取的字体 (.xlsx 的 styles.xml 或 .xls 的 FONT 记录)，按 jxl 的
+ * Font 接口提供给转换过程
+ * 
+ * 按属性比较，不同文件中相同的字体共用 {@link FontCache} 中的转换结果。jxl 的
+ * 字体用 {@link #of(Font)} 复制成这个类作为缓存的 key，不保留 jxl 的记录
+ */
+public final class SimpleFont implements Font {
+	/** 字体名称 */
+	private final String name;
+	/** 字号 */
+	private final int pointSize;
+	/** 粗细，同 jxl.format.BoldStyle */
+	private final int boldWeight;
+	/** 是否斜体 */
+	private final boolean italic;
+	/** 是否删除线 */
+	private final boolean struckout;
+	/** 下划线 */
+	private final UnderlineStyle underline;
+	/** 颜色 */
+	private final Colour colour;
+	/** 上标或下标 */
+	private final ScriptStyle scriptStyle;
+	
+	public SimpleFont(String name, int pointSize, boolean bold, boolean italic,
+			boolean struckout, UnderlineStyle underline) {
+		this(name, pointSize, bold ? BoldStyle.BOLD.getValue()
+				: BoldStyle.NORMAL.getValue(), italic, struckout, underline,
+				Colour.BLACK, ScriptStyle.NORMAL_SCRIPT);
+	}
+	
+	private SimpleFont(String name, int pointSize, int boldWeight,
+			boolean italic, boolean struckout, UnderlineStyle underline,
+			Colour colour, ScriptStyle scriptStyle) {
+		this.name = name;
+		this.pointSize = pointSize;
+		this.boldWeight = boldWeight;
+		this.italic = italic;
+		this.struckout = struckout;
+		this.underline = (underline == null) ? UnderlineStyle.NO_UNDERLINE
+				: underline;
+		this.colour = (colour == null) ? Colour.BLACK : colour;
+		this.scriptStyle = (scriptStyle == null) ? ScriptStyle.NORMAL_SCRIPT
+				: scriptStyle;
+	}
+	
+	/**
+	 * 复制字体的属性。jxl 的 FontRecord 在第一次使用时才初始化，不能交给其他
+	 * 线程，也不能作为多个 workbook 共用的缓存的 key
+	 * 
+	 * @param font
+	 *            - 字体，可以是 null
+	 * @return font 已经是 SimpleFont 时返回 font
+	 */
+	public static SimpleFont of(Font font) {
+		if (font == null || font instanceof SimpleFont)
+			return (SimpleFont) font;
+		return new SimpleFont(font.getName(), font.getPointSize(),
+				font.getBoldWeight(), font.isItalic(), font.isStruckout(),
+				font.getUnderlineStyle(), font.getColour(),
+				font.getScriptStyle());
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public int getPointSize() {
+		return pointSize;
+	}
+	
+	public int getBoldWeight() {
+		return boldWeight;
+	}
+	
+	public boolean isItalic() {
+		return italic;
+	}
+	
+	public boolean isStruckout() {
+		return struckout;
+	}
+	
+	public UnderlineStyle getUnderlineStyle() {
+		return underline;
+	}
+	
+	public Colour getColour() {
+		return colour;
+	}
+	
+	public ScriptStyle getScriptStyle() {
+		return scriptStyle;
+	}
+	
+	public boolean equals(Object o) {
+		if (o == this)
+			return true;
+		if (!(o instanceof SimpleFont))
+			return false;
+		SimpleFont f = (SimpleFont) o;
+		return pointSize == f.pointSize && boldWeight == f.boldWeight
+				&& italic == f.italic && struckout == f.struckout
+				&& underline.getValue() == f.underline.getValue()
+				&& colour.getValue() == f.colour.getValue()
+				&& scriptStyle.getValue() == f.scriptStyle.getValue()
+				&& (name == null ? f.name == null : name.equals(f.name));
+	}
+	
+	public int hashCode() {
+		int h = (name == null) ? 0 : name.hashCode();
+		h = h * 31 + pointSize;
+		h = h * 31 + boldWeight + (italic ? 1 : 0) + (struckout ? 2 : 0);
+		h = h * 31 + colour.getValue();
+		return h * 31 + underline.getValue();
+	}
+}
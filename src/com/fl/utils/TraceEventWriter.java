@@ -0,0 +1,112 @@
+package com.fl.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+
+/**
+ * 把转换事件写成 Chrome trace event 格式 (JSON)，可以用 chrome://tracing
+ * 或 Perfetto 按时间线查看
+ * 
+ * 时间戳是 JVM 启动以来的微秒数，和 GC 日志中的 uptime 一致。写入错误只记录
+ * 下来，不影响转换，可以用 getError 查看
+ */
+public class TraceEventWriter implements ConversionTracer {
+	/** 输出 */
+	private final Writer writer;
+	/** 创建时的 System.nanoTime() */
+	private final long baseNanos;
+	/** 创建时 JVM 启动以来的纳秒数 */
+	private final long baseUptimeNanos;
+	/** 是否已写了第一个事件 */
+	private boolean started = false;
+	/** 第一个写入错误 */
+	private IOException error = null;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param output
+	 *            - 输出流，按 UTF-8 写入
+	 */
+	public TraceEventWriter(OutputStream output) {
+		this(new OutputStreamWriter(output, Charset.forName("UTF-8")));
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param writer
+	 *            - 输出
+	 */
+	public TraceEventWriter(Writer writer) {
+		this.writer = writer;
+		this.baseNanos = System.nanoTime();
+		this.baseUptimeNanos = ManagementFactory.getRuntimeMXBean()
+				.getUptime() * 1000000L;
+	}
+	
+	public synchronized void event(ConversionEvent event) {
+		if (error != null)
+			return;
+		StringBuilder sb = new StringBuilder(192);
+		sb.append(started ? ",\n" : "[\n");
+		sb.append("{\"name\":\"").append(event.getName());
+		sb.append("\",\"cat\":\"excel2pdf\",\"ph\":\"X\",\"ts\":");
+		sb.append((event.getStartNanos() - baseNanos + baseUptimeNanos) / 1000);
+		sb.append(",\"dur\":").append(event.getDurationNanos() / 1000);
+		sb.append(",\"pid\":1,\"tid\":").append(event.getThread().getId());
+		sb.append(",\"args\":{\"sheet\":").append(event.getSheetIndex());
+		if (event.getRows() >= 0)
+			sb.append(",\"rows\":").append(event.getRows());
+		if (event.getCells() >= 0)
+			sb.append(",\"cells\":").append(event.getCells());
+		if (event.getMergedRegions() >= 0)
+			sb.append(",\"mergedRegions\":").append(event.getMergedRegions());
+		if (event.getPageNumber() >= 0)
+			sb.append(",\"page\":").append(event.getPageNumber());
+		sb.append("}}");
+		try {
+			writer.write(sb.toString());
+			started = true;
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+	
+	/**
+	 * 写出缓冲的事件
+	 */
+	public synchronized void flush() {
+		try {
+			writer.flush();
+		} catch (IOException e) {
+			if (error == null)
+				error = e;
+		}
+	}
+	
+	/**
+	 * 结束 JSON 数组并关闭输出
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		writer.write(started ? "\n]\n" : "[]\n");
+		writer.close();
+		if (error != null)
+			throw error;
+	}
+	
+	/**
+	 * 返回第一个写入错误
+	 * 
+	 * @return 没有错误时返回 null
+	 */
+	public synchronized IOException getError() {
+		return error;
+	}
+}
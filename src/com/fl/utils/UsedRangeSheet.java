@@ -0,0 +1,159 @@
+package com.fl.utils;
+
+import jxl.Cell;
+import jxl.CellType;
+import jxl.format.Border;
+import jxl.format.BorderLineStyle;
+import jxl.format.CellFormat;
+
+/**
+ * 只包含实际使用范围的工作表
+ * 
+ * getRows() 和 getColumns() 包括设置了格式但是空的单元格，很多文件的列数是 256
+ * 或行数是 65536，而数据只到 H 列。使用范围到最后一个有内容、有边框或属于合并
+ * 单元格的行和列为止，之后的行和列不输出
+ * 
+ * 按记录或 XML 读取的工作表在扫描结构时已计算使用范围，这里不读取单元格。
+ * jxl 的工作表已在内存中，逐行查找
+ * 
+ * @see Excel#setTrimUsedRange(boolean)
+ */
+public class UsedRangeSheet implements SheetReader {
+	/** 原来的工作表 */
+	private final SheetReader sheet;
+	/** 使用范围的行数 */
+	private final int rows;
+	/** 使用范围的列数 */
+	private final int columns;
+	
+	private UsedRangeSheet(SheetReader sheet, int rows, int columns) {
+		this.sheet = sheet;
+		this.rows = rows;
+		this.columns = columns;
+	}
+	
+	/**
+	 * 取得工作表的使用范围
+	 * 
+	 * @param sheet
+	 *            - 工作表
+	 * @return 没有多余的行和列时返回原来的工作表
+	 */
+	public static SheetReader trim(SheetReader sheet) {
+		int usedRows = sheet.getUsedRows();
+		int usedColumns = sheet.getUsedColumns();
+		if (usedRows < 0 || usedColumns < 0) {
+			int[] used = findUsedRange(sheet);
+			usedRows = used[0];
+			usedColumns = used[1];
+		}
+		
+		int rows = Math.min(sheet.getRows(), usedRows);
+		int columns = Math.min(sheet.getColumns(), usedColumns);
+		if (rows == sheet.getRows() && columns == sheet.getColumns())
+			return sheet;
+		return new UsedRangeSheet(sheet, rows, columns);
+	}
+	
+	/**
+	 * 逐行查找使用范围，用于内存中的工作表
+	 * 
+	 * @param sheet
+	 *            - 工作表
+	 * @return {行数, 列数}
+	 */
+	private static int[] findUsedRange(SheetReader sheet) {
+		int lastRow = -1;
+		int lastColumn = -1;
+		// 每行从右向左找到第一个使用的单元格为止
+		for (int i = 0; i < sheet.getRows(); i++) {
+			Cell[] row = sheet.getRow(i);
+			for (int j = row.length - 1; j >= 0; j--) {
+				if (isUsed(row[j])) {
+					lastRow = i;
+					lastColumn = Math.max(lastColumn, j);
+					break;
+				}
+			}
+		}
+		
+		MergedRegions regions = sheet.getMergedRegions();
+		for (int k = 0; k < regions.size(); k++) {
+			lastRow = Math.max(lastRow, regions.getLastRow(k));
+			lastColumn = Math.max(lastColumn, regions.getLastColumn(k));
+		}
+		
+		return new int[] { lastRow + 1, lastColumn + 1 };
+	}
+	
+	/**
+	 * 单元格是否有内容或边框
+	 * 
+	 * @param cell
+	 * @return
+	 */
+	static boolean isUsed(Cell cell) {
+		if (cell.getType() != CellType.EMPTY)
+			return true;
+		return hasBorder(cell.getCellFormat());
+	}
+	
+	/**
+	 * 格式是否有边框
+	 * 
+	 * @param format
+	 *            - 单元格格式，可以是 null
+	 * @return
+	 */
+	static boolean hasBorder(CellFormat format) {
+		if (format == null)
+			return false;
+		return hasBorder(format, Border.TOP)
+				|| hasBorder(format, Border.BOTTOM)
+				|| hasBorder(format, Border.LEFT)
+				|| hasBorder(format, Border.RIGHT);
+	}
+	
+	private static boolean hasBorder(CellFormat format, Border border) {
+		BorderLineStyle style = format.getBorderLine(border);
+		return style != null
+				&& style.getValue() != BorderLineStyle.NONE.getValue();
+	}
+	
+	public String getName() {
+		return sheet.getName();
+	}
+	
+	public int getRows() {
+		return rows;
+	}
+	
+	public int getColumns() {
+		return columns;
+	}
+	
+	public int getUsedRows() {
+		return rows;
+	}
+	
+	public int getUsedColumns() {
+		return columns;
+	}
+	
+	public Cell[] getRow(int row) {
+		Cell[] cells = sheet.getRow(row);
+		if (cells.length <= columns)
+			return cells;
+		Cell[] used = new Cell[columns];
+		System.arraycopy(cells, 0, used, 0, columns);
+		return used;
+	}
+	
+	public int getColumnWidth(int column) {
+		return sheet.getColumnWidth(column);
+	}
+	
+	public MergedRegions getMergedRegions() {
+		return sheet.getMergedRegions();
+	}
+}
@@ -0,0 +1,44 @@
+package com.fl.utils;
+
+/**
+ * 读取一个 Excel 文件，转换时只通过这个接口访问 workbook
+ * 
+ * 读取另一个工作表后，之前返回的 SheetReader 不能再用
+ * 
+ * @see JxlWorkbookReader
+ * @see HssfWorkbookReader
+ * @see XlsxWorkbookReader
+ */
+public interface WorkbookReader {
+	
+	/**
+	 * 工作表个数
+	 * 
+	 * @return
+	 */
+	int getNumberOfSheets();
+	
+	/**
+	 * 工作表名称，不读取工作表的内容
+	 * 
+	 * @param index
+	 *            - 工作表索引，最小是 0
+	 * @return
+	 */
+	String getSheetName(int index);
+	
+	/**
+	 * 读取工作表
+	 * 
+	 * @param index
+	 *            - 工作表索引，最小是 0
+	 * @return
+	 * @throws Exception
+	 */
+	SheetReader getSheet(int index) throws Exception;
+	
+	/**
+	 * 释放资源
+	 */
+	void close();
+}
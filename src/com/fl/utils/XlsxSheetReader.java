@@ -0,0 +1,440 @@
+package com.fl.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import jxl.Cell;
+import jxl.CellType;
+
+/**
+ * 逐行读取 .xlsx 文件的一个工作表
+ * 
+ * 创建时先扫描一遍工作表，读取行数、列数、使用范围、列宽和合并单元格（合并
+ * 单元格位于 sheetData 之后），不保存单元格。之后 getRow 按 XML 事件向前
+ * 读取，只保留最后读取的一行。行号比上一次小时从头重新读取，转换时只有 header
+ * 的几行会这样
+ */
+public class XlsxSheetReader implements SheetReader {
+	/** 空行 */
+	private static final Cell[] EMPTY_ROW = new Cell[0];
+	
+	/** 所属的 workbook */
+	private final XlsxWorkbookReader workbook;
+	/** 工作表名称 */
+	private final String name;
+	/** 工作表在 zip 包中的路径 */
+	private final String path;
+	/** 行数 */
+	private int rows = 0;
+	/** 最大列数 */
+	private int columns = 0;
+	/** 使用范围的行数 */
+	private int usedRows = 0;
+	/** 使用范围的列数 */
+	private int usedColumns = 0;
+	/** 默认列宽 */
+	private int defaultColumnWidth = 8 * 256;
+	/** 设置了宽度的列：{起始列, 结束列, 宽度} */
+	private final List<int[]> columnWidths = new ArrayList<int[]>();
+	/** 合并单元格 */
+	private MergedRegions mergedRegions = MergedRegions.EMPTY;
+	
+	/** 读取行的解析器，null 表示还没开始或已关闭 */
+	private XMLStreamReader reader = null;
+	/** 是否已读到 sheetData 结尾 */
+	private boolean endOfData = false;
+	/** 上一次请求的行号 */
+	private int lastRequested = -1;
+	/** 最后读取的一行的行号 */
+	private int bufferedIndex = -1;
+	/** 最后读取的一行 */
+	private Cell[] bufferedRow = null;
+	
+	/**
+	 * Constructor，扫描工作表的结构
+	 * 
+	 * @param workbook
+	 *            - 所属的 workbook
+	 * @param name
+	 *            - 工作表名称
+	 * @param path
+	 *            - 工作表在 zip 包中的路径
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	XlsxSheetReader(XlsxWorkbookReader workbook, String name, String path)
+			throws IOException, XMLStreamException {
+		this.workbook = workbook;
+		this.name = name;
+		this.path = path;
+		scan();
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public int getRows() {
+		return rows;
+	}
+	
+	public int getColumns() {
+		return columns;
+	}
+	
+	public int getUsedRows() {
+		return usedRows;
+	}
+	
+	public int getUsedColumns() {
+		return usedColumns;
+	}
+	
+	public Cell[] getRow(int row) {
+		try {
+			if (row < lastRequested)
+				restart();
+			lastRequested = row;
+			while (!endOfData && bufferedIndex < row)
+				readNextRow(row);
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException("cannot read sheet " + name, e);
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot read sheet " + name, e);
+		}
+		return (bufferedIndex == row) ? bufferedRow : EMPTY_ROW;
+	}
+	
+	public int getColumnWidth(int column) {
+		// <col> 中的列号从 1 开始
+		for (int k = 0; k < columnWidths.size(); k++) {
+			int[] range = columnWidths.get(k);
+			if (column + 1 >= range[0] && column + 1 <= range[1])
+				return range[2];
+		}
+		return defaultColumnWidth;
+	}
+	
+	public MergedRegions getMergedRegions() {
+		return mergedRegions;
+	}
+	
+	/**
+	 * 关闭正在读取的流
+	 */
+	void close() {
+		if (reader != null) {
+			try {
+				reader.close();
+			} catch (XMLStreamException e) {
+			}
+			reader = null;
+		}
+	}
+	
+	// ------------------------------------------------ private
+	
+	/**
+	 * 扫描工作表：列宽、行数、列数、使用范围和合并单元格
+	 * 
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	private void scan() throws IOException, XMLStreamException {
+		XMLStreamReader scanner = workbook.openPart(path);
+		if (scanner == null)
+			throw new IOException("sheet not found: " + path);
+		List<int[]> merges = new ArrayList<int[]>();
+		try {
+			int row = -1;
+			int column = -1;
+			// 当前单元格是否使用，同 readCell：有值、inlineStr 或有边框
+			boolean used = false;
+			while (scanner.hasNext()) {
+				int event = scanner.next();
+				if (event == XMLStreamConstants.END_ELEMENT) {
+					if (used && "c".equals(scanner.getLocalName())) {
+						addUsed(row, column);
+						used = false;
+					}
+					continue;
+				}
+				if (event != XMLStreamConstants.START_ELEMENT)
+					continue;
+				String element = scanner.getLocalName();
+				if ("c".equals(element)) {
+					String ref = scanner.getAttributeValue(null, "r");
+					column = (ref == null) ? column + 1 : parseColumn(ref);
+					if (column + 1 > columns)
+						columns = column + 1;
+					String s = scanner.getAttributeValue(null, "s");
+					used = "inlineStr".equals(scanner.getAttributeValue(null,
+							"t"))
+							|| UsedRangeSheet.hasBorder(workbook
+									.getCellFormat(s == null ? 0 : Integer
+											.parseInt(s)));
+				} else if ("v".equals(element)) {
+					used = true;
+				} else if ("row".equals(element)) {
+					String r = scanner.getAttributeValue(null, "r");
+					row = (r == null) ? row + 1 : Integer.parseInt(r) - 1;
+					column = -1;
+					// 和 jxl 相同，没有单元格的行也计入行数
+					if (row + 1 > rows)
+						rows = row + 1;
+				} else if ("col".equals(element)) {
+					String width = scanner.getAttributeValue(null, "width");
+					if (width != null) {
+						columnWidths.add(new int[] {
+								Integer.parseInt(scanner.getAttributeValue(
+										null, "min")),
+								Integer.parseInt(scanner.getAttributeValue(
+										null, "max")),
+								(int) (Double.parseDouble(width) * 256) });
+					}
+				} else if ("sheetFormatPr".equals(element)) {
+					String width = scanner.getAttributeValue(null,
+							"baseColWidth");
+					if (width != null)
+						defaultColumnWidth = Integer.parseInt(width) * 256;
+				} else if ("mergeCell".equals(element)) {
+					String ref = scanner.getAttributeValue(null, "ref");
+					int colon = ref.indexOf(':');
+					if (colon > 0) {
+						String first = ref.substring(0, colon);
+						String last = ref.substring(colon + 1);
+						merges.add(new int[] { parseRow(first),
+								parseColumn(first), parseRow(last),
+								parseColumn(last) });
+						addUsed(parseRow(last), parseColumn(last));
+					}
+				}
+			}
+		} finally {
+			scanner.close();
+		}
+		if (!merges.isEmpty())
+			mergedRegions = new MergedRegions(
+					merges.toArray(new int[merges.size()][]));
+	}
+	
+	private void addUsed(int row, int column) {
+		if (row + 1 > usedRows)
+			usedRows = row + 1;
+		if (column + 1 > usedColumns)
+			usedColumns = column + 1;
+	}
+	
+	/**
+	 * 从头开始读取行
+	 * 
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	private void restart() throws IOException, XMLStreamException {
+		close();
+		endOfData = false;
+		bufferedIndex = -1;
+		bufferedRow = null;
+	}
+	
+	/**
+	 * 读取下一行，读到 sheetData 结尾时设置 endOfData。行号小于 target 的行
+	 * 直接跳过，不创建单元格
+	 * 
+	 * @param target
+	 *            - 要读取的行号
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	private void readNextRow(int target) throws IOException,
+			XMLStreamException {
+		if (reader == null)
+			reader = workbook.openPart(path);
+		
+		// 找到下一个 <row>
+		while (true) {
+			if (!reader.hasNext()) {
+				endOfData = true;
+				close();
+				return;
+			}
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT
+					&& "row".equals(reader.getLocalName()))
+				break;
+			if (event == XMLStreamConstants.END_ELEMENT
+					&& "sheetData".equals(reader.getLocalName())) {
+				endOfData = true;
+				close();
+				return;
+			}
+		}
+		
+		String r = reader.getAttributeValue(null, "r");
+		int row = (r == null) ? bufferedIndex + 1 : Integer.parseInt(r) - 1;
+		if (row < target) {
+			skipElement();
+			bufferedIndex = row;
+			bufferedRow = EMPTY_ROW;
+			return;
+		}
+		List<Cell> cells = new ArrayList<Cell>();
+		int column = -1;
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT
+					&& "row".equals(reader.getLocalName()))
+				break;
+			if (event == XMLStreamConstants.START_ELEMENT
+					&& "c".equals(reader.getLocalName())) {
+				String ref = reader.getAttributeValue(null, "r");
+				column = (ref == null) ? column + 1 : parseColumn(ref);
+				cells.add(readCell(row, column));
+			}
+		}
+		bufferedIndex = row;
+		bufferedRow = SimpleCell.toRow(row, cells);
+	}
+	
+	/**
+	 * 读取一个单元格，reader 位于 &lt;c&gt;，读到 &lt;/c&gt; 为止
+	 * 
+	 * @param row
+	 *            - 行号
+	 * @param column
+	 *            - 列号
+	 * @return
+	 * @throws XMLStreamException
+	 */
+	private Cell readCell(int row, int column) throws XMLStreamException {
+		String type = reader.getAttributeValue(null, "t");
+		String s = reader.getAttributeValue(null, "s");
+		SimpleCellFormat format = workbook.getCellFormat(s == null ? 0 : Integer
+				.parseInt(s));
+		
+		boolean formula = false;
+		String value = null;
+		StringBuilder inline = null;
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT
+					&& "c".equals(reader.getLocalName()))
+				break;
+			if (event != XMLStreamConstants.START_ELEMENT)
+				continue;
+			String element = reader.getLocalName();
+			if ("v".equals(element)) {
+				value = reader.getElementText();
+			} else if ("f".equals(element)) {
+				formula = true;
+			} else if ("t".equals(element)) {
+				// inlineStr 的 <is><t>
+				if (inline == null)
+					inline = new StringBuilder();
+				inline.append(reader.getElementText());
+			} else if ("rPh".equals(element)) {
+				skipElement();
+			}
+		}
+		
+		if ("inlineStr".equals(type)) {
+			return new SimpleCell(row, column, CellType.LABEL,
+					inline == null ? "" : inline.toString(), format);
+		}
+		if (value == null) {
+			return new SimpleCell(row, column, CellType.EMPTY, "", format);
+		}
+		if ("s".equals(type)) {
+			return new SimpleCell(row, column, CellType.LABEL,
+					workbook.getSharedString(Integer.parseInt(value.trim())),
+					format);
+		}
+		if ("str".equals(type)) {
+			return new SimpleCell(row, column,
+					formula ? CellType.STRING_FORMULA : CellType.LABEL, value,
+					format);
+		}
+		if ("b".equals(type)) {
+			// 和 jxl 相同，输出 true/false
+			String contents = String.valueOf("1".equals(value.trim()));
+			return new SimpleCell(row, column,
+					formula ? CellType.BOOLEAN_FORMULA : CellType.BOOLEAN,
+					contents, format);
+		}
+		if ("e".equals(type)) {
+			return new SimpleCell(row, column,
+					formula ? CellType.FORMULA_ERROR : CellType.ERROR, value,
+					format);
+		}
+		
+		// 数字或日期
+		double number;
+		try {
+			number = Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			return new SimpleCell(row, column, CellType.LABEL, value, format);
+		}
+		return SimpleCell.number(row, column, number, formula, format,
+				workbook.getDataFormatter());
+	}
+	
+	/**
+	 * 跳过当前元素，reader 位于开始标记
+	 * 
+	 * @throws XMLStreamException
+	 */
+	private void skipElement() throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0 && reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				depth--;
+		}
+	}
+	
+	/**
+	 * 单元格引用中的列号，"AB12" 返回 27
+	 * 
+	 * @param ref
+	 *            - 单元格引用
+	 * @return 最小是 0
+	 */
+	static int parseColumn(String ref) {
+		int column = 0;
+		for (int k = 0; k < ref.length(); k++) {
+			char c = ref.charAt(k);
+			if (c >= 'A' && c <= 'Z')
+				column = column * 26 + (c - 'A' + 1);
+			else if (c >= 'a' && c <= 'z')
+				column = column * 26 + (c - 'a' + 1);
+			else if (c != '$')
+				break;
+		}
+		return column - 1;
+	}
+	
+	/**
+	 * 单元格引用中的行号，"AB12" 返回 11
+	 * 
+	 * @param ref
+	 *            - 单元格引用
+	 * @return 最小是 0
+	 */
+	static int parseRow(String ref) {
+		int row = 0;
+		for (int k = 0; k < ref.length(); k++) {
+			char c = ref.charAt(k);
+			if (c >= '0' && c <= '9')
+				row = row * 10 + (c - '0');
+		}
+		return row - 1;
+	}
+}
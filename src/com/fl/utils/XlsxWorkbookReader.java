@@ -0,0 +1,707 @@
+package com.fl.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.DataFormatter;
+
+import jxl.format.Alignment;
+import jxl.format.BorderLineStyle;
+import jxl.format.UnderlineStyle;
+import jxl.format.VerticalAlignment;
+
+/**
+ * 读取 .xlsx 文件
+ * 
+ * 直接按 XML 事件读取 zip 包中的各个部分，不建立 DOM。共享字符串和样式在打开时
+ * 读入内存，工作表的行在转换时逐行读取，内存占用与工作表的大小无关
+ * 
+ * @see XlsxSheetReader
+ */
+public class XlsxWorkbookReader implements WorkbookReader {
+	/** 关系中的 officeDocument 类型 */
+	private static final String REL_OFFICE_DOCUMENT = "/officeDocument";
+	/** 关系中的 worksheet 类型 */
+	private static final String REL_WORKSHEET = "/worksheet";
+	/** 关系中的 sharedStrings 类型 */
+	private static final String REL_SHARED_STRINGS = "/sharedStrings";
+	/** 关系中的 styles 类型 */
+	private static final String REL_STYLES = "/styles";
+	
+	/** XML 解析器，不读取 DTD 和外部实体 */
+	private static final XMLInputFactory XML_FACTORY;
+	
+	static {
+		XML_FACTORY = XMLInputFactory.newInstance();
+		XML_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		XML_FACTORY.setProperty(
+				XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		XML_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+	}
+	
+	/** zip 文件，内存中的数据时是 null */
+	private final ZipFile zip;
+	/** 内存中的 zip 数据，文件时是 null */
+	private final BufferZipFile bufferZip;
+	/** 工作表名称 */
+	private final List<String> sheetNames = new ArrayList<String>();
+	/** 工作表在 zip 包中的路径 */
+	private final List<String> sheetPaths = new ArrayList<String>();
+	/** 共享字符串 */
+	private String[] sharedStrings = new String[0];
+	/** 单元格格式，按 cellXfs 的顺序 */
+	private SimpleCellFormat[] cellFormats = new SimpleCellFormat[0];
+	/** 数字格式化，不是线程安全的 */
+	private final DataFormatter dataFormatter = new DataFormatter();
+	/** 最后读取的工作表 */
+	private XlsxSheetReader currentSheet = null;
+	
+	/**
+	 * 打开 .xlsx 文件，读取工作表列表、共享字符串和样式
+	 * 
+	 * @param file
+	 *            - .xlsx 文件
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public XlsxWorkbookReader(File file) throws IOException,
+			XMLStreamException {
+		this(ExcelSource.fromFile(file));
+	}
+	
+	/**
+	 * 打开 .xlsx 文件，文件来源通过 ZipFile 读取，内存中的数据直接解压，不复制
+	 * 
+	 * @param source
+	 *            - .xlsx 文件的内容
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public XlsxWorkbookReader(ExcelSource source) throws IOException,
+			XMLStreamException {
+		this(source, true);
+	}
+	
+	/**
+	 * 打开 .xlsx 文件
+	 * 
+	 * @param source
+	 *            - .xlsx 文件的内容
+	 * @param readContents
+	 *            - 是否读取共享字符串和样式，false 时只读取工作表列表
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	private XlsxWorkbookReader(ExcelSource source, boolean readContents)
+			throws IOException, XMLStreamException {
+		ByteBuffer buffer = source.getBuffer();
+		if (buffer == null) {
+			zip = new ZipFile(source.getFile());
+			bufferZip = null;
+		} else {
+			zip = null;
+			bufferZip = new BufferZipFile(buffer);
+		}
+		boolean done = false;
+		try {
+			String workbookPath = null;
+			for (String[] rel : readRelationships("")) {
+				if (rel[0].endsWith(REL_OFFICE_DOCUMENT)) {
+					workbookPath = rel[1];
+					break;
+				}
+			}
+			if (workbookPath == null)
+				workbookPath = "xl/workbook.xml";
+			
+			Map<String, String> targets = new HashMap<String, String>();
+			for (String[] rel : readRelationships(workbookPath)) {
+				if (rel[0].endsWith(REL_SHARED_STRINGS) && readContents)
+					readSharedStrings(rel[1]);
+				else if (rel[0].endsWith(REL_STYLES) && readContents)
+					readStyles(rel[1]);
+				else if (rel[0].endsWith(REL_WORKSHEET))
+					targets.put(rel[2], rel[1]);
+			}
+			readWorkbook(workbookPath, targets);
+			done = true;
+		} finally {
+			if (!done)
+				closeZip();
+		}
+	}
+	
+	/**
+	 * 文件是否是 zip 格式 (.xlsx)
+	 * 
+	 * @param file
+	 *            - Excel 文件
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isXlsx(File file) throws IOException {
+		return ExcelSource.fromFile(file).isZip();
+	}
+	
+	public int getNumberOfSheets() {
+		return sheetPaths.size();
+	}
+	
+	public String getSheetName(int index) {
+		return sheetNames.get(index);
+	}
+	
+	public SheetReader getSheet(int index) throws Exception {
+		if (currentSheet != null)
+			currentSheet.close();
+		currentSheet = new XlsxSheetReader(this, sheetNames.get(index),
+				sheetPaths.get(index));
+		return currentSheet;
+	}
+	
+	public void close() {
+		if (currentSheet != null)
+			currentSheet.close();
+		currentSheet = null;
+		closeZip();
+	}
+	
+	// ------------------------------------------------ package
+	
+	/**
+	 * 打开 zip 包中的一个 XML 部分
+	 * 
+	 * @param path
+	 *            - 路径
+	 * @return 不存在时返回 null
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	XMLStreamReader openPart(String path) throws IOException,
+			XMLStreamException {
+		final InputStream input;
+		if (zip != null) {
+			ZipEntry entry = zip.getEntry(path);
+			input = (entry == null) ? null : zip.getInputStream(entry);
+		} else {
+			input = bufferZip.getInputStream(path);
+		}
+		if (input == null)
+			return null;
+		// XMLStreamReader.close 不关闭输入流
+		return new StreamReaderDelegate(
+				XML_FACTORY.createXMLStreamReader(input)) {
+			public void close() throws XMLStreamException {
+				try {
+					super.close();
+				} finally {
+					try {
+						input.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+		};
+	}
+	
+	/**
+	 * 只读取工作表名称和各个工作表 &lt;dimension ref&gt; 中的行数、列数，
+	 * 不读取共享字符串和样式，不建立单元格
+	 * 
+	 * @param source
+	 *            - .xlsx 文件的内容
+	 * @param names
+	 *            - 返回工作表名称
+	 * @param dimensions
+	 *            - 返回各个工作表的 {行数, 列数}
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	static void readDimensions(ExcelSource source, List<String> names,
+			List<int[]> dimensions) throws IOException, XMLStreamException {
+		XlsxWorkbookReader workbook = new XlsxWorkbookReader(source, false);
+		try {
+			for (int k = 0; k < workbook.sheetPaths.size(); k++) {
+				names.add(workbook.sheetNames.get(k));
+				dimensions.add(workbook.readDimension(workbook.sheetPaths
+						.get(k)));
+			}
+		} finally {
+			workbook.close();
+		}
+	}
+	
+	/**
+	 * 取得共享字符串
+	 * 
+	 * @param index
+	 *            - 编号
+	 * @return
+	 */
+	String getSharedString(int index) {
+		return (index >= 0 && index < sharedStrings.length) ? sharedStrings[index]
+				: "";
+	}
+	
+	/**
+	 * 取得单元格格式
+	 * 
+	 * @param index
+	 *            - cellXfs 中的编号
+	 * @return 没有样式时返回 null
+	 */
+	SimpleCellFormat getCellFormat(int index) {
+		return (index >= 0 && index < cellFormats.length) ? cellFormats[index]
+				: null;
+	}
+	
+	DataFormatter getDataFormatter() {
+		return dataFormatter;
+	}
+	
+	// ------------------------------------------------ private
+	
+	private void closeZip() {
+		if (zip != null) {
+			try {
+				zip.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+	
+	/**
+	 * 读取一个部分的关系
+	 * 
+	 * @param partPath
+	 *            - 部分的路径，"" 表示包本身
+	 * @return 每个关系是 {类型, 目标路径, 编号}
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	private List<String[]> readRelationships(String partPath)
+			throws IOException, XMLStreamException {
+		int slash = partPath.lastIndexOf('/');
+		String dir = partPath.substring(0, slash + 1);
+		String relsPath = dir + "_rels/" + partPath.substring(slash + 1)
+				+ ".rels";
+		List<String[]> rels = new ArrayList<String[]>();
+		XMLStreamReader reader = openPart(relsPath);
+		if (reader == null)
+			return rels;
+		try {
+			while (reader.hasNext()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT
+						&& "Relationship".equals(reader.getLocalName())) {
+					String type = reader.getAttributeValue(null, "Type");
+					String target = reader.getAttributeValue(null, "Target");
+					String id = reader.getAttributeValue(null, "Id");
+					if (type == null || target == null
+							|| "External".equals(reader.getAttributeValue(null,
+									"TargetMode")))
+						continue;
+					rels.add(new String[] { type, resolve(dir, target), id });
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return rels;
+	}
+	
+	/**
+	 * 计算关系目标在 zip 包中的路径
+	 * 
+	 * @param dir
+	 *            - 来源部分所在的目录
+	 * @param target
+	 *            - 目标
+	 * @return
+	 */
+	private static String resolve(String dir, String target) {
+		String path = target.startsWith("/") ? target.substring(1)
+				: dir + target;
+		// 处理 ../
+		int up;
+		while ((up = path.indexOf("/../")) > 0) {
+			int parent = path.lastIndexOf('/', up - 1);
+			path = path.substring(0, parent + 1) + path.substring(up + 4);
+		}
+		return path;
+	}
+	
+	/**
+	 * 读取工作表列表
+	 * 
+	 * @param path
+	 *            - workbook.xml 的路径
+	 * @param targets
+	 *            - 关系编号 = 工作表路径
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	private void readWorkbook(String path, Map<String, String> targets)
+			throws IOException, XMLStreamException {
+		XMLStreamReader reader = openPart(path);
+		if (reader == null)
+			throw new IOException("workbook not found: " + path);
+		try {
+			while (reader.hasNext()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT
+						&& "sheet".equals(reader.getLocalName())) {
+					String id = null;
+					for (int k = 0; k < reader.getAttributeCount(); k++) {
+						if ("id".equals(reader.getAttributeLocalName(k)))
+							id = reader.getAttributeValue(k);
+					}
+					// 只处理工作表，忽略图表页
+					String target = targets.get(id);
+					if (target != null) {
+						sheetNames.add(reader.getAttributeValue(null, "name"));
+						sheetPaths.add(target);
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * 读取工作表的 &lt;dimension ref&gt;，它位于 sheetData 之前。没有时按行和
+	 * 单元格的编号计算，这时要读一遍工作表
+	 * 
+	 * @param path
+	 *            - 工作表的路径
+	 * @return {行数, 列数}
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	private int[] readDimension(String path) throws IOException,
+			XMLStreamException {
+		XMLStreamReader reader = openPart(path);
+		if (reader == null)
+			return new int[] { 0, 0 };
+		int rows = 0;
+		int columns = 0;
+		try {
+			while (reader.hasNext()) {
+				if (reader.next() != XMLStreamConstants.START_ELEMENT)
+					continue;
+				String name = reader.getLocalName();
+				String ref = reader.getAttributeValue(null, "r");
+				if ("dimension".equals(name)) {
+					ref = reader.getAttributeValue(null, "ref");
+					if (ref == null)
+						continue;
+					// "A1:L200" 或 "A1"，取最后一个单元格
+					String last = ref.substring(ref.indexOf(':') + 1);
+					return new int[] { XlsxSheetReader.parseRow(last) + 1,
+							XlsxSheetReader.parseColumn(last) + 1 };
+				} else if ("row".equals(name)) {
+					rows = (ref == null) ? rows + 1 : Integer.parseInt(ref);
+				} else if ("c".equals(name) && ref != null) {
+					columns = Math.max(columns,
+							XlsxSheetReader.parseColumn(ref) + 1);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return new int[] { rows, columns };
+	}
+	
+	/**
+	 * 读取共享字符串，富文本只取文字，不包括注音
+	 * 
+	 * @param path
+	 *            - sharedStrings.xml 的路径
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	private void readSharedStrings(String path) throws IOException,
+			XMLStreamException {
+		XMLStreamReader reader = openPart(path);
+		if (reader == null)
+			return;
+		List<String> strings = new ArrayList<String>();
+		try {
+			StringBuilder text = new StringBuilder();
+			boolean phonetic = false;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String name = reader.getLocalName();
+					if ("si".equals(name)) {
+						text.setLength(0);
+					} else if ("rPh".equals(name)) {
+						phonetic = true;
+					} else if ("t".equals(name) && !phonetic) {
+						text.append(reader.getElementText());
+					} else if ("sst".equals(name)) {
+						String count = reader.getAttributeValue(null,
+								"uniqueCount");
+						if (count != null)
+							strings = new ArrayList<String>(
+									Integer.parseInt(count));
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					String name = reader.getLocalName();
+					if ("si".equals(name))
+						strings.add(text.toString());
+					else if ("rPh".equals(name))
+						phonetic = false;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		sharedStrings = strings.toArray(new String[strings.size()]);
+	}
+	
+	/**
+	 * 读取样式：数字格式、字体、边框和 cellXfs
+	 * 
+	 * @param path
+	 *            - styles.xml 的路径
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	private void readStyles(String path) throws IOException,
+			XMLStreamException {
+		XMLStreamReader reader = openPart(path);
+		if (reader == null)
+			return;
+		Map<Integer, String> numberFormats = new HashMap<Integer, String>();
+		List<SimpleFont> fonts = new ArrayList<SimpleFont>();
+		List<BorderLineStyle[]> borders = new ArrayList<BorderLineStyle[]>();
+		List<SimpleCellFormat> formats = new ArrayList<SimpleCellFormat>();
+		try {
+			// 当前所在的区域：fonts, borders, cellXfs
+			String section = null;
+			// 正在读取的字体
+			String fontName = null;
+			int fontSize = 10;
+			boolean bold = false, italic = false, struckout = false;
+			UnderlineStyle underline = null;
+			// 正在读取的边框：上、下、左、右
+			BorderLineStyle[] border = null;
+			// 正在读取的 xf
+			int numFmtId = 0, fontId = 0, borderId = 0;
+			Alignment align = Alignment.GENERAL;
+			VerticalAlignment valign = VerticalAlignment.BOTTOM;
+			boolean wrap = false;
+			
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String name = reader.getLocalName();
+					if ("fonts".equals(name) || "borders".equals(name)
+							|| "cellXfs".equals(name)) {
+						section = name;
+					} else if ("numFmt".equals(name)) {
+						numberFormats.put(
+								Integer.valueOf(reader.getAttributeValue(null,
+										"numFmtId")),
+								reader.getAttributeValue(null, "formatCode"));
+					} else if ("fonts".equals(section)) {
+						if ("font".equals(name)) {
+							fontName = null;
+							fontSize = 10;
+							bold = italic = struckout = false;
+							underline = UnderlineStyle.NO_UNDERLINE;
+						} else if ("name".equals(name)) {
+							fontName = reader.getAttributeValue(null, "val");
+						} else if ("sz".equals(name)) {
+							String val = reader.getAttributeValue(null, "val");
+							if (val != null)
+								fontSize = (int) Math.round(Double
+										.parseDouble(val));
+						} else if ("b".equals(name)) {
+							bold = isTrue(reader.getAttributeValue(null, "val"));
+						} else if ("i".equals(name)) {
+							italic = isTrue(reader.getAttributeValue(null,
+									"val"));
+						} else if ("strike".equals(name)) {
+							struckout = isTrue(reader.getAttributeValue(null,
+									"val"));
+						} else if ("u".equals(name)) {
+							underline = convertUnderline(reader
+									.getAttributeValue(null, "val"));
+						}
+					} else if ("borders".equals(section)) {
+						if ("border".equals(name)) {
+							border = new BorderLineStyle[] {
+									BorderLineStyle.NONE, BorderLineStyle.NONE,
+									BorderLineStyle.NONE, BorderLineStyle.NONE };
+						} else if (border != null) {
+							BorderLineStyle style = convertBorder(reader
+									.getAttributeValue(null, "style"));
+							if ("top".equals(name))
+								border[0] = style;
+							else if ("bottom".equals(name))
+								border[1] = style;
+							else if ("left".equals(name)
+									|| "start".equals(name))
+								border[2] = style;
+							else if ("right".equals(name)
+									|| "end".equals(name))
+								border[3] = style;
+						}
+					} else if ("cellXfs".equals(section)) {
+						if ("xf".equals(name)) {
+							numFmtId = parseInt(reader.getAttributeValue(null,
+									"numFmtId"));
+							fontId = parseInt(reader.getAttributeValue(null,
+									"fontId"));
+							borderId = parseInt(reader.getAttributeValue(null,
+									"borderId"));
+							align = Alignment.GENERAL;
+							valign = VerticalAlignment.BOTTOM;
+							wrap = false;
+						} else if ("alignment".equals(name)) {
+							align = convertAlignment(reader.getAttributeValue(
+									null, "horizontal"));
+							valign = convertVerticalAlignment(reader
+									.getAttributeValue(null, "vertical"));
+							String wrapText = reader.getAttributeValue(null,
+									"wrapText");
+							wrap = wrapText != null && isTrue(wrapText);
+						}
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					String name = reader.getLocalName();
+					if (name.equals(section)) {
+						section = null;
+					} else if ("fonts".equals(section) && "font".equals(name)) {
+						fonts.add(new SimpleFont(fontName, fontSize, bold,
+								italic, struckout, underline));
+					} else if ("borders".equals(section)
+							&& "border".equals(name)) {
+						borders.add(border);
+						border = null;
+					} else if ("cellXfs".equals(section) && "xf".equals(name)) {
+						String formatString = numberFormats.get(Integer
+								.valueOf(numFmtId));
+						if (formatString == null)
+							formatString = BuiltinFormats
+									.getBuiltinFormat(numFmtId);
+						BorderLineStyle[] b = (borderId < borders.size()) ? borders
+								.get(borderId) : null;
+						formats.add(new SimpleCellFormat(
+								fontId < fonts.size() ? fonts.get(fontId)
+										: null,
+								align, valign, wrap,
+								b == null ? BorderLineStyle.NONE : b[0],
+								b == null ? BorderLineStyle.NONE : b[1],
+								b == null ? BorderLineStyle.NONE : b[2],
+								b == null ? BorderLineStyle.NONE : b[3],
+								numFmtId, formatString));
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		cellFormats = formats.toArray(new SimpleCellFormat[formats.size()]);
+	}
+	
+	private static int parseInt(String s) {
+		if (s == null || s.length() == 0)
+			return 0;
+		return Integer.parseInt(s);
+	}
+	
+	/**
+	 * XML 中的布尔值，没有 val 属性表示 true
+	 * 
+	 * @param val
+	 * @return
+	 */
+	private static boolean isTrue(String val) {
+		return val == null || "1".equals(val) || "true".equals(val);
+	}
+	
+	private static UnderlineStyle convertUnderline(String val) {
+		if (val == null || "single".equals(val))
+			return UnderlineStyle.SINGLE;
+		if ("double".equals(val))
+			return UnderlineStyle.DOUBLE;
+		if ("singleAccounting".equals(val))
+			return UnderlineStyle.SINGLE_ACCOUNTING;
+		if ("doubleAccounting".equals(val))
+			return UnderlineStyle.DOUBLE_ACCOUNTING;
+		return UnderlineStyle.NO_UNDERLINE;
+	}
+	
+	private static BorderLineStyle convertBorder(String style) {
+		if (style == null || "none".equals(style))
+			return BorderLineStyle.NONE;
+		if ("thin".equals(style))
+			return BorderLineStyle.THIN;
+		if ("medium".equals(style))
+			return BorderLineStyle.MEDIUM;
+		if ("dashed".equals(style))
+			return BorderLineStyle.DASHED;
+		if ("dotted".equals(style))
+			return BorderLineStyle.DOTTED;
+		if ("thick".equals(style))
+			return BorderLineStyle.THICK;
+		if ("double".equals(style))
+			return BorderLineStyle.DOUBLE;
+		if ("hair".equals(style))
+			return BorderLineStyle.HAIR;
+		if ("mediumDashed".equals(style))
+			return BorderLineStyle.MEDIUM_DASHED;
+		if ("dashDot".equals(style))
+			return BorderLineStyle.DASH_DOT;
+		if ("mediumDashDot".equals(style))
+			return BorderLineStyle.MEDIUM_DASH_DOT;
+		if ("dashDotDot".equals(style))
+			return BorderLineStyle.DASH_DOT_DOT;
+		if ("mediumDashDotDot".equals(style))
+			return BorderLineStyle.MEDIUM_DASH_DOT_DOT;
+		if ("slantDashDot".equals(style))
+			return BorderLineStyle.SLANTED_DASH_DOT;
+		return BorderLineStyle.THIN;
+	}
+	
+	private static Alignment convertAlignment(String align) {
+		if ("left".equals(align))
+			return Alignment.LEFT;
+		if ("center".equals(align) || "centerContinuous".equals(align))
+			return Alignment.CENTRE;
+		if ("right".equals(align))
+			return Alignment.RIGHT;
+		if ("fill".equals(align))
+			return Alignment.FILL;
+		if ("justify".equals(align) || "distributed".equals(align))
+			return Alignment.JUSTIFY;
+		return Alignment.GENERAL;
+	}
+	
+	private static VerticalAlignment convertVerticalAlignment(String align) {
+		if ("top".equals(align))
+			return VerticalAlignment.TOP;
+		if ("center".equals(align))
+			return VerticalAlignment.CENTRE;
+		if ("justify".equals(align) || "distributed".equals(align))
+			return VerticalAlignment.JUSTIFY;
+		return VerticalAlignment.BOTTOM;
+	}
+}